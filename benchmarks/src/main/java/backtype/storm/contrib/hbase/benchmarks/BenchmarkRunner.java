@@ -0,0 +1,29 @@
+package backtype.storm.contrib.hbase.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the JMH command line options, always adding the {@link GCProfiler} so
+ * the allocation rate per operation (<tt>gc.alloc.rate.norm</tt>) is reported next to the
+ * throughput. E.g:
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar MutationBenchmark -rf json
+ * </pre>
+ */
+public class BenchmarkRunner {
+  /**
+   * @param args JMH command line options
+   * @throws Exception
+   */
+  public static void main(String[] args) throws Exception {
+    Options opts =
+        new OptionsBuilder().parent(new CommandLineOptions(args)).addProfiler(GCProfiler.class)
+            .build();
+    new Runner(opts).run();
+  }
+}
@@ -0,0 +1,68 @@
+package backtype.storm.contrib.hbase.benchmarks;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import backtype.storm.contrib.hbase.bolts.HBaseCountersBatchBolt;
+import backtype.storm.contrib.hbase.utils.TupleTableConfig;
+import backtype.storm.transactional.TransactionAttempt;
+import backtype.storm.tuple.Tuple;
+
+/**
+ * Cost per tuple of {@link HBaseCountersBatchBolt#execute(Tuple)}, which builds an increment per
+ * tuple and merges it into the increment of its row. Each invocation is one batch, with as many
+ * distinct rows as <tt>keys</tt>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class IncrementMergeBenchmark {
+  private static final int BATCH = 1000;
+
+  @Param({ "10", "1000" })
+  public int keys;
+
+  private HBaseCountersBatchBolt bolt;
+  private List<Tuple> tuples;
+  private TransactionAttempt attempt;
+
+  @Setup
+  public void setup() {
+    TupleTableConfig config = new TupleTableConfig("shorturl", "shortid");
+    config.addColumn("data", "clicks");
+    config.addColumn("daily", "date");
+
+    bolt = new HBaseCountersBatchBolt(config);
+    tuples = Tuples.tuples(Tuples.values(BATCH, keys));
+    attempt = new TransactionAttempt(BigInteger.ONE, 1L);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public HBaseCountersBatchBolt executeBatch() {
+    // prepare() starts a new batch; the context and collector aren't used until finishBatch()
+    bolt.prepare(new HashMap<Object, Object>(), null, null, attempt);
+    for (Tuple t : tuples) {
+      bolt.execute(t);
+    }
+    return bolt;
+  }
+}
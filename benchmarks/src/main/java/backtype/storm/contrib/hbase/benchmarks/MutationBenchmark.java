@@ -0,0 +1,144 @@
+package backtype.storm.contrib.hbase.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Increment;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import storm.trident.tuple.TridentTuple;
+import backtype.storm.contrib.hbase.utils.TridentConfig;
+import backtype.storm.contrib.hbase.utils.TupleTableConfig;
+import backtype.storm.tuple.Tuple;
+
+/**
+ * Cost of converting a tuple into a HBase mutation, per tuple. The configs match the example
+ * topologies
+ * <p>
+ * The <tt>Baseline</tt> benchmarks convert the tuples the way {@link TupleTableConfig} did before
+ * the column mapping was compiled into a plan, walking the column map, encoding every family and
+ * qualifier and looking up fields by name, for a before and after comparison
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MutationBenchmark {
+  private static final int TUPLES = 1024;
+
+  private TupleTableConfig putConfig;
+  private TupleTableConfig counterConfig;
+  private TridentConfig<?> tridentConfig;
+  private List<Tuple> tuples;
+  private List<Tuple> alternatingTuples;
+  private List<TridentTuple> tridentTuples;
+  private int next;
+
+  @Setup
+  public void setup() {
+    putConfig = new TupleTableConfig("shorturl", "shortid");
+    putConfig.addColumn("data", "url");
+    putConfig.addColumn("data", "user");
+    putConfig.addColumn("data", "date");
+
+    counterConfig = new TupleTableConfig("shorturl", "shortid");
+    counterConfig.addColumn("data", "clicks");
+    counterConfig.addColumn("daily", "date");
+
+    tridentConfig = new TridentConfig<Object>("shorturl", "shortid");
+    tridentConfig.addColumn("data", "url");
+    tridentConfig.addColumn("data", "user");
+    tridentConfig.addColumn("data", "date");
+
+    List<List<Object>> values = Tuples.values(TUPLES, 100);
+    tuples = Tuples.tuples(values);
+    alternatingTuples = Tuples.tuples(values, true);
+    tridentTuples = Tuples.tridentTuples(values);
+  }
+
+  private int nextIndex() {
+    next = (next + 1) & (TUPLES - 1);
+    return next;
+  }
+
+  @Benchmark
+  public Put putFromTuple() {
+    return putConfig.getPutFromTuple(tuples.get(nextIndex()));
+  }
+
+  @Benchmark
+  public Put putFromTupleBaseline() {
+    return putFromTuple(putConfig, tuples.get(nextIndex()));
+  }
+
+  @Benchmark
+  public Put putFromAlternatingStreams() {
+    return putConfig.getPutFromTuple(alternatingTuples.get(nextIndex()));
+  }
+
+  @Benchmark
+  public Increment incrementFromTuple() {
+    return counterConfig.getIncrementFromTuple(tuples.get(nextIndex()),
+      TupleTableConfig.DEFAULT_INCREMENT);
+  }
+
+  @Benchmark
+  public Increment incrementFromTupleBaseline() {
+    return incrementFromTuple(counterConfig, tuples.get(nextIndex()),
+      TupleTableConfig.DEFAULT_INCREMENT);
+  }
+
+  @Benchmark
+  public Put putFromTridentTuple() {
+    return tridentConfig.getPutFromTridentTuple(tridentTuples.get(nextIndex()));
+  }
+
+  @Benchmark
+  public Get getFromTridentTuple() {
+    return tridentConfig.getGetFromTridentTuple(tridentTuples.get(nextIndex()));
+  }
+
+  private static Put putFromTuple(final TupleTableConfig conf, final Tuple tuple) {
+    Put p = new Put(Bytes.toBytes(tuple.getStringByField(conf.getTupleRowKeyField())));
+    for (String cf : conf.getColumnFamilies()) {
+      byte[] cfBytes = Bytes.toBytes(cf);
+      for (String cq : conf.getColumns(cf)) {
+        p.add(cfBytes, Bytes.toBytes(cq), Bytes.toBytes(tuple.getStringByField(cq)));
+      }
+    }
+    return p;
+  }
+
+  private static Increment incrementFromTuple(final TupleTableConfig conf, final Tuple tuple,
+      final long increment) {
+    Increment inc =
+        new Increment(Bytes.toBytes(tuple.getStringByField(conf.getTupleRowKeyField())));
+    for (String cf : conf.getColumnFamilies()) {
+      byte[] cfBytes = Bytes.toBytes(cf);
+      for (String cq : conf.getColumns(cf)) {
+        byte[] val;
+        try {
+          val = Bytes.toBytes(tuple.getStringByField(cq));
+        } catch (IllegalArgumentException ex) {
+          val = Bytes.toBytes(cq);
+        }
+        inc.addColumn(cfBytes, val, increment);
+      }
+    }
+    return inc;
+  }
+}
@@ -0,0 +1,82 @@
+package backtype.storm.contrib.hbase.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import storm.trident.state.JSONOpaqueSerializer;
+import storm.trident.state.JSONTransactionalSerializer;
+import storm.trident.state.OpaqueValue;
+import storm.trident.state.Serializer;
+import storm.trident.state.TransactionalValue;
+import backtype.storm.contrib.hbase.trident.BinaryOpaqueSerializer;
+import backtype.storm.contrib.hbase.trident.BinaryTransactionalSerializer;
+import backtype.storm.contrib.hbase.trident.HBaseAggregateState;
+
+/**
+ * Cost of serializing and deserializing the counter values persisted by
+ * {@link HBaseAggregateState}, with the default JSON serializers and the binary ones
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class StateSerializerBenchmark {
+  @Param({ "json", "binary" })
+  public String format;
+
+  private Serializer opaque;
+  private Serializer transactional;
+  private OpaqueValue opaqueValue;
+  private TransactionalValue transactionalValue;
+  private byte[] opaqueBytes;
+  private byte[] transactionalBytes;
+
+  @Setup
+  public void setup() {
+    if (format.equals("json")) {
+      opaque = new JSONOpaqueSerializer();
+      transactional = new JSONTransactionalSerializer();
+    } else {
+      opaque = new BinaryOpaqueSerializer();
+      transactional = new BinaryTransactionalSerializer();
+    }
+    opaqueValue = new OpaqueValue(123456L, 98765L, 98700L);
+    transactionalValue = new TransactionalValue(123456L, 98765L);
+    opaqueBytes = opaque.serialize(opaqueValue);
+    transactionalBytes = transactional.serialize(transactionalValue);
+  }
+
+  @Benchmark
+  public byte[] serializeOpaque() {
+    return opaque.serialize(opaqueValue);
+  }
+
+  @Benchmark
+  public Object deserializeOpaque() {
+    return opaque.deserialize(opaqueBytes);
+  }
+
+  @Benchmark
+  public byte[] serializeTransactional() {
+    return transactional.serialize(transactionalValue);
+  }
+
+  @Benchmark
+  public Object deserializeTransactional() {
+    return transactional.deserialize(transactionalBytes);
+  }
+}
@@ -0,0 +1,104 @@
+package backtype.storm.contrib.hbase.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import storm.trident.tuple.TridentTuple;
+import storm.trident.tuple.TridentTupleView;
+import backtype.storm.generated.StormTopology;
+import backtype.storm.task.GeneralTopologyContext;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Tuple;
+import backtype.storm.tuple.TupleImpl;
+import backtype.storm.tuple.Values;
+import backtype.storm.utils.Utils;
+
+/**
+ * Builds the tuples used by the benchmarks, with the fields of the example topologies:
+ * <tt>shortid</tt>, <tt>url</tt>, <tt>user</tt> and <tt>date</tt>
+ */
+public class Tuples {
+  public static final Fields FIELDS = new Fields("shortid", "url", "user", "date");
+  // The same fields in reverse order, emitted on a second stream
+  public static final Fields REVERSED_FIELDS = new Fields("date", "user", "url", "shortid");
+  public static final String REVERSED_STREAM = "reversed";
+
+  private static final String SOURCE = "spout";
+  private static final int SOURCE_TASK = 1;
+
+  private Tuples() {
+  }
+
+  /**
+   * @param n The number of tuples
+   * @param keys The number of distinct short ids
+   * @return Values for the tuples, cycling through the short ids and a week of dates
+   */
+  public static List<List<Object>> values(final int n, final int keys) {
+    List<List<Object>> values = new ArrayList<List<Object>>(n);
+    for (int i = 0; i < n; i++) {
+      values.add(new Values("http://bit.ly/" + Integer.toString(i % keys, 36),
+          "www.example.com/page/" + i, "user" + (i % 100), "2012081" + (i % 7)));
+    }
+    return values;
+  }
+
+  /**
+   * @param values The tuple values
+   * @return Storm {@link Tuple}s emitted by a spout with {@link #FIELDS}
+   */
+  public static List<Tuple> tuples(final List<List<Object>> values) {
+    return tuples(values, false);
+  }
+
+  /**
+   * @param values The tuple values
+   * @param alternate Whether every other tuple is emitted on {@link #REVERSED_STREAM}, with
+   *          {@link #REVERSED_FIELDS}, as for a bolt subscribed to two streams
+   * @return Storm {@link Tuple}s emitted by a spout
+   */
+  public static List<Tuple> tuples(final List<List<Object>> values, final boolean alternate) {
+    Map<Integer, String> taskToComponent = new HashMap<Integer, String>();
+    taskToComponent.put(SOURCE_TASK, SOURCE);
+    Map<String, List<Integer>> componentToTasks = new HashMap<String, List<Integer>>();
+    componentToTasks.put(SOURCE, Collections.singletonList(SOURCE_TASK));
+    Map<String, Map<String, Fields>> componentToStreams =
+        new HashMap<String, Map<String, Fields>>();
+    Map<String, Fields> streams = new HashMap<String, Fields>();
+    streams.put(Utils.DEFAULT_STREAM_ID, FIELDS);
+    streams.put(REVERSED_STREAM, REVERSED_FIELDS);
+    componentToStreams.put(SOURCE, streams);
+
+    GeneralTopologyContext context =
+        new GeneralTopologyContext(new StormTopology(), new HashMap<Object, Object>(),
+            taskToComponent, componentToTasks, componentToStreams, "benchmark");
+
+    List<Tuple> tuples = new ArrayList<Tuple>(values.size());
+    for (List<Object> v : values) {
+      if (alternate && tuples.size() % 2 == 1) {
+        List<Object> reversed = new ArrayList<Object>(v);
+        Collections.reverse(reversed);
+        tuples.add(new TupleImpl(context, reversed, SOURCE_TASK, REVERSED_STREAM));
+      } else {
+        tuples.add(new TupleImpl(context, v, SOURCE_TASK, Utils.DEFAULT_STREAM_ID));
+      }
+    }
+    return tuples;
+  }
+
+  /**
+   * @param values The tuple values
+   * @return {@link TridentTuple}s with {@link #FIELDS}
+   */
+  public static List<TridentTuple> tridentTuples(final List<List<Object>> values) {
+    TridentTupleView.FreshOutputFactory factory = new TridentTupleView.FreshOutputFactory(FIELDS);
+    List<TridentTuple> tuples = new ArrayList<TridentTuple>(values.size());
+    for (List<Object> v : values) {
+      tuples.add(factory.create(v));
+    }
+    return tuples;
+  }
+}
@@ -0,0 +1,101 @@
+package backtype.storm.contrib.hbase.loadharness;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import storm.trident.operation.TridentCollector;
+import storm.trident.spout.IBatchSpout;
+import backtype.storm.Config;
+import backtype.storm.task.TopologyContext;
+import backtype.storm.tuple.Fields;
+import backtype.storm.utils.Utils;
+
+/**
+ * A Trident batch spout emitting generated tuples at a target rate, recording the latency from the
+ * emit of each batch to its commit in {@link LoadStats}, once per tuple of the batch
+ * <p>
+ * A replayed batch is regenerated rather than re-emitted, as the load generated matters here and
+ * not the exact tuples.
+ */
+@SuppressWarnings("serial")
+public class GeneratorBatchSpout implements IBatchSpout {
+  private final TupleGenerator generator;
+  private final double tuplesPerSec;
+  private final int batchSize;
+
+  private transient Random random;
+  private transient Map<Long, long[]> pending;
+  private transient long start;
+  private transient long emitted;
+
+  /**
+   * @param generator The tuple generator
+   * @param tuplesPerSec The target rate, or zero to emit as fast as possible
+   * @param batchSize The number of tuples in each batch
+   */
+  public GeneratorBatchSpout(final TupleGenerator generator, final double tuplesPerSec,
+      final int batchSize) {
+    this.generator = generator;
+    this.tuplesPerSec = tuplesPerSec;
+    this.batchSize = batchSize;
+  }
+
+  /** {@inheritDoc} */
+  @SuppressWarnings("rawtypes")
+  @Override
+  public void open(Map conf, TopologyContext context) {
+    this.random = new Random(context.getThisTaskId());
+    this.pending = new HashMap<Long, long[]>();
+    this.start = System.nanoTime();
+    this.emitted = 0;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void emitBatch(long batchId, TridentCollector collector) {
+    if (tuplesPerSec > 0) {
+      long due = start + (long) (emitted / tuplesPerSec * 1e9);
+      long wait = (due - System.nanoTime()) / 1000000;
+      if (wait > 0) {
+        Utils.sleep(wait);
+      }
+    }
+    for (int i = 0; i < batchSize; i++) {
+      collector.emit(generator.next(random));
+    }
+    emitted += batchSize;
+    if (!pending.containsKey(batchId)) {
+      pending.put(batchId, new long[] { System.nanoTime(), batchSize });
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void ack(long batchId) {
+    long[] batch = pending.remove(batchId);
+    if (batch != null) {
+      LoadStats.acked(batch[1], (System.nanoTime() - batch[0]) / 1000);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void close() {
+  }
+
+  /** {@inheritDoc} */
+  @SuppressWarnings("rawtypes")
+  @Override
+  public Map getComponentConfiguration() {
+    Config conf = new Config();
+    conf.setMaxTaskParallelism(1);
+    return conf;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Fields getOutputFields() {
+    return TupleGenerator.FIELDS;
+  }
+}
@@ -0,0 +1,91 @@
+package backtype.storm.contrib.hbase.loadharness;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import backtype.storm.spout.SpoutOutputCollector;
+import backtype.storm.task.TopologyContext;
+import backtype.storm.topology.OutputFieldsDeclarer;
+import backtype.storm.topology.base.BaseRichSpout;
+import backtype.storm.utils.Utils;
+
+/**
+ * A reliable spout emitting generated tuples at a target rate, recording the latency from emit to
+ * ack of each tuple in {@link LoadStats}
+ * <p>
+ * The rate is shared between the spout's tasks. Set <tt>topology.max.spout.pending</tt> to bound
+ * the tuples in flight when the topology can't keep up with the rate.
+ */
+@SuppressWarnings("serial")
+public class GeneratorSpout extends BaseRichSpout {
+  private final TupleGenerator generator;
+  private final double tuplesPerSec;
+
+  private transient SpoutOutputCollector collector;
+  private transient Random random;
+  private transient Map<Long, Long> pending;
+  private transient double taskRate;
+  private transient long start;
+  private transient long emitted;
+  private transient long nextId;
+
+  /**
+   * @param generator The tuple generator
+   * @param tuplesPerSec The target rate of all the spout's tasks, or zero to emit as fast as
+   *          possible
+   */
+  public GeneratorSpout(final TupleGenerator generator, final double tuplesPerSec) {
+    this.generator = generator;
+    this.tuplesPerSec = tuplesPerSec;
+  }
+
+  /** {@inheritDoc} */
+  @SuppressWarnings("rawtypes")
+  @Override
+  public void open(Map conf, TopologyContext context, SpoutOutputCollector collector) {
+    this.collector = collector;
+    this.random = new Random(context.getThisTaskId());
+    this.pending = new HashMap<Long, Long>();
+    this.taskRate = tuplesPerSec / context.getComponentTasks(context.getThisComponentId()).size();
+    this.start = System.nanoTime();
+    this.emitted = 0;
+    this.nextId = 0;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void nextTuple() {
+    if (taskRate > 0 && emitted >= (System.nanoTime() - start) / 1e9 * taskRate) {
+      Utils.sleep(1);
+      return;
+    }
+    Long id = nextId++;
+    pending.put(id, System.nanoTime());
+    collector.emit(generator.next(random), id);
+    emitted++;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void ack(Object msgId) {
+    Long emittedAt = pending.remove(msgId);
+    if (emittedAt != null) {
+      LoadStats.acked(1, (System.nanoTime() - emittedAt) / 1000);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void fail(Object msgId) {
+    // Generated tuples aren't replayed, a fresh tuple takes the place of the failed one
+    pending.remove(msgId);
+    LoadStats.failed(1);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void declareOutputFields(OutputFieldsDeclarer declarer) {
+    declarer.declare(TupleGenerator.FIELDS);
+  }
+}
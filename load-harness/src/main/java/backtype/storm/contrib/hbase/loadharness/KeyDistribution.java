@@ -0,0 +1,171 @@
+package backtype.storm.contrib.hbase.loadharness;
+
+import java.io.Serializable;
+import java.util.Random;
+
+/**
+ * A distribution of key indexes in <tt>[0, cardinality)</tt>, index 0 being the most frequent
+ */
+@SuppressWarnings("serial")
+public abstract class KeyDistribution implements Serializable {
+  protected final long cardinality;
+
+  protected KeyDistribution(final long cardinality) {
+    if (cardinality < 1) {
+      throw new IllegalArgumentException("Cardinality must be positive");
+    }
+    this.cardinality = cardinality;
+  }
+
+  /**
+   * @param random The source of randomness
+   * @return A key index
+   */
+  public abstract long next(Random random);
+
+  /**
+   * @return The number of distinct keys
+   */
+  public long getCardinality() {
+    return cardinality;
+  }
+
+  /**
+   * Parse a distribution, one of:
+   * <ul>
+   * <li><tt>uniform</tt>
+   * <li><tt>zipf:&lt;exponent&gt;</tt>, e.g. <tt>zipf:1.1</tt>
+   * <li><tt>hotspot:&lt;hot key fraction&gt;:&lt;hot access fraction&gt;</tt>, e.g.
+   * <tt>hotspot:0.01:0.9</tt> for 90% of the tuples on 1% of the keys
+   * </ul>
+   * @param spec The distribution
+   * @param cardinality The number of distinct keys
+   * @return The distribution
+   */
+  public static KeyDistribution parse(final String spec, final long cardinality) {
+    String[] parts = spec.split(":");
+    if (parts[0].equals("uniform") && parts.length == 1) {
+      return uniform(cardinality);
+    } else if (parts[0].equals("zipf") && parts.length == 2) {
+      return zipf(cardinality, Double.parseDouble(parts[1]));
+    } else if (parts[0].equals("hotspot") && parts.length == 3) {
+      return hotspot(cardinality, Double.parseDouble(parts[1]), Double.parseDouble(parts[2]));
+    }
+    throw new IllegalArgumentException("Unknown key distribution " + spec);
+  }
+
+  /**
+   * @param cardinality The number of distinct keys
+   * @return Every key equally likely
+   */
+  public static KeyDistribution uniform(final long cardinality) {
+    return new KeyDistribution(cardinality) {
+      @Override
+      public long next(Random random) {
+        return (long) (random.nextDouble() * this.cardinality);
+      }
+    };
+  }
+
+  /**
+   * @param cardinality The number of distinct keys
+   * @param hotKeys The fraction of the keys which are hot
+   * @param hotAccesses The fraction of the accesses to the hot keys
+   * @return Hot and cold keys, each equally likely within their set
+   */
+  public static KeyDistribution hotspot(final long cardinality, final double hotKeys,
+      final double hotAccesses) {
+    final long hot = Math.max(1, Math.min(cardinality, (long) (cardinality * hotKeys)));
+    return new KeyDistribution(cardinality) {
+      @Override
+      public long next(Random random) {
+        if (hot == this.cardinality || random.nextDouble() < hotAccesses) {
+          return (long) (random.nextDouble() * hot);
+        }
+        return hot + (long) (random.nextDouble() * (this.cardinality - hot));
+      }
+    };
+  }
+
+  /**
+   * @param cardinality The number of distinct keys
+   * @param exponent The exponent, the higher the more skewed. Must be positive
+   * @return Keys following Zipf's law, i.e. the key of rank <tt>k</tt> with a probability
+   *         proportional to <tt>1 / k^exponent</tt>
+   */
+  public static KeyDistribution zipf(final long cardinality, final double exponent) {
+    return new Zipf(cardinality, exponent);
+  }
+
+  /**
+   * Samples Zipf's law in constant time by rejection-inversion, see W. Hormann and G. Derflinger,
+   * "Rejection-inversion to generate variates from monotone discrete distributions" (1996)
+   */
+  private static class Zipf extends KeyDistribution {
+    private final double exponent;
+    private final double hIntegralX1;
+    private final double hIntegralN;
+    private final double s;
+
+    Zipf(final long cardinality, final double exponent) {
+      super(cardinality);
+      if (exponent <= 0) {
+        throw new IllegalArgumentException("Zipf exponent must be positive");
+      }
+      this.exponent = exponent;
+      this.hIntegralX1 = hIntegral(1.5) - 1.0;
+      this.hIntegralN = hIntegral(cardinality + 0.5);
+      this.s = 2.0 - hIntegralInverse(hIntegral(2.5) - h(2.0));
+    }
+
+    @Override
+    public long next(Random random) {
+      while (true) {
+        double u = hIntegralN + random.nextDouble() * (hIntegralX1 - hIntegralN);
+        double x = hIntegralInverse(u);
+        long k = (long) (x + 0.5);
+        if (k < 1) {
+          k = 1;
+        } else if (k > cardinality) {
+          k = cardinality;
+        }
+        if (k - x <= s || u >= hIntegral(k + 0.5) - h(k)) {
+          return k - 1;
+        }
+      }
+    }
+
+    private double h(final double x) {
+      return Math.exp(-exponent * Math.log(x));
+    }
+
+    private double hIntegral(final double x) {
+      double logX = Math.log(x);
+      return helper2((1.0 - exponent) * logX) * logX;
+    }
+
+    private double hIntegralInverse(final double x) {
+      double t = x * (1.0 - exponent);
+      if (t < -1.0) {
+        t = -1.0;
+      }
+      return Math.exp(helper1(t) * x);
+    }
+
+    /** log(1 + x) / x, accurate near zero */
+    private static double helper1(final double x) {
+      if (Math.abs(x) > 1e-8) {
+        return Math.log1p(x) / x;
+      }
+      return 1.0 - x * (0.5 - x * (1.0 / 3.0 - 0.25 * x));
+    }
+
+    /** (exp(x) - 1) / x, accurate near zero */
+    private static double helper2(final double x) {
+      if (Math.abs(x) > 1e-8) {
+        return Math.expm1(x) / x;
+      }
+      return 1.0 + x * 0.5 * (1.0 + x * 1.0 / 3.0 * (1.0 + 0.25 * x));
+    }
+  }
+}
@@ -0,0 +1,174 @@
+package backtype.storm.contrib.hbase.loadharness;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import backtype.storm.Config;
+import backtype.storm.LocalCluster;
+import backtype.storm.contrib.hbase.examples.HBaseCountersTopology;
+import backtype.storm.contrib.hbase.examples.HBaseExampleTopology;
+import backtype.storm.contrib.hbase.examples.HBaseTridentAggregateTopology;
+import backtype.storm.contrib.hbase.testing.InMemoryTableFactory;
+import backtype.storm.contrib.hbase.testing.Latency;
+import backtype.storm.contrib.hbase.utils.Histogram;
+import backtype.storm.contrib.hbase.utils.TridentConfig;
+import backtype.storm.contrib.hbase.utils.TupleTableConfig;
+import backtype.storm.generated.StormTopology;
+import backtype.storm.utils.Utils;
+
+/**
+ * Runs one of the example topologies on a <tt>LocalCluster</tt> with generated load, and reports
+ * the throughput, the ack latency percentiles and the number of HBase RPCs per tuple. E.g:
+ *
+ * <pre>
+ * java -jar target/load-harness.jar --topology counters --distribution zipf:1.1 --keys 1000000
+ *     --rate 20000 --rpc-latency lognormal:1:20 --duration 120
+ * </pre>
+ * <p>
+ * Options, all optional:
+ * <ul>
+ * <li><tt>--topology</tt> <tt>example</tt>, <tt>counters</tt> or <tt>trident-aggregate</tt>.
+ * <b>Default is example
+ * <li><tt>--distribution</tt> The distribution of the short ids, see
+ * {@link KeyDistribution#parse(String, long)}. <b>Default is zipf:1.0
+ * <li><tt>--keys</tt> The number of distinct short ids. <b>Default is 100000
+ * <li><tt>--url-width</tt> The number of characters of the urls. <b>Default is 40
+ * <li><tt>--users</tt> The number of distinct users. <b>Default is 1000
+ * <li><tt>--rate</tt> The target tuples per second, zero for as fast as possible. <b>Default is 0
+ * <li><tt>--max-pending</tt> The tuples in flight of the bolt topologies.
+ * <b>Default is 1000
+ * <li><tt>--batch-size</tt> The tuples per Trident batch. <b>Default is 1000
+ * <li><tt>--max-batches</tt> The Trident batches in flight. <b>Default is 3
+ * <li><tt>--write-buffer</tt> True to buffer the bolts' puts and increments, see
+ * {@link TupleTableConfig#setBatch(boolean)}. <b>Default is false
+ * <li><tt>--rpc-latency</tt> The simulated latency of each RPC, <tt>fixed:&lt;ms&gt;</tt>,
+ * <tt>uniform:&lt;min ms&gt;:&lt;max ms&gt;</tt> or <tt>lognormal:&lt;median ms&gt;:&lt;p99
+ * ms&gt;</tt>. <b>Default is fixed:0
+ * <li><tt>--failure-rate</tt> The probability that an RPC fails. <b>Default is 0
+ * <li><tt>--warmup</tt> Seconds of load before measuring. <b>Default is 10
+ * <li><tt>--duration</tt> Seconds of load measured. <b>Default is 60
+ * <li><tt>--hbase</tt> <tt>true</tt> to write to the HBase cluster of the <tt>hbase-site.xml</tt>
+ * on the classpath instead of an in-memory table, in which case RPCs aren't counted. The
+ * <tt>shorturl</tt> table must exist, see the examples. <b>Default is false
+ * </ul>
+ */
+public class LoadHarness {
+  private static final String TABLE = "shorturl";
+
+  /**
+   * @param args The options
+   */
+  @SuppressWarnings("rawtypes")
+  public static void main(String[] args) {
+    Map<String, String> opts = parse(args);
+    String topologyName = get(opts, "topology", "example");
+    long keys = Long.parseLong(get(opts, "keys", "100000"));
+    TupleGenerator generator =
+        new TupleGenerator(KeyDistribution.parse(get(opts, "distribution", "zipf:1.0"), keys),
+            Integer.parseInt(get(opts, "url-width", "40")), Integer.parseInt(get(opts, "users",
+              "1000")));
+    double rate = Double.parseDouble(get(opts, "rate", "0"));
+    boolean inMemory = !Boolean.parseBoolean(get(opts, "hbase", "false"));
+
+    InMemoryTableFactory tables =
+        new InMemoryTableFactory().addTable(TABLE, "data", "daily", "weekly", "monthly")
+            .setRpcLatency(parseLatency(get(opts, "rpc-latency", "fixed:0")))
+            .setFailureRate(Double.parseDouble(get(opts, "failure-rate", "0")));
+
+    Config stormConf = new Config();
+    stormConf.setNumAckers(1);
+
+    StormTopology topology;
+    if (topologyName.equals("trident-aggregate")) {
+      TridentConfig config = HBaseTridentAggregateTopology.createConfig();
+      configure(config, tables, inMemory, opts);
+      topology =
+          HBaseTridentAggregateTopology.buildTopology(new GeneratorBatchSpout(generator, rate,
+              Integer.parseInt(get(opts, "batch-size", "1000"))), config);
+      stormConf.setMaxSpoutPending(Integer.parseInt(get(opts, "max-batches", "3")));
+    } else {
+      boolean counters = topologyName.equals("counters");
+      if (!counters && !topologyName.equals("example")) {
+        throw new IllegalArgumentException("Unknown topology " + topologyName);
+      }
+      TupleTableConfig config =
+          counters ? HBaseCountersTopology.createConfig() : HBaseExampleTopology.createConfig();
+      configure(config, tables, inMemory, opts);
+      GeneratorSpout spout = new GeneratorSpout(generator, rate);
+      topology =
+          counters ? HBaseCountersTopology.buildTopology(spout, config) : HBaseExampleTopology
+              .buildTopology(spout, config);
+      stormConf.setMaxSpoutPending(Integer.parseInt(get(opts, "max-pending", "1000")));
+    }
+
+    long warmup = Long.parseLong(get(opts, "warmup", "10")) * 1000;
+    long duration = Long.parseLong(get(opts, "duration", "60")) * 1000;
+
+    LocalCluster cluster = new LocalCluster();
+    cluster.submitTopology("hbase-load", stormConf, topology);
+
+    Utils.sleep(warmup);
+    LoadStats.reset();
+    long rpcs = InMemoryTableFactory.getRpcCount(TABLE);
+    long start = System.currentTimeMillis();
+
+    Utils.sleep(duration);
+    long acked = LoadStats.getAcked();
+    long failed = LoadStats.getFailed();
+    long elapsed = System.currentTimeMillis() - start;
+    rpcs = InMemoryTableFactory.getRpcCount(TABLE) - rpcs;
+    Histogram latency = LoadStats.getLatency();
+
+    cluster.killTopology("hbase-load");
+    cluster.shutdown();
+
+    System.out.println(String.format("topology      %s", topologyName));
+    System.out.println(String.format("tuples/s      %.1f", acked * 1000.0 / elapsed));
+    System.out.println(String.format("acked         %d", acked));
+    System.out.println(String.format("failed        %d", failed));
+    System.out.println(String.format("ack p50 (ms)  %.3f", latency.getPercentile(50) / 1000.0));
+    System.out.println(String.format("ack p99 (ms)  %.3f", latency.getPercentile(99) / 1000.0));
+    System.out.println(String.format("ack p999 (ms) %.3f", latency.getPercentile(99.9) / 1000.0));
+    if (inMemory) {
+      System.out.println(String.format("rpcs/tuple    %.4f", acked == 0 ? 0.0 : (double) rpcs
+          / acked));
+    }
+  }
+
+  private static void configure(final TupleTableConfig config, final InMemoryTableFactory tables,
+      final boolean inMemory, final Map<String, String> opts) {
+    if (inMemory) {
+      config.setTableFactory(tables);
+    }
+    config.setBatch(Boolean.parseBoolean(get(opts, "write-buffer", "false")));
+  }
+
+  private static Latency parseLatency(final String spec) {
+    String[] parts = spec.split(":");
+    if (parts[0].equals("fixed") && parts.length == 2) {
+      return Latency.fixed(Double.parseDouble(parts[1]));
+    } else if (parts[0].equals("uniform") && parts.length == 3) {
+      return Latency.uniform(Double.parseDouble(parts[1]), Double.parseDouble(parts[2]));
+    } else if (parts[0].equals("lognormal") && parts.length == 3) {
+      return Latency.logNormal(Double.parseDouble(parts[1]), Double.parseDouble(parts[2]));
+    }
+    throw new IllegalArgumentException("Unknown latency " + spec);
+  }
+
+  private static Map<String, String> parse(final String[] args) {
+    Map<String, String> opts = new HashMap<String, String>();
+    for (int i = 0; i < args.length; i++) {
+      if (!args[i].startsWith("--") || i + 1 == args.length) {
+        throw new IllegalArgumentException("Expected --<option> <value> at " + args[i]);
+      }
+      opts.put(args[i].substring(2), args[++i]);
+    }
+    return opts;
+  }
+
+  private static String get(final Map<String, String> opts, final String name,
+      final String defaultValue) {
+    String value = opts.get(name);
+    return value == null ? defaultValue : value;
+  }
+}
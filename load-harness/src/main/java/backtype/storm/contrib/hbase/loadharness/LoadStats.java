@@ -0,0 +1,64 @@
+package backtype.storm.contrib.hbase.loadharness;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import backtype.storm.contrib.hbase.utils.Histogram;
+
+/**
+ * The acks, fails and ack latencies of the generator spouts, shared by all the spout tasks of a
+ * <tt>LocalCluster</tt> since they run in the same JVM
+ */
+public final class LoadStats {
+  private static final AtomicLong ACKED = new AtomicLong();
+  private static final AtomicLong FAILED = new AtomicLong();
+  private static final Histogram LATENCY = new Histogram();
+
+  private LoadStats() {
+  }
+
+  /**
+   * @param tuples The number of tuples acked
+   * @param micros The time from their emit to their ack
+   */
+  public static void acked(final long tuples, final long micros) {
+    ACKED.addAndGet(tuples);
+    LATENCY.record(micros, tuples);
+  }
+
+  /**
+   * @param tuples The number of tuples failed
+   */
+  public static void failed(final long tuples) {
+    FAILED.addAndGet(tuples);
+  }
+
+  /**
+   * @return The number of tuples acked
+   */
+  public static long getAcked() {
+    return ACKED.get();
+  }
+
+  /**
+   * @return The number of tuples failed
+   */
+  public static long getFailed() {
+    return FAILED.get();
+  }
+
+  /**
+   * @return The ack latencies
+   */
+  public static Histogram getLatency() {
+    return LATENCY;
+  }
+
+  /**
+   * Drop the stats gathered so far, e.g. at the end of the warm-up
+   */
+  public static void reset() {
+    ACKED.set(0);
+    FAILED.set(0);
+    LATENCY.reset();
+  }
+}
@@ -0,0 +1,66 @@
+package backtype.storm.contrib.hbase.loadharness;
+
+import java.io.Serializable;
+import java.util.Random;
+
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Values;
+
+/**
+ * Generates the <tt>shortid</tt>, <tt>url</tt>, <tt>user</tt> and <tt>date</tt> tuples of the
+ * example topologies, with keys drawn from a {@link KeyDistribution}
+ * <p>
+ * Each key index is scrambled into its short id, so the hot keys are spread over the row key space
+ * as hashed or random ids would be, rather than all falling into the first region. The url of a
+ * short id is always the same, padded to the configured width.
+ */
+@SuppressWarnings("serial")
+public class TupleGenerator implements Serializable {
+  public static final Fields FIELDS = new Fields("shortid", "url", "user", "date");
+
+  private static final String[] DATES = { "20120810", "20120811", "20120812", "20120813",
+      "20120814", "20120815", "20120816" };
+
+  private final KeyDistribution keys;
+  private final int urlWidth;
+  private final int users;
+
+  /**
+   * @param keys The distribution of the short ids
+   * @param urlWidth The number of characters of each url
+   * @param users The number of distinct users, drawn uniformly
+   */
+  public TupleGenerator(final KeyDistribution keys, final int urlWidth, final int users) {
+    this.keys = keys;
+    this.urlWidth = urlWidth;
+    this.users = users;
+  }
+
+  /**
+   * @param random The source of randomness
+   * @return A tuple
+   */
+  public Values next(final Random random) {
+    String id = Long.toHexString(scramble(keys.next(random)));
+    return new Values("http://bit.ly/" + id, url(id), "user" + random.nextInt(users),
+        DATES[random.nextInt(DATES.length)]);
+  }
+
+  private String url(final String id) {
+    StringBuilder url = new StringBuilder(urlWidth).append("www.").append(id).append(".com/");
+    while (url.length() < urlWidth) {
+      url.append('x');
+    }
+    url.setLength(urlWidth);
+    return url.toString();
+  }
+
+  /**
+   * A bijective 64 bit mix, so distinct key indexes give distinct ids
+   */
+  private static long scramble(long x) {
+    x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+    x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+    return x ^ (x >>> 31);
+  }
+}
@@ -0,0 +1,197 @@
+package backtype.storm.contrib.hbase.bolts;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.log4j.Logger;
+
+import backtype.storm.contrib.hbase.utils.HTableConnector;
+import backtype.storm.contrib.hbase.utils.TupleTableConfig;
+import backtype.storm.task.OutputCollector;
+import backtype.storm.tuple.Tuple;
+
+/**
+ * Writes puts to HBase on dedicated writer threads, so that the bolt's executor thread never waits
+ * on a region server round trip.
+ * <p>
+ * Puts are handed over through a bounded queue. When the queue is full {@link #submit(Tuple, Put)}
+ * blocks, which applies backpressure to the executor. Each writer thread has its own
+ * {@link HTableConnector}, drains up to {@link FlushPolicy#getMaxMutations()} puts at a time from
+ * the queue and flushes them in a single batch.
+ * <p>
+ * The {@link OutputCollector} is not touched by the writer threads. The tuples of completed and
+ * failed batches are queued and handed back to the collector on the executor thread by
+ * {@link #drainCompleted(OutputCollector, boolean)}.
+ */
+public class AsyncPutWriter {
+  private static final Logger LOG = Logger.getLogger(AsyncPutWriter.class);
+
+  private static final long POLL_MILLIS = 100L;
+
+  private final TupleTableConfig conf;
+  private final int maxBatch;
+  private final BlockingQueue<PendingPut> queue;
+  private final BoltMetrics metrics;
+  private final Queue<PendingPut> acked = new ConcurrentLinkedQueue<PendingPut>();
+  private final Queue<Tuple> failed = new ConcurrentLinkedQueue<Tuple>();
+  private final List<Thread> writers = new ArrayList<Thread>();
+  private volatile boolean running = true;
+
+  /**
+   * A tuple, the put created from it and when it was received
+   */
+  private static class PendingPut {
+    final Tuple tuple;
+    final Put put;
+    final long received;
+
+    PendingPut(final Tuple tuple, final Put put, final long received) {
+      this.tuple = tuple;
+      this.put = put;
+      this.received = received;
+    }
+  }
+
+  /**
+   * Start the writer threads
+   * @param conf The {@link TupleTableConfig}
+   * @param writerThreads The number of writer threads
+   * @param queueCapacity The maximum number of puts waiting to be written
+   * @param maxBatch The maximum number of puts written in one batch
+   * @param metrics The bolt's {@link BoltMetrics}, recording the writes and acks
+   * @throws IOException
+   */
+  public AsyncPutWriter(final TupleTableConfig conf, final int writerThreads,
+      final int queueCapacity, final int maxBatch, final BoltMetrics metrics) throws IOException {
+    this.conf = conf;
+    this.metrics = metrics;
+    this.maxBatch = maxBatch > 0 ? maxBatch : FlushPolicy.DEFAULT_MAX_MUTATIONS;
+    this.queue = new ArrayBlockingQueue<PendingPut>(queueCapacity);
+
+    for (int i = 0; i < writerThreads; i++) {
+      final HTableConnector connector = new HTableConnector(conf);
+      Thread t = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          write(connector);
+        }
+      }, "hbase-writer-" + conf.getTableName() + "-" + i);
+      t.setDaemon(true);
+      writers.add(t);
+    }
+
+    for (Thread t : writers) {
+      t.start();
+    }
+
+    LOG.info(String.format("Started %d writer threads for HBase table %s", writerThreads,
+      conf.getTableName()));
+  }
+
+  /**
+   * Queue a put to be written. Blocks while the queue is full
+   * @param tuple The {@link Tuple} the put was created from
+   * @param put The {@link Put}
+   * @param receivedNanos When the tuple reached the bolt, from {@link System#nanoTime()}
+   * @throws InterruptedException
+   */
+  public void submit(final Tuple tuple, final Put put, final long receivedNanos)
+      throws InterruptedException {
+    queue.put(new PendingPut(tuple, put, receivedNanos));
+  }
+
+  /**
+   * Ack or fail the tuples of all batches completed since the last call. Must be called from the
+   * bolt's executor thread
+   * @param collector The {@link OutputCollector}
+   * @param ack Whether to ack successfully written tuples
+   */
+  public void drainCompleted(final OutputCollector collector, final boolean ack) {
+    PendingPut p;
+    while ((p = acked.poll()) != null) {
+      if (ack) {
+        collector.ack(p.tuple);
+        metrics.acked(p.received);
+      }
+    }
+    Tuple t;
+    while ((t = failed.poll()) != null) {
+      collector.fail(t);
+    }
+  }
+
+  /**
+   * Stop accepting puts, write out everything still queued and wait for the writer threads to
+   * finish
+   */
+  public void shutdown() {
+    running = false;
+    for (Thread t : writers) {
+      try {
+        t.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+  }
+
+  /**
+   * Writer thread loop
+   * @param connector The writer thread's {@link HTableConnector}
+   */
+  private void write(final HTableConnector connector) {
+    List<PendingPut> batch = new ArrayList<PendingPut>(maxBatch);
+    List<Put> puts = new ArrayList<Put>(maxBatch);
+
+    try {
+      while (running || !queue.isEmpty()) {
+        PendingPut first;
+        try {
+          first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+        if (first == null) {
+          continue;
+        }
+
+        batch.add(first);
+        queue.drainTo(batch, maxBatch - 1);
+        for (PendingPut p : batch) {
+          puts.add(p.put);
+        }
+
+        long start = System.nanoTime();
+        try {
+          connector.getTable().put(puts);
+          connector.getTable().flushCommits();
+          metrics.written(start, puts.size(), (double) puts.size() / maxBatch);
+          acked.addAll(batch);
+        } catch (IOException ex) {
+          LOG.error(String.format("Unable to write %d puts to HBase table %s", puts.size(),
+            conf.getTableName()), ex);
+          metrics.failed(ex);
+          // The failed tuples will be replayed, don't resend their puts with the next batch
+          connector.clearWriteBuffer();
+          for (PendingPut p : batch) {
+            failed.add(p.tuple);
+          }
+        }
+
+        batch.clear();
+        puts.clear();
+      }
+    } finally {
+      connector.close();
+    }
+  }
+}
@@ -0,0 +1,130 @@
+package backtype.storm.contrib.hbase.bolts;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+
+import org.apache.hadoop.hbase.client.Increment;
+
+import backtype.storm.contrib.hbase.utils.HConnectionRegistry;
+import backtype.storm.contrib.hbase.utils.Histogram;
+import backtype.storm.metric.api.IMetric;
+import backtype.storm.task.IMetricsContext;
+
+/**
+ * The metrics of a {@link HBaseBolt} or {@link HBaseCountersBolt} task, registered every
+ * {@link HConnectionRegistry#METRICS_BUCKET_SECS} seconds:
+ * <ul>
+ * <li><tt>hbase-mutations</tt> The number of puts or increments and their estimated size, as
+ * <tt>mutations</tt> and <tt>bytes</tt>
+ * <li><tt>hbase-write-millis</tt> A {@link Histogram} of the duration of each write to HBase, i.e.
+ * each flush of the write buffer or batch of coalesced increments, or each single put or increment
+ * when not batching. Its <tt>count</tt> is the number of writes
+ * <li><tt>hbase-write-size</tt> A {@link Histogram} of the mutations per write
+ * <li><tt>hbase-write-buffer-fill</tt> A {@link Histogram} of how full the buffer was when written,
+ * as a percentage of the write buffer size, or of the maximum number of mutations when the buffer
+ * isn't bounded by size
+ * <li><tt>hbase-failures</tt> The number of failed writes by exception class
+ * <li><tt>hbase-ack-latency-millis</tt> A {@link Histogram} of the time from a tuple reaching the
+ * bolt to its ack
+ * </ul>
+ * Thread-safe, so asynchronous writer threads can record their writes.
+ */
+public class BoltMetrics {
+  public static final String MUTATIONS_METRIC_NAME = "hbase-mutations";
+  public static final String WRITE_MILLIS_METRIC_NAME = "hbase-write-millis";
+  public static final String WRITE_SIZE_METRIC_NAME = "hbase-write-size";
+  public static final String WRITE_BUFFER_FILL_METRIC_NAME = "hbase-write-buffer-fill";
+  public static final String FAILURES_METRIC_NAME = "hbase-failures";
+  public static final String ACK_LATENCY_METRIC_NAME = "hbase-ack-latency-millis";
+
+  private final Counts mutations = new Counts();
+  private final Histogram writeMicros = new Histogram(1000.0);
+  private final Histogram writeSize = new Histogram();
+  private final Histogram bufferFill = new Histogram();
+  private final Counts failures = new Counts();
+  private final Histogram ackMicros = new Histogram(1000.0);
+
+  /**
+   * Register the metrics with the task
+   * @param context The task's {@link IMetricsContext}, i.e. its topology context
+   */
+  public void register(final IMetricsContext context) {
+    int bucket = HConnectionRegistry.METRICS_BUCKET_SECS;
+    context.registerMetric(MUTATIONS_METRIC_NAME, mutations, bucket);
+    context.registerMetric(WRITE_MILLIS_METRIC_NAME, writeMicros, bucket);
+    context.registerMetric(WRITE_SIZE_METRIC_NAME, writeSize, bucket);
+    context.registerMetric(WRITE_BUFFER_FILL_METRIC_NAME, bufferFill, bucket);
+    context.registerMetric(FAILURES_METRIC_NAME, failures, bucket);
+    context.registerMetric(ACK_LATENCY_METRIC_NAME, ackMicros, bucket);
+  }
+
+  /**
+   * @param bytes The estimated size of a mutation
+   */
+  public void mutation(final long bytes) {
+    mutations.incr("mutations", 1);
+    mutations.incr("bytes", bytes);
+  }
+
+  /**
+   * @param startNanos When the write started, from {@link System#nanoTime()}
+   * @param size The number of mutations written
+   * @param fill How full the buffer was, between 0 and 1, or a negative value if unknown
+   */
+  public void written(final long startNanos, final int size, final double fill) {
+    writeMicros.record((System.nanoTime() - startNanos) / 1000);
+    writeSize.record(size);
+    if (fill >= 0) {
+      bufferFill.record(Math.round(Math.min(fill, 1.0) * 100));
+    }
+  }
+
+  /**
+   * @param ex The cause of a failed write
+   */
+  public void failed(final Throwable ex) {
+    failures.incr(ex.getClass().getSimpleName(), 1);
+  }
+
+  /**
+   * @param receivedNanos When the acked tuple reached the bolt, from {@link System#nanoTime()}
+   */
+  public void acked(final long receivedNanos) {
+    ackMicros.record((System.nanoTime() - receivedNanos) / 1000);
+  }
+
+  /**
+   * @param inc An {@link Increment}
+   * @return Its estimated size in bytes: the row, and each column and its 8 byte amount
+   */
+  public static long sizeOf(final Increment inc) {
+    long bytes = inc.getRow().length;
+    for (Map.Entry<byte[], NavigableMap<byte[], Long>> cf : inc.getFamilyMap().entrySet()) {
+      for (byte[] cq : cf.getValue().keySet()) {
+        bytes += cf.getKey().length + cq.length + 8;
+      }
+    }
+    return bytes;
+  }
+
+  /**
+   * Thread-safe counts by name, reset on every report
+   */
+  private static class Counts implements IMetric {
+    private Map<String, Long> counts = new HashMap<String, Long>();
+
+    synchronized void incr(final String name, final long n) {
+      Long c = counts.get(name);
+      counts.put(name, c == null ? n : c + n);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized Object getValueAndReset() {
+      Map<String, Long> value = counts;
+      counts = new HashMap<String, Long>();
+      return value;
+    }
+  }
+}
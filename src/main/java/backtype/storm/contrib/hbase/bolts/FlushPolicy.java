@@ -0,0 +1,103 @@
+package backtype.storm.contrib.hbase.bolts;
+
+import java.io.Serializable;
+
+/**
+ * Controls when a batching {@link HBaseBolt} flushes its client-side write buffer to HBase.
+ * <p>
+ * The buffer is flushed as soon as any one of the following limits is reached:
+ * <ul>
+ * <li>The number of buffered mutations</li>
+ * <li>The estimated heap size of the buffered mutations, in bytes</li>
+ * <li>The age of the oldest buffered mutation, checked on every tick tuple</li>
+ * </ul>
+ * Buffered tuples are only acked once the flush that contains them has succeeded, so a tuple is
+ * never acked while its data is still sitting in the client-side write buffer.
+ */
+@SuppressWarnings("serial")
+public class FlushPolicy implements Serializable {
+
+  public static final int DEFAULT_MAX_MUTATIONS = 1000;
+  public static final int DEFAULT_FLUSH_INTERVAL_SECS = 1;
+
+  private int maxMutations = DEFAULT_MAX_MUTATIONS;
+  private long maxBytes = 0L;
+  private int flushIntervalSecs = DEFAULT_FLUSH_INTERVAL_SECS;
+
+  /**
+   * @return The maximum number of buffered mutations before a flush. <b>Default is 1000
+   */
+  public int getMaxMutations() {
+    return maxMutations;
+  }
+
+  /**
+   * @param maxMutations Sets the maximum number of mutations to buffer before flushing. A value of
+   *          zero or less disables the limit
+   * @return This policy
+   */
+  public FlushPolicy setMaxMutations(int maxMutations) {
+    this.maxMutations = maxMutations;
+    return this;
+  }
+
+  /**
+   * @return The maximum number of buffered bytes before a flush
+   */
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * @param maxBytes Sets the maximum estimated size in bytes of the buffered mutations before
+   *          flushing.
+   *          <p>
+   *          By default (zero) the size of the table's client-side write buffer is used
+   * @return This policy
+   */
+  public FlushPolicy setMaxBytes(long maxBytes) {
+    this.maxBytes = maxBytes;
+    return this;
+  }
+
+  /**
+   * @return The maximum age in seconds of a buffered mutation. <b>Default is 1 second
+   */
+  public int getFlushIntervalSecs() {
+    return flushIntervalSecs;
+  }
+
+  /**
+   * @param flushIntervalSecs Sets the maximum age in seconds of a buffered mutation. This is also
+   *          used as the tick tuple frequency of the bolt. A value of zero or less disables time
+   *          based flushing
+   * @return This policy
+   */
+  public FlushPolicy setFlushIntervalSecs(int flushIntervalSecs) {
+    this.flushIntervalSecs = flushIntervalSecs;
+    return this;
+  }
+
+  /**
+   * @param mutations The number of buffered mutations
+   * @param bytes The estimated size of the buffered mutations
+   * @param bufferSize The size of the table's client-side write buffer
+   * @return True if the buffer should be flushed because of its size
+   */
+  public boolean isFull(int mutations, long bytes, long bufferSize) {
+    if (maxMutations > 0 && mutations >= maxMutations) {
+      return true;
+    }
+    long limit = maxBytes > 0 ? maxBytes : bufferSize;
+    return limit > 0 && bytes >= limit;
+  }
+
+  /**
+   * @param oldestMillis The time the oldest buffered mutation was added
+   * @param nowMillis The current time
+   * @return True if the buffer should be flushed because of its age
+   */
+  public boolean isExpired(long oldestMillis, long nowMillis) {
+    return flushIntervalSecs > 0 && nowMillis - oldestMillis >= flushIntervalSecs * 1000L;
+  }
+}
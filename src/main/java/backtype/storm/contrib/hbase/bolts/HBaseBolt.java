@@ -1,12 +1,23 @@
 package backtype.storm.contrib.hbase.bolts;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+import org.apache.hadoop.hbase.client.Put;
+
 import org.apache.log4j.Logger;
 
+import backtype.storm.Config;
+import backtype.storm.Constants;
+import backtype.storm.contrib.hbase.utils.HConnectionRegistry;
 import backtype.storm.contrib.hbase.utils.HTableConnector;
 import backtype.storm.contrib.hbase.utils.TupleTableConfig;
+import backtype.storm.contrib.hbase.utils.TupleTraceWriter;
 import backtype.storm.task.OutputCollector;
 import backtype.storm.task.TopologyContext;
 import backtype.storm.topology.IRichBolt;
@@ -19,10 +30,28 @@ import backtype.storm.tuple.Tuple;
  * By default works in batch mode by enabling HBase's client-side write buffer. Enabling batch mode
  * is recommended for high throughput, but it can be disabled in {@link TupleTableConfig}.
  * <p>
+ * In batch mode tuples are not acked until the write buffer holding their puts has been flushed.
+ * When the buffer is flushed is controlled by the {@link FlushPolicy}, which bounds the number of
+ * buffered puts, their size and their age. The age is checked on tick tuples, so that a quiet
+ * stream doesn't hold data in the write buffer indefinitely. If a flush fails all of the buffered
+ * tuples are failed so they can be replayed.
+ * <p>
+ * Optionally puts can be written asynchronously by a pool of writer threads, see
+ * {@link #setAsync(int, int)}. The executor thread then only converts tuples into puts and hands
+ * them over, and tuples are acked or failed once their batch has been written.
+ * <p>
+ * The tuples reaching the bolt can be recorded to trace files, see
+ * {@link #setTraceDirectory(String)}, and replayed later by a
+ * {@link backtype.storm.contrib.hbase.testing.TraceReplaySpout}.
+ * <p>
+ * Each task registers the mutation, write, failure and ack latency metrics of {@link BoltMetrics}.
+ * <p>
  * The HBase configuration is picked up from the first <tt>hbase-site.xml</tt> encountered in the
  * classpath
  * @see TupleTableConfig
  * @see HTableConnector
+ * @see FlushPolicy
+ * @see AsyncPutWriter
  */
 @SuppressWarnings("serial")
 public class HBaseBolt implements IRichBolt {
@@ -32,6 +61,20 @@ public class HBaseBolt implements IRichBolt {
   protected HTableConnector connector;
   protected TupleTableConfig conf;
   protected boolean autoAck = true;
+  protected FlushPolicy flushPolicy = new FlushPolicy();
+  protected int asyncWriterThreads = 0;
+  protected int asyncQueueCapacity = 10000;
+  protected transient AsyncPutWriter asyncWriter;
+  protected String traceDirectory;
+  protected long traceMaxBytes = 1L << 30;
+  protected transient TupleTraceWriter trace;
+  protected transient BoltMetrics metrics;
+
+  // Tuples whose puts are held in the client-side write buffer, and when they were received
+  protected transient List<Tuple> pending;
+  protected transient long[] pendingReceived;
+  protected transient long pendingBytes;
+  protected transient long pendingSince;
 
   public HBaseBolt(TupleTableConfig conf) {
     this.conf = conf;
@@ -42,33 +85,221 @@ public class HBaseBolt implements IRichBolt {
   @Override
   public void prepare(Map stormConf, TopologyContext context, OutputCollector collector) {
     this.collector = collector;
+    this.pending = new ArrayList<Tuple>();
+    this.pendingReceived = new long[16];
+    this.pendingBytes = 0L;
+    this.metrics = new BoltMetrics();
+    this.conf.compile(context);
 
     try {
       this.connector = new HTableConnector(conf);
+      if (asyncWriterThreads > 0) {
+        this.asyncWriter =
+            new AsyncPutWriter(conf, asyncWriterThreads, asyncQueueCapacity,
+                flushPolicy.getMaxMutations(), metrics);
+      }
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
 
+    if (traceDirectory != null) {
+      File file =
+          new File(traceDirectory, String.format("%s-%d.trace", context.getThisComponentId(),
+            context.getThisTaskId()));
+      try {
+        this.trace = new TupleTraceWriter(file, traceMaxBytes);
+        LOG.info("Capturing tuples to " + file);
+      } catch (IOException e) {
+        LOG.error("Unable to capture tuples to " + file, e);
+      }
+    }
+
+    context.registerMetric(HConnectionRegistry.HANDLES_METRIC_NAME,
+      HConnectionRegistry.handlesInUseMetric(), HConnectionRegistry.METRICS_BUCKET_SECS);
+    metrics.register(context);
+
     LOG.info("Preparing HBaseBolt for table: " + this.conf.getTableName());
   }
 
   /** {@inheritDoc} */
   @Override
   public void execute(Tuple input) {
+    if (asyncWriter != null) {
+      executeAsync(input);
+      return;
+    }
+
+    if (isTickTuple(input)) {
+      if (!pending.isEmpty() && flushPolicy.isExpired(pendingSince, System.currentTimeMillis())) {
+        flush();
+      }
+      return;
+    }
+
+    long received = System.nanoTime();
+    capture(input);
+    Put p = conf.getPutFromTuple(input);
+    metrics.mutation(p.heapSize());
+    long start = System.nanoTime();
+    try {
+      this.connector.getTable().put(p);
+    } catch (IOException ex) {
+      // The put flushed the write buffer and the flush failed. The buffer is cleared on failure,
+      // so the puts of the pending tuples are lost too
+      LOG.error(String.format("Unable to put %d rows to HBase table %s", pending.size() + 1,
+        conf.getTableName()), ex);
+      metrics.failed(ex);
+      completePending(false);
+      pendingBytes = 0L;
+      this.collector.fail(input);
+      return;
+    }
+
+    if (!conf.isBatch()) {
+      // Auto-flush is on so the put has already been sent to HBase
+      metrics.written(start, 1, -1);
+      if (this.autoAck) {
+        this.collector.ack(input);
+        metrics.acked(received);
+      }
+      return;
+    }
+
+    addPending(input, received);
+    pendingBytes += p.heapSize();
+
+    if (flushPolicy.isFull(pending.size(), pendingBytes,
+      this.connector.getWriteBufferSize())) {
+      flush();
+    }
+  }
+
+  /**
+   * Hands the tuple's put to the writer threads, blocking while their queue is full, and acks or
+   * fails the tuples of any batches they have completed
+   * @param input The {@link Tuple}
+   */
+  protected void executeAsync(Tuple input) {
+    asyncWriter.drainCompleted(this.collector, this.autoAck);
+    if (isTickTuple(input)) {
+      return;
+    }
+
+    long received = System.nanoTime();
+    capture(input);
+    Put p = conf.getPutFromTuple(input);
+    metrics.mutation(p.heapSize());
+    try {
+      asyncWriter.submit(input, p, received);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      this.collector.fail(input);
+    }
+  }
+
+  /**
+   * Hold a tuple until the write containing its mutation has been flushed
+   * @param input The {@link Tuple}
+   * @param receivedNanos When the tuple reached the bolt, from {@link System#nanoTime()}
+   */
+  protected void addPending(Tuple input, long receivedNanos) {
+    if (pending.isEmpty()) {
+      pendingSince = System.currentTimeMillis();
+    }
+    if (pending.size() == pendingReceived.length) {
+      pendingReceived = Arrays.copyOf(pendingReceived, pendingReceived.length * 2);
+    }
+    pendingReceived[pending.size()] = receivedNanos;
+    pending.add(input);
+  }
+
+  /**
+   * Ack the pending tuples once their write has succeeded, or fail them if it failed, and clear
+   * them
+   * @param success Whether the write succeeded
+   */
+  protected void completePending(boolean success) {
+    for (int i = 0; i < pending.size(); i++) {
+      if (!success) {
+        this.collector.fail(pending.get(i));
+      } else if (this.autoAck) {
+        this.collector.ack(pending.get(i));
+        metrics.acked(pendingReceived[i]);
+      }
+    }
+    pending.clear();
+  }
+
+  /**
+   * Records the tuple to the trace file, if capturing. Capture stops when the trace is full or
+   * can't be written, without affecting the processing of the tuples
+   * @param input The {@link Tuple}
+   */
+  protected void capture(Tuple input) {
+    if (trace == null) {
+      return;
+    }
+    try {
+      if (!trace.write(input)) {
+        LOG.info(String.format("Tuple trace reached %d bytes, stopping capture", trace.getBytes()));
+        closeTrace();
+      }
+    } catch (IOException e) {
+      LOG.error("Unable to capture tuple, stopping capture", e);
+      closeTrace();
+    }
+  }
+
+  private void closeTrace() {
+    try {
+      trace.close();
+    } catch (IOException e) {
+      LOG.warn("Unable to close tuple trace", e);
+    }
+    trace = null;
+  }
+
+  /**
+   * Flushes the client-side write buffer to HBase, then acks the buffered tuples. If the flush
+   * fails the buffered tuples are failed instead
+   */
+  protected void flush() {
+    boolean success = true;
+    long start = System.nanoTime();
     try {
-      this.connector.getTable().put(conf.getPutFromTuple(input));
+      this.connector.getTable().flushCommits();
+      long bufferSize = this.connector.getWriteBufferSize();
+      metrics.written(start, pending.size(), bufferSize > 0 ? (double) pendingBytes / bufferSize
+          : -1);
     } catch (IOException ex) {
-      throw new RuntimeException(ex);
+      LOG.error(String.format("Unable to flush %d puts to HBase table %s", pending.size(),
+        conf.getTableName()), ex);
+      metrics.failed(ex);
+      success = false;
     }
 
-    if (this.autoAck) {
-      this.collector.ack(input);
+    if (LOG.isDebugEnabled()) {
+      LOG.debug(String.format("Flushed %d puts (%d bytes) to HBase table %s", pending.size(),
+        pendingBytes, conf.getTableName()));
     }
+
+    completePending(success);
+    pendingBytes = 0L;
   }
 
   /** {@inheritDoc} */
   @Override
   public void cleanup() {
+    if (asyncWriter != null) {
+      asyncWriter.shutdown();
+      asyncWriter.drainCompleted(this.collector, this.autoAck);
+    }
+    if (!pending.isEmpty()) {
+      flush();
+    }
+    if (trace != null) {
+      closeTrace();
+    }
     this.connector.close();
   }
 
@@ -80,7 +311,25 @@ public class HBaseBolt implements IRichBolt {
   /** {@inheritDoc} */
   @Override
   public Map<String, Object> getComponentConfiguration() {
-    return null;
+    int tickSecs = flushPolicy.getFlushIntervalSecs();
+    if (asyncWriterThreads > 0) {
+      // Completed batches are acked on tick tuples when the stream is quiet
+      tickSecs = Math.max(tickSecs, 1);
+    } else if (!conf.isBatch() || tickSecs <= 0) {
+      return null;
+    }
+    Map<String, Object> componentConf = new HashMap<String, Object>();
+    componentConf.put(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS, tickSecs);
+    return componentConf;
+  }
+
+  /**
+   * @param tuple The {@link Tuple}
+   * @return True if the tuple is a system tick tuple
+   */
+  protected static boolean isTickTuple(final Tuple tuple) {
+    return Constants.SYSTEM_COMPONENT_ID.equals(tuple.getSourceComponent())
+        && Constants.SYSTEM_TICK_STREAM_ID.equals(tuple.getSourceStreamId());
   }
 
   /**
@@ -96,4 +345,61 @@ public class HBaseBolt implements IRichBolt {
   public void setAutoAck(boolean autoAck) {
     this.autoAck = autoAck;
   }
+
+  /**
+   * @return the flushPolicy
+   */
+  public FlushPolicy getFlushPolicy() {
+    return flushPolicy;
+  }
+
+  /**
+   * @param flushPolicy The {@link FlushPolicy} used to decide when to flush the write buffer
+   */
+  public void setFlushPolicy(FlushPolicy flushPolicy) {
+    this.flushPolicy = flushPolicy;
+  }
+
+  /**
+   * Enables asynchronous writes. Puts are written by the given number of writer threads, each with
+   * its own connection to the table
+   * @param writerThreads The number of writer threads. Zero disables asynchronous writes
+   * @param queueCapacity The maximum number of puts waiting for a writer thread. When the queue is
+   *          full the bolt blocks until there is space
+   */
+  public void setAsync(int writerThreads, int queueCapacity) {
+    this.asyncWriterThreads = writerThreads;
+    this.asyncQueueCapacity = queueCapacity;
+  }
+
+  /**
+   * @return Whether asynchronous writes are enabled
+   */
+  public boolean isAsync() {
+    return asyncWriterThreads > 0;
+  }
+
+  /**
+   * Captures the tuples reaching each task of the bolt to a <tt>&lt;component&gt;-&lt;task
+   * id&gt;.trace</tt> file, see {@link TupleTraceWriter}. <b>Default is null, no capture
+   * @param traceDirectory The local directory of the trace files on the workers
+   */
+  public void setTraceDirectory(String traceDirectory) {
+    this.traceDirectory = traceDirectory;
+  }
+
+  /**
+   * @return The directory of the trace files, or null if tuples aren't captured
+   */
+  public String getTraceDirectory() {
+    return traceDirectory;
+  }
+
+  /**
+   * @param traceMaxBytes The size of a task's trace file at which its capture stops. <b>Default is
+   *          1GB
+   */
+  public void setTraceMaxBytes(long traceMaxBytes) {
+    this.traceMaxBytes = traceMaxBytes;
+  }
 }
@@ -2,6 +2,8 @@ package backtype.storm.contrib.hbase.bolts;
 
 import java.io.IOException;
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NavigableMap;
@@ -15,6 +17,7 @@ import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.log4j.Logger;
 
 import backtype.storm.contrib.hbase.utils.HTableConnector;
+import backtype.storm.contrib.hbase.utils.HTableConnectorPool;
 import backtype.storm.contrib.hbase.utils.TupleTableConfig;
 import backtype.storm.coordination.BatchBoltExecutor;
 import backtype.storm.coordination.BatchOutputCollector;
@@ -46,8 +49,11 @@ import backtype.storm.tuple.Values;
  * is skipped. The Tuple must have failed after previously incrementing the counter but before
  * reporting success back to Storm, so it was replayed</li>
  * </ol>
+ * Committing a batch takes three round trips regardless of its size: one multi-get for the txids
+ * of all counters, one batch of increments (one per row), and one flush of the txid updates.
  * @see BatchBoltExecutor
  * @see HTableConnector
+ * @see HTableConnectorPool
  * @see TupleTableConfig
  */
 @SuppressWarnings("serial")
@@ -93,14 +99,7 @@ public class HBaseCountersBatchBolt extends BaseTransactionalBolt implements ICo
 
     if (extInc != null) {
       // Increment already exists for row, add newInc to extInc
-      for (Entry<byte[], NavigableMap<byte[], Long>> families : newInc.getFamilyMap().entrySet()) {
-
-        for (Entry<byte[], Long> columns : families.getValue().entrySet()) {
-          TupleTableConfig.addIncrement(extInc, families.getKey(), columns.getKey(),
-            columns.getValue());
-        }
-      }
-      counters.put(newInc.getRow(), extInc);
+      TupleTableConfig.addIncrement(extInc, newInc);
     } else {
       counters.put(newInc.getRow(), newInc);
     }
@@ -110,41 +109,53 @@ public class HBaseCountersBatchBolt extends BaseTransactionalBolt implements ICo
   @Override
   public void finishBatch() {
     try {
-      connector = new HTableConnector(conf);
+      connector = HTableConnectorPool.borrow(conf);
     } catch (IOException ex) {
       throw new RuntimeException(ex);
     }
 
+    try {
+      updateCounters();
+    } finally {
+      HTableConnectorPool.release(connector);
+      connector = null;
+    }
+  }
+
+  /**
+   * Increments the counters of this batch that haven't already been updated by this transaction
+   */
+  private void updateCounters() {
     if (LOG.isDebugEnabled()) {
       LOG.debug("Finishing tx: " + attempt.getTransactionId());
       LOG.debug(String.format("Updating idempotent counters for %d rows in table '%s'",
         counters.size(), conf.getTableName()));
     }
 
-    for (Increment inc : counters.values()) {
-      for (Entry<byte[], NavigableMap<byte[], Long>> e : inc.getFamilyMap().entrySet()) {
+    List<Increment> incs = new ArrayList<Increment>(counters.values());
+    Result[] txids = getLatestTxids(incs);
 
+    // Build the increments and txid updates for the counters not yet updated by this tx
+    List<Increment> toIncrement = new ArrayList<Increment>(incs.size());
+    List<Put> txidPuts = new ArrayList<Put>(incs.size());
+    byte[] txid = attempt.getTransactionId().toByteArray();
+
+    for (int i = 0; i < incs.size(); i++) {
+      Increment inc = incs.get(i);
+      Increment newInc = new Increment(inc.getRow());
+      newInc.setWriteToWAL(conf.isWriteToWAL());
+      Put txidPut = new Put(inc.getRow());
+
+      for (Entry<byte[], NavigableMap<byte[], Long>> e : inc.getFamilyMap().entrySet()) {
         for (Entry<byte[], Long> c : e.getValue().entrySet()) {
-          // Get counters latest txid from table
           byte[] txidCQ = txidQualifier(c.getKey());
-          BigInteger latestTxid = getLatestTxid(inc.getRow(), e.getKey(), txidCQ);
-          long counter = c.getValue();
+          byte[] latest = txids[i].getValue(e.getKey(), txidCQ);
+          BigInteger latestTxid = latest == null ? null : new BigInteger(latest);
 
           if (latestTxid == null || !latestTxid.equals(attempt.getTransactionId())) {
             // txids are different so safe to increment counter
-            try {
-              counter =
-                  connector.getTable().incrementColumnValue(inc.getRow(), e.getKey(), c.getKey(),
-                    c.getValue(), conf.isWriteToWAL());
-            } catch (IOException ex) {
-              throw new RuntimeException(String.format("Unable to increment counter: %s, %s, %s",
-                Bytes.toString(inc.getRow()), Bytes.toString(e.getKey()),
-                Bytes.toString(c.getKey())), ex);
-            }
-
-            putLatestTxid(inc.getRow(), e.getKey(), txidCQ);
-
-            collector.emit(new Values(inc.getRow(), e.getKey(), c.getKey(), counter));
+            TupleTableConfig.addIncrement(newInc, e.getKey(), c.getKey(), c.getValue());
+            txidPut.add(e.getKey(), txidCQ, txid);
 
             if (LOG.isDebugEnabled()) {
               LOG.debug(String.format(
@@ -152,7 +163,6 @@ public class HBaseCountersBatchBolt extends BaseTransactionalBolt implements ICo
                 Bytes.toString(inc.getRow()), Bytes.toString(e.getKey()),
                 Bytes.toString(c.getKey()), latestTxid, attempt.getTransactionId()));
             }
-
           } else {
             if (LOG.isDebugEnabled()) {
               LOG.debug(String.format("txids for counter %s, %s, %s are the same [%d], skipping",
@@ -162,48 +172,85 @@ public class HBaseCountersBatchBolt extends BaseTransactionalBolt implements ICo
           }
         }
       }
+
+      if (!newInc.getFamilyMap().isEmpty()) {
+        toIncrement.add(newInc);
+        txidPuts.add(txidPut);
+      }
+    }
+
+    if (toIncrement.isEmpty()) {
+      return;
+    }
+
+    Object[] results = incrementCounters(toIncrement);
+    putLatestTxids(txidPuts);
+
+    for (int i = 0; i < toIncrement.size(); i++) {
+      Increment inc = toIncrement.get(i);
+      Result res = (Result) results[i];
+      for (Entry<byte[], NavigableMap<byte[], Long>> e : inc.getFamilyMap().entrySet()) {
+        for (byte[] cq : e.getValue().keySet()) {
+          long counter = Bytes.toLong(res.getValue(e.getKey(), cq));
+          collector.emit(new Values(inc.getRow(), e.getKey(), cq, counter));
+        }
+      }
     }
+  }
 
+  /**
+   * Sends the increments to HBase in a single batch
+   * @param incs The increments, at most one per row
+   * @return The {@link Result} of each increment, holding the new counter values
+   */
+  private Object[] incrementCounters(List<Increment> incs) {
+    try {
+      return connector.getTable().batch(incs);
+    } catch (IOException ex) {
+      throw new RuntimeException(String.format("Unable to increment counters for %d rows",
+        incs.size()), ex);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while incrementing counters", ex);
+    }
   }
 
   /**
-   * Updates the latest txid for the counter
-   * @param row The row key
-   * @param fam The column family
-   * @param qual The column qualifier of the txid (e.g. the counters qualifier + "_txid")
+   * Updates the latest txid for the incremented counters, flushing them in one batch
+   * @param puts The txid puts, at most one per row
    */
-  private void putLatestTxid(byte[] row, byte[] fam, byte[] qual) {
-    Put txidPut = new Put(row);
-    txidPut.add(fam, qual, attempt.getTransactionId().toByteArray());
+  private void putLatestTxids(List<Put> puts) {
     try {
-      connector.getTable().put(txidPut);
+      connector.getTable().put(puts);
+      connector.getTable().flushCommits();
     } catch (IOException e) {
-      throw new RuntimeException("Unable to update txid for " + txidPut.toString(), e);
+      throw new RuntimeException(String.format("Unable to update txids for %d rows", puts.size()),
+        e);
     }
   }
 
   /**
-   * Get the latest txid to successfully update the given counter
-   * @param row The row key
-   * @param fam The column family
-   * @param qual The column qualifier of the txid (e.g. the counters qualifier + "_txid")
-   * @return The latest txid
+   * Get the latest txids to successfully update the given counters with a single multi-get
+   * @param incs The counters, at most one increment per row
+   * @return The txid cells for each increment, in the same order
    */
-  private BigInteger getLatestTxid(byte[] row, byte[] fam, byte[] qual) {
-    Get getTxid = new Get(row);
-    getTxid.addColumn(fam, qual);
-    BigInteger latestTxid = null;
+  private Result[] getLatestTxids(List<Increment> incs) {
+    List<Get> gets = new ArrayList<Get>(incs.size());
+    for (Increment inc : incs) {
+      Get getTxid = new Get(inc.getRow());
+      for (Entry<byte[], NavigableMap<byte[], Long>> e : inc.getFamilyMap().entrySet()) {
+        for (byte[] cq : e.getValue().keySet()) {
+          getTxid.addColumn(e.getKey(), txidQualifier(cq));
+        }
+      }
+      gets.add(getTxid);
+    }
 
     try {
-      Result res = connector.getTable().get(getTxid);
-      if (!res.isEmpty()) {
-        latestTxid = new BigInteger(res.getValue(fam, qual));
-      }
+      return connector.getTable().get(gets);
     } catch (IOException e) {
-      throw new RuntimeException("Unable to get txid for " + getTxid.toString(), e);
+      throw new RuntimeException(String.format("Unable to get txids for %d rows", gets.size()), e);
     }
-
-    return latestTxid;
   }
 
   /**
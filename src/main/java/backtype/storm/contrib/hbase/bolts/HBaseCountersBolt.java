@@ -1,13 +1,31 @@
 package backtype.storm.contrib.hbase.bolts;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
+import org.apache.hadoop.hbase.client.Increment;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.log4j.Logger;
+
+import backtype.storm.Config;
 import backtype.storm.contrib.hbase.utils.TupleTableConfig;
+import backtype.storm.task.OutputCollector;
+import backtype.storm.task.TopologyContext;
 import backtype.storm.tuple.Tuple;
 
 /**
  * A Storm bolt for incrementing counters in HBase
  * <p>
+ * By default each tuple is sent to HBase as its own increment. In coalescing mode, see
+ * {@link #setCoalesce(boolean)}, increments are summed in memory per row, column family and column
+ * qualifier, and sent to HBase in a single batch when the {@link FlushPolicy} says so. The number
+ * of RPCs then depends on the number of distinct counters rather than on the number of tuples.
+ * Tuples are only acked once the batch containing their increment has been committed.
+ * <p>
  * <strong>Note: </strong>this is a non-transactional bolt. Based on Storm's guaranteed message
  * processing mechanism there is a chance of over-counting if tuples fail after updating the HBase
  * counter and before they are successfully acked and are subsequently replayed.
@@ -15,24 +33,134 @@ import backtype.storm.tuple.Tuple;
  */
 @SuppressWarnings("serial")
 public class HBaseCountersBolt extends HBaseBolt {
+  private static final Logger LOG = Logger.getLogger(HBaseCountersBolt.class);
+
+  protected boolean coalesce = false;
+
+  // Map of row keys to coalesced increments
+  protected transient Map<byte[], Increment> counters;
 
   public HBaseCountersBolt(TupleTableConfig conf) {
     super(conf);
   }
 
+  /** {@inheritDoc} */
+  @SuppressWarnings("rawtypes")
+  @Override
+  public void prepare(Map stormConf, TopologyContext context, OutputCollector collector) {
+    super.prepare(stormConf, context, collector);
+    this.counters = new TreeMap<byte[], Increment>(Bytes.BYTES_COMPARATOR);
+  }
+
   /** {@inheritDoc} */
   @Override
   public void execute(Tuple input) {
+    if (isTickTuple(input)) {
+      if (!pending.isEmpty() && flushPolicy.isExpired(pendingSince, System.currentTimeMillis())) {
+        flush();
+      }
+      return;
+    }
+
+    long received = System.nanoTime();
+    capture(input);
+    Increment newInc = conf.getIncrementFromTuple(input, TupleTableConfig.DEFAULT_INCREMENT);
+    metrics.mutation(BoltMetrics.sizeOf(newInc));
+
+    if (coalesce) {
+      Increment extInc = counters.get(newInc.getRow());
+      if (extInc != null) {
+        TupleTableConfig.addIncrement(extInc, newInc);
+      } else {
+        counters.put(newInc.getRow(), newInc);
+      }
+
+      addPending(input, received);
+
+      if (flushPolicy.isFull(counters.size(), 0L, 0L)) {
+        flush();
+      }
+      return;
+    }
+
+    long start = System.nanoTime();
     try {
-      this.connector.getTable().increment(
-        conf.getIncrementFromTuple(input, TupleTableConfig.DEFAULT_INCREMENT));
+      this.connector.getTable().increment(newInc);
     } catch (IOException ex) {
-      throw new RuntimeException(ex);
+      LOG.error("Unable to increment row in HBase table " + conf.getTableName(), ex);
+      metrics.failed(ex);
+      completePending(false);
+      this.collector.fail(input);
+      return;
     }
+    metrics.written(start, 1, -1);
 
     if (this.autoAck) {
       this.collector.ack(input);
+      metrics.acked(received);
+    }
+  }
+
+  /**
+   * Sends the coalesced increments to HBase in a single batch, then acks the tuples they were
+   * created from. If the batch fails the tuples are failed instead
+   */
+  @Override
+  protected void flush() {
+    List<Increment> incs = new ArrayList<Increment>(counters.values());
+    boolean success = true;
+    long start = System.nanoTime();
+    try {
+      this.connector.getTable().batch(incs);
+      int maxMutations = flushPolicy.getMaxMutations();
+      metrics.written(start, incs.size(), maxMutations > 0 ? (double) incs.size() / maxMutations
+          : -1);
+    } catch (IOException ex) {
+      LOG.error(String.format("Unable to increment %d rows in HBase table %s", incs.size(),
+        conf.getTableName()), ex);
+      metrics.failed(ex);
+      success = false;
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      metrics.failed(ex);
+      success = false;
+    }
+
+    if (LOG.isDebugEnabled()) {
+      LOG.debug(String.format("Incremented %d rows for %d tuples in HBase table %s", incs.size(),
+        pending.size(), conf.getTableName()));
+    }
+
+    completePending(success);
+    counters.clear();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Map<String, Object> getComponentConfiguration() {
+    if (!coalesce || flushPolicy.getFlushIntervalSecs() <= 0) {
+      // Increments are sent straight to HBase, so there is nothing to flush
+      return null;
     }
+    Map<String, Object> componentConf = new HashMap<String, Object>();
+    componentConf.put(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS, flushPolicy.getFlushIntervalSecs());
+    return componentConf;
+  }
+
+  /**
+   * @return Whether increments are coalesced in memory
+   */
+  public boolean isCoalesce() {
+    return coalesce;
   }
 
+  /**
+   * @param coalesce Whether to sum increments for the same counter in memory and send them to HBase
+   *          in batches. The batch size is bounded by the number of distinct rows, see
+   *          {@link FlushPolicy#setMaxMutations(int)}, and by the age of the oldest tuple, see
+   *          {@link FlushPolicy#setFlushIntervalSecs(int)}
+   */
+  public void setCoalesce(boolean coalesce) {
+    this.coalesce = coalesce;
+  }
 }
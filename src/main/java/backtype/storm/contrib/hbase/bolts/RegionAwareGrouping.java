@@ -0,0 +1,219 @@
+package backtype.storm.contrib.hbase.bolts;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Threads;
+import org.apache.log4j.Logger;
+
+import backtype.storm.contrib.hbase.utils.HConnectionRegistry;
+import backtype.storm.contrib.hbase.utils.TableFactory;
+import backtype.storm.contrib.hbase.utils.TupleTableConfig;
+import backtype.storm.generated.GlobalStreamId;
+import backtype.storm.grouping.CustomStreamGrouping;
+import backtype.storm.task.WorkerTopologyContext;
+import backtype.storm.tuple.Fields;
+
+/**
+ * A stream grouping that sends each tuple to the {@link HBaseBolt} task responsible for the region
+ * server hosting the tuple's row.
+ * <p>
+ * Each region server is assigned to one or more tasks, and each region to one of its server's
+ * tasks, so a task's write buffer only holds mutations for a single region server and each flush is
+ * a single batched RPC. Region locations are taken from the table and refreshed periodically in the
+ * background, on a daemon thread shared by the worker's groupings, so region splits and moves are
+ * picked up without holding up the emitting task. Until the locations have been loaded, or if the
+ * table isn't a {@link HTable} with region locations, tuples are grouped by a hash of their row
+ * key.
+ * <p>
+ * The row key is built the same way as in the bolt, from the {@link TupleTableConfig}. E.g:
+ *
+ * <pre>
+ * builder.setBolt(&quot;hbase&quot;, new HBaseBolt(config), 8).customGrouping(&quot;spout&quot;,
+ *   new RegionAwareGrouping(config));
+ * </pre>
+ */
+@SuppressWarnings("serial")
+public class RegionAwareGrouping implements CustomStreamGrouping {
+  private static final Logger LOG = Logger.getLogger(RegionAwareGrouping.class);
+
+  public static final long DEFAULT_REFRESH_MILLIS = 5 * 60 * 1000L;
+
+  private static ScheduledExecutorService refresher;
+
+  private TupleTableConfig conf;
+  private long refreshMillis;
+
+  private transient Fields fields;
+  private transient List<List<Integer>> targets;
+  // Region start keys mapped to the index of the target task, replaced as a whole on refresh
+  private transient volatile NavigableMap<byte[], Integer> regions;
+
+  /**
+   * @param conf The {@link TupleTableConfig} of the target bolt
+   */
+  public RegionAwareGrouping(final TupleTableConfig conf) {
+    this(conf, DEFAULT_REFRESH_MILLIS);
+  }
+
+  /**
+   * @param conf The {@link TupleTableConfig} of the target bolt
+   * @param refreshMillis How often to refresh the region locations
+   */
+  public RegionAwareGrouping(final TupleTableConfig conf, final long refreshMillis) {
+    this.conf = conf;
+    this.refreshMillis = refreshMillis;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void prepare(WorkerTopologyContext context, GlobalStreamId stream,
+      List<Integer> targetTasks) {
+    this.fields = context.getComponentOutputFields(stream);
+    this.targets = new ArrayList<List<Integer>>(targetTasks.size());
+    for (Integer task : targetTasks) {
+      targets.add(Arrays.asList(task));
+    }
+
+    refresh();
+    getRefresher().scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          refresh();
+        } catch (RuntimeException ex) {
+          // Keep the previous assignment, and the refresh scheduled
+          LOG.warn("Unable to refresh region locations for HBase table " + conf.getTableName(), ex);
+        }
+      }
+    }, refreshMillis, refreshMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public List<Integer> chooseTasks(int taskId, List<Object> values) {
+    byte[] row = conf.getRowKey(fields, values);
+    return targets.get(chooseTask(regions, row, targets.size()));
+  }
+
+  /**
+   * @param regions Region start keys mapped to the index of their task, or null if unknown
+   * @param row The row key
+   * @param numTasks The number of target tasks
+   * @return The index of the task for the row: the task of the region holding the row, or of a
+   *         hash of the row if the regions are unknown
+   */
+  public static int chooseTask(final NavigableMap<byte[], Integer> regions, final byte[] row,
+      final int numTasks) {
+    if (regions == null) {
+      return (Arrays.hashCode(row) & Integer.MAX_VALUE) % numTasks;
+    }
+
+    Entry<byte[], Integer> region = regions.floorEntry(row);
+    if (region == null) {
+      region = regions.firstEntry();
+    }
+    return region.getValue();
+  }
+
+  /**
+   * Assign regions to tasks. Region server i owns tasks i, i + numServers, i + 2 * numServers...
+   * and spreads its regions over them. If there are more servers than tasks, servers share tasks
+   * @param locations The regions of the table and their servers
+   * @param numTasks The number of target tasks
+   * @return Region start keys mapped to the index of their task
+   */
+  public static NavigableMap<byte[], Integer> assignRegions(
+      final NavigableMap<HRegionInfo, ServerName> locations, final int numTasks) {
+    // Group the regions by server
+    Map<String, List<byte[]>> servers = new TreeMap<String, List<byte[]>>();
+    for (Entry<HRegionInfo, ServerName> e : locations.entrySet()) {
+      String server = e.getValue() == null ? "" : e.getValue().getHostAndPort();
+      List<byte[]> startKeys = servers.get(server);
+      if (startKeys == null) {
+        startKeys = new ArrayList<byte[]>();
+        servers.put(server, startKeys);
+      }
+      startKeys.add(e.getKey().getStartKey());
+    }
+
+    int numServers = servers.size();
+    NavigableMap<byte[], Integer> assignment = new TreeMap<byte[], Integer>(Bytes.BYTES_COMPARATOR);
+    int s = 0;
+    for (List<byte[]> startKeys : servers.values()) {
+      int owned = numTasks > numServers ? (numTasks - s + numServers - 1) / numServers : 1;
+      for (int r = 0; r < startKeys.size(); r++) {
+        int task = (s + (r % owned) * numServers) % numTasks;
+        assignment.put(startKeys.get(r), task);
+      }
+      s++;
+    }
+    return assignment;
+  }
+
+  /**
+   * Reload the region locations and reassign regions to tasks. On failure the previous assignment
+   * is kept. The table handle is only held for the duration of the refresh
+   */
+  private void refresh() {
+    TableFactory factory = conf.getTableFactory();
+    Configuration hbaseConf = HConnectionRegistry.getDefaultConfiguration();
+    HTableInterface table = null;
+    NavigableMap<HRegionInfo, ServerName> locations;
+    try {
+      table = factory.getTable(hbaseConf, conf.getTableName());
+      if (!(table instanceof HTable)) {
+        return;
+      }
+      locations = ((HTable) table).getRegionLocations();
+    } catch (IOException ex) {
+      LOG.warn("Unable to load region locations for HBase table " + conf.getTableName(), ex);
+      return;
+    } finally {
+      if (table != null) {
+        try {
+          factory.releaseTable(hbaseConf, table);
+        } catch (IOException ex) {
+          LOG.warn("Unable to release HBase table " + conf.getTableName(), ex);
+        }
+      }
+    }
+
+    NavigableMap<byte[], Integer> assignment = assignRegions(locations, targets.size());
+    if (!assignment.isEmpty()) {
+      regions = assignment;
+    }
+
+    if (LOG.isDebugEnabled()) {
+      LOG.debug(String.format("Assigned %d regions of HBase table %s to %d tasks",
+        assignment.size(), conf.getTableName(), targets.size()));
+    }
+  }
+
+  /**
+   * @return The worker's region location refresh thread
+   */
+  private static synchronized ScheduledExecutorService getRefresher() {
+    if (refresher == null) {
+      refresher =
+          Executors.newSingleThreadScheduledExecutor(Threads
+              .newDaemonThreadFactory("storm-hbase-region-refresh"));
+    }
+    return refresher;
+  }
+}
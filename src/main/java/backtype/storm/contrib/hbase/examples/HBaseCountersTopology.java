@@ -4,6 +4,8 @@ import backtype.storm.Config;
 import backtype.storm.LocalCluster;
 import backtype.storm.contrib.hbase.bolts.HBaseCountersBolt;
 import backtype.storm.contrib.hbase.utils.TupleTableConfig;
+import backtype.storm.generated.StormTopology;
+import backtype.storm.topology.IRichSpout;
 import backtype.storm.topology.TopologyBuilder;
 import backtype.storm.utils.Utils;
 
@@ -19,15 +21,9 @@ import backtype.storm.utils.Utils;
  */
 public class HBaseCountersTopology {
   /**
-   * @param args
+   * @return The {@link TupleTableConfig} of the example
    */
-  public static void main(String[] args) {
-    TopologyBuilder builder = new TopologyBuilder();
-
-    // Add test spout
-    builder.setSpout("spout", new TestSpout(), 1);
-
-    // Build TupleTableConifg
+  public static TupleTableConfig createConfig() {
     TupleTableConfig config = new TupleTableConfig("shorturl", "shortid");
     config.setBatch(false);
     /*
@@ -39,17 +35,37 @@ public class HBaseCountersTopology {
      */
     config.addColumn("data", "clicks");
     config.addColumn("daily", "date");
+    return config;
+  }
+
+  /**
+   * @param spout A spout emitting <tt>shortid</tt> and <tt>date</tt>
+   * @param config The {@link TupleTableConfig}
+   * @return The example topology
+   */
+  public static StormTopology buildTopology(IRichSpout spout, TupleTableConfig config) {
+    TopologyBuilder builder = new TopologyBuilder();
+
+    // Add spout
+    builder.setSpout("spout", spout, 1);
 
     // Add HBaseBolt
     builder.setBolt("hbase-counters", new HBaseCountersBolt(config), 1)
         .shuffleGrouping("spout");
 
+    return builder.createTopology();
+  }
+
+  /**
+   * @param args
+   */
+  public static void main(String[] args) {
     Config stormConf = new Config();
     stormConf.setDebug(true);
 
     LocalCluster cluster = new LocalCluster();
-    cluster
-        .submitTopology("hbase-example", stormConf, builder.createTopology());
+    cluster.submitTopology("hbase-example", stormConf,
+      buildTopology(new TestSpout(), createConfig()));
 
     Utils.sleep(10000);
     cluster.shutdown();
@@ -9,6 +9,7 @@ import storm.trident.TridentTopology;
 import storm.trident.operation.BaseFunction;
 import storm.trident.operation.TridentCollector;
 import storm.trident.operation.builtin.Count;
+import storm.trident.spout.IBatchSpout;
 import storm.trident.state.StateFactory;
 import storm.trident.testing.FixedBatchSpout;
 import storm.trident.tuple.TridentTuple;
@@ -16,6 +17,7 @@ import backtype.storm.Config;
 import backtype.storm.LocalCluster;
 import backtype.storm.contrib.hbase.trident.HBaseAggregateState;
 import backtype.storm.contrib.hbase.utils.TridentConfig;
+import backtype.storm.generated.StormTopology;
 import backtype.storm.tuple.Fields;
 import backtype.storm.tuple.Values;
 import backtype.storm.utils.Utils;
@@ -91,9 +93,32 @@ public class HBaseTridentAggregateTopology {
         "user", "date"), 3, v0, v1, v2, v3, v4, v5, v6, v7, v8, v9, v10);
     spout.setCycle(false);
 
+    Config conf = new Config();
+    LocalCluster cluster = new LocalCluster();
+    cluster.submitTopology("hbase-trident-aggregate", conf,
+      buildTopology(spout, createConfig()));
+
+    Utils.sleep(5000);
+    cluster.shutdown();
+  }
+
+  /**
+   * @return The {@link TridentConfig} of the example
+   */
+  @SuppressWarnings("rawtypes")
+  public static TridentConfig createConfig() {
     TridentConfig config = new TridentConfig("shorturl", "shortid");
     config.setBatch(false);
+    return config;
+  }
 
+  /**
+   * @param spout A spout emitting <tt>shortid</tt> and <tt>date</tt>
+   * @param config The {@link TridentConfig}
+   * @return The example topology
+   */
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  public static StormTopology buildTopology(IBatchSpout spout, TridentConfig config) {
     StateFactory state = HBaseAggregateState.transactional(config);
 
     TridentTopology topology = new TridentTopology();
@@ -104,11 +129,6 @@ public class HBaseTridentAggregateTopology {
         .groupBy(new Fields("shortid", "cf", "cq"))
         .persistentAggregate(state, new Count(), new Fields("count"));
 
-    Config conf = new Config();
-    LocalCluster cluster = new LocalCluster();
-    cluster.submitTopology("hbase-trident-aggregate", conf, topology.build());
-
-    Utils.sleep(5000);
-    cluster.shutdown();
+    return topology.build();
   }
 }
@@ -0,0 +1,825 @@
+package backtype.storm.contrib.hbase.testing;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Append;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Increment;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Row;
+import org.apache.hadoop.hbase.client.RowLock;
+import org.apache.hadoop.hbase.client.RowMutations;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.coprocessor.Batch;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.ipc.CoprocessorProtocol;
+import org.apache.hadoop.hbase.regionserver.NoSuchColumnFamilyException;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import backtype.storm.contrib.hbase.utils.BufferedTable;
+
+/**
+ * An in-memory, sorted implementation of {@link HTableInterface}, created by an
+ * {@link InMemoryTableFactory}
+ * <p>
+ * Rows are kept sorted by row key, and hold the latest version of each cell. Gets, puts, deletes,
+ * increments, appends, batches and scans are supported, as is the client-side write buffer. Filters
+ * are only applied by scans. Row locks and coprocessors are not supported.
+ * <p>
+ * Every call that would be an RPC to HBase sleeps for the factory's simulated latency, and may fail
+ * with an injected {@link IOException}. A flush, a batch or a multi-get is a single RPC whose
+ * latency is that of the slowest region it touches, as if the regions were served in parallel. A
+ * scan makes one RPC per {@link Scan#getCaching()} rows.
+ * <p>
+ * Like {@link org.apache.hadoop.hbase.client.HTable} an instance must only be used by one thread at
+ * a time. Several instances can share a table.
+ */
+public class InMemoryHTable implements HTableInterface, BufferedTable {
+  private static final int DEFAULT_SCANNER_CACHING = 100;
+
+  /**
+   * The rows of a table, shared by all the instances for the table in the JVM
+   */
+  static class Data {
+    final byte[] name;
+    final TreeSet<byte[]> families = new TreeSet<byte[]>(Bytes.BYTES_COMPARATOR);
+    final ConcurrentSkipListMap<byte[], NavigableMap<byte[], NavigableMap<byte[], KeyValue>>> rows =
+        new ConcurrentSkipListMap<byte[], NavigableMap<byte[], NavigableMap<byte[], KeyValue>>>(
+            Bytes.BYTES_COMPARATOR);
+    final AtomicLong rpcs = new AtomicLong();
+    final AtomicInteger failNext = new AtomicInteger();
+
+    Data(final String name, final String[] families) {
+      this.name = Bytes.toBytes(name);
+      for (String cf : families) {
+        this.families.add(Bytes.toBytes(cf));
+      }
+    }
+  }
+
+  private final Configuration conf;
+  private final Data data;
+  private final InMemoryTableFactory factory;
+  private final Random random = new Random();
+
+  private boolean autoFlush = true;
+  private boolean clearBufferOnFail = true;
+  private long writeBufferSize;
+  private long bufferedBytes = 0;
+  private final List<Put> writeBuffer = new ArrayList<Put>();
+
+  InMemoryHTable(final Configuration conf, final Data data, final InMemoryTableFactory factory) {
+    this.conf = conf;
+    this.data = data;
+    this.factory = factory;
+    this.writeBufferSize = conf.getLong("hbase.client.write.buffer", 2097152L);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public byte[] getTableName() {
+    return data.name;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Configuration getConfiguration() {
+    return conf;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public HTableDescriptor getTableDescriptor() throws IOException {
+    rpc(null);
+    HTableDescriptor desc = new HTableDescriptor(data.name);
+    for (byte[] cf : data.families) {
+      desc.addFamily(new HColumnDescriptor(cf));
+    }
+    return desc;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean exists(Get get) throws IOException {
+    return !get(get).isEmpty();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void batch(List<? extends Row> actions, Object[] results) throws IOException,
+      InterruptedException {
+    List<byte[]> keys = new ArrayList<byte[]>(actions.size());
+    for (Row r : actions) {
+      keys.add(r.getRow());
+    }
+    rpc(keys);
+
+    for (int i = 0; i < actions.size(); i++) {
+      results[i] = apply(actions.get(i));
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Object[] batch(List<? extends Row> actions) throws IOException, InterruptedException {
+    Object[] results = new Object[actions.size()];
+    batch(actions, results);
+    return results;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Result get(Get get) throws IOException {
+    rpc(Arrays.asList(get.getRow()));
+    return read(get);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Result[] get(List<Get> gets) throws IOException {
+    List<byte[]> keys = new ArrayList<byte[]>(gets.size());
+    for (Get g : gets) {
+      keys.add(g.getRow());
+    }
+    rpc(keys);
+
+    Result[] results = new Result[gets.size()];
+    for (int i = 0; i < gets.size(); i++) {
+      results[i] = read(gets.get(i));
+    }
+    return results;
+  }
+
+  /** {@inheritDoc} */
+  @Deprecated
+  @Override
+  public Result getRowOrBefore(byte[] row, byte[] family) throws IOException {
+    rpc(Arrays.asList(row));
+    Entry<byte[], NavigableMap<byte[], NavigableMap<byte[], KeyValue>>> e =
+        data.rows.floorEntry(row);
+    if (e == null) {
+      return null;
+    }
+    Get g = new Get(e.getKey());
+    g.addFamily(family);
+    return read(g);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public ResultScanner getScanner(Scan scan) throws IOException {
+    return new Scanner(scan);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public ResultScanner getScanner(byte[] family) throws IOException {
+    Scan scan = new Scan();
+    scan.addFamily(family);
+    return getScanner(scan);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public ResultScanner getScanner(byte[] family, byte[] qualifier) throws IOException {
+    Scan scan = new Scan();
+    scan.addColumn(family, qualifier);
+    return getScanner(scan);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void put(Put put) throws IOException {
+    put(Arrays.asList(put));
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void put(List<Put> puts) throws IOException {
+    for (Put p : puts) {
+      checkFamilies(p);
+      writeBuffer.add(p);
+      bufferedBytes += p.heapSize();
+    }
+    if (autoFlush || bufferedBytes > writeBufferSize) {
+      flushCommits();
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean checkAndPut(byte[] row, byte[] family, byte[] qualifier, byte[] value, Put put)
+      throws IOException {
+    rpc(Arrays.asList(row));
+    checkFamilies(put);
+    synchronized (data) {
+      if (!matches(row, family, qualifier, value)) {
+        return false;
+      }
+      write(put);
+      return true;
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void delete(Delete delete) throws IOException {
+    rpc(Arrays.asList(delete.getRow()));
+    remove(delete);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void delete(List<Delete> deletes) throws IOException {
+    List<byte[]> keys = new ArrayList<byte[]>(deletes.size());
+    for (Delete d : deletes) {
+      keys.add(d.getRow());
+    }
+    rpc(keys);
+    for (Delete d : deletes) {
+      remove(d);
+    }
+    // Like HTable, the deletes which were applied are removed from the list
+    deletes.clear();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean checkAndDelete(byte[] row, byte[] family, byte[] qualifier, byte[] value,
+      Delete delete) throws IOException {
+    rpc(Arrays.asList(row));
+    synchronized (data) {
+      if (!matches(row, family, qualifier, value)) {
+        return false;
+      }
+      remove(delete);
+      return true;
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void mutateRow(RowMutations rm) throws IOException {
+    rpc(Arrays.asList(rm.getRow()));
+    synchronized (data) {
+      for (Mutation m : rm.getMutations()) {
+        apply(m);
+      }
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Result append(Append append) throws IOException {
+    rpc(Arrays.asList(append.getRow()));
+    return (Result) apply(append);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Result increment(Increment increment) throws IOException {
+    rpc(Arrays.asList(increment.getRow()));
+    return (Result) apply(increment);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public long incrementColumnValue(byte[] row, byte[] family, byte[] qualifier, long amount)
+      throws IOException {
+    Increment inc = new Increment(row);
+    inc.addColumn(family, qualifier, amount);
+    return Bytes.toLong(increment(inc).getValue(family, qualifier));
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public long incrementColumnValue(byte[] row, byte[] family, byte[] qualifier, long amount,
+      boolean writeToWAL) throws IOException {
+    return incrementColumnValue(row, family, qualifier, amount);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean isAutoFlush() {
+    return autoFlush;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void flushCommits() throws IOException {
+    if (writeBuffer.isEmpty()) {
+      return;
+    }
+
+    List<byte[]> keys = new ArrayList<byte[]>(writeBuffer.size());
+    for (Put p : writeBuffer) {
+      keys.add(p.getRow());
+    }
+    try {
+      rpc(keys);
+    } catch (IOException ex) {
+      if (clearBufferOnFail) {
+        clearWriteBuffer();
+      }
+      throw ex;
+    }
+
+    for (Put p : writeBuffer) {
+      write(p);
+    }
+    clearWriteBuffer();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void close() throws IOException {
+    flushCommits();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public RowLock lockRow(byte[] row) throws IOException {
+    throw new UnsupportedOperationException("Row locks are not supported");
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void unlockRow(RowLock rl) throws IOException {
+    throw new UnsupportedOperationException("Row locks are not supported");
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public <T extends CoprocessorProtocol> T coprocessorProxy(Class<T> protocol, byte[] row) {
+    throw new UnsupportedOperationException("Coprocessors are not supported");
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public <T extends CoprocessorProtocol, R> Map<byte[], R> coprocessorExec(Class<T> protocol,
+      byte[] startKey, byte[] endKey, Batch.Call<T, R> callable) throws IOException, Throwable {
+    throw new UnsupportedOperationException("Coprocessors are not supported");
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public <T extends CoprocessorProtocol, R> void coprocessorExec(Class<T> protocol,
+      byte[] startKey, byte[] endKey, Batch.Call<T, R> callable, Batch.Callback<R> callback)
+      throws IOException, Throwable {
+    throw new UnsupportedOperationException("Coprocessors are not supported");
+  }
+
+  /**
+   * @param autoFlush False to buffer puts until the buffer is full or flushed
+   */
+  public void setAutoFlush(boolean autoFlush) {
+    setAutoFlush(autoFlush, autoFlush);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void setAutoFlush(boolean autoFlush, boolean clearBufferOnFail) {
+    this.autoFlush = autoFlush;
+    this.clearBufferOnFail = autoFlush || clearBufferOnFail;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public long getWriteBufferSize() {
+    return writeBufferSize;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void setWriteBufferSize(long writeBufferSize) throws IOException {
+    this.writeBufferSize = writeBufferSize;
+    if (bufferedBytes > writeBufferSize) {
+      flushCommits();
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void clearWriteBuffer() {
+    writeBuffer.clear();
+    bufferedBytes = 0;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean isWriteBufferEmpty() {
+    return writeBuffer.isEmpty();
+  }
+
+  /**
+   * Simulate an RPC: count it, fail it if a failure is injected, and sleep for its latency
+   * @param keys The row keys the RPC touches, or null if it doesn't touch any regions
+   * @throws IOException if a failure is injected
+   */
+  private void rpc(final List<byte[]> keys) throws IOException {
+    data.rpcs.incrementAndGet();
+
+    double millis = factory.getRpcLatency().sample(random);
+    if (keys != null) {
+      List<byte[]> starts = factory.getRegionStartKeys();
+      List<Latency> latencies = factory.getRegionLatencies();
+      boolean[] touched = new boolean[starts.size()];
+      for (byte[] key : keys) {
+        int region = -1;
+        for (int i = 0; i < starts.size() && Bytes.compareTo(starts.get(i), key) <= 0; i++) {
+          region = i;
+        }
+        if (region >= 0) {
+          touched[region] = true;
+        }
+      }
+      double slowest = 0;
+      for (int i = 0; i < touched.length; i++) {
+        if (touched[i]) {
+          slowest = Math.max(slowest, latencies.get(i).sample(random));
+        }
+      }
+      millis += slowest;
+    }
+
+    if (millis > 0) {
+      long nanos = (long) (millis * 1000000);
+      try {
+        Thread.sleep(nanos / 1000000, (int) (nanos % 1000000));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted during simulated RPC");
+      }
+    }
+
+    if (data.failNext.get() > 0 && data.failNext.getAndDecrement() > 0) {
+      throw new IOException("Injected failure of RPC to " + Bytes.toString(data.name));
+    }
+    if (factory.getFailureRate() > 0 && random.nextDouble() < factory.getFailureRate()) {
+      throw new IOException("Injected failure of RPC to " + Bytes.toString(data.name));
+    }
+  }
+
+  /**
+   * Apply an action of a batch, without an RPC
+   * @param action The action
+   * @return The result of the action
+   * @throws IOException
+   */
+  private Object apply(final Row action) throws IOException {
+    if (action instanceof Get) {
+      return read((Get) action);
+    } else if (action instanceof Put) {
+      checkFamilies((Put) action);
+      write((Put) action);
+    } else if (action instanceof Delete) {
+      remove((Delete) action);
+    } else if (action instanceof Increment) {
+      Increment inc = (Increment) action;
+      List<KeyValue> kvs = new ArrayList<KeyValue>();
+      synchronized (data) {
+        NavigableMap<byte[], NavigableMap<byte[], KeyValue>> row = row(inc.getRow(), true);
+        long now = System.currentTimeMillis();
+        synchronized (row) {
+          for (Entry<byte[], NavigableMap<byte[], Long>> cf : inc.getFamilyMap().entrySet()) {
+            checkFamily(cf.getKey());
+            NavigableMap<byte[], KeyValue> cells = cell(row, cf.getKey());
+            for (Entry<byte[], Long> cq : cf.getValue().entrySet()) {
+              KeyValue old = cells.get(cq.getKey());
+              long value = (old == null ? 0 : Bytes.toLong(old.getValue())) + cq.getValue();
+              KeyValue kv =
+                  new KeyValue(inc.getRow(), cf.getKey(), cq.getKey(), now, Bytes.toBytes(value));
+              cells.put(cq.getKey(), kv);
+              kvs.add(kv);
+            }
+          }
+        }
+      }
+      return new Result(kvs);
+    } else if (action instanceof Append) {
+      Append append = (Append) action;
+      List<KeyValue> kvs = new ArrayList<KeyValue>();
+      synchronized (data) {
+        NavigableMap<byte[], NavigableMap<byte[], KeyValue>> row = row(append.getRow(), true);
+        long now = System.currentTimeMillis();
+        synchronized (row) {
+          for (Entry<byte[], List<KeyValue>> cf : append.getFamilyMap().entrySet()) {
+            checkFamily(cf.getKey());
+            NavigableMap<byte[], KeyValue> cells = cell(row, cf.getKey());
+            for (KeyValue a : cf.getValue()) {
+              KeyValue old = cells.get(a.getQualifier());
+              byte[] value = old == null ? a.getValue() : Bytes.add(old.getValue(), a.getValue());
+              KeyValue kv =
+                  new KeyValue(append.getRow(), cf.getKey(), a.getQualifier(), now, value);
+              cells.put(a.getQualifier(), kv);
+              kvs.add(kv);
+            }
+          }
+        }
+      }
+      return new Result(kvs);
+    } else {
+      throw new UnsupportedOperationException("Unsupported action " + action.getClass());
+    }
+    return new Result();
+  }
+
+  private Result read(final Get get) {
+    NavigableMap<byte[], NavigableMap<byte[], KeyValue>> row = data.rows.get(get.getRow());
+    if (row == null) {
+      return new Result();
+    }
+
+    List<KeyValue> kvs = new ArrayList<KeyValue>();
+    synchronized (row) {
+      Map<byte[], NavigableSet<byte[]>> families = get.getFamilyMap();
+      for (Entry<byte[], NavigableMap<byte[], KeyValue>> cf : row.entrySet()) {
+        if (!families.isEmpty() && !families.containsKey(cf.getKey())) {
+          continue;
+        }
+        NavigableSet<byte[]> qualifiers = families.get(cf.getKey());
+        for (KeyValue kv : cf.getValue().values()) {
+          if ((qualifiers == null || qualifiers.contains(kv.getQualifier()))
+              && get.getTimeRange().withinTimeRange(kv.getTimestamp())) {
+            kvs.add(kv);
+          }
+        }
+      }
+    }
+    return new Result(kvs);
+  }
+
+  private void write(final Put put) {
+    long now = System.currentTimeMillis();
+    synchronized (data) {
+      NavigableMap<byte[], NavigableMap<byte[], KeyValue>> row = row(put.getRow(), true);
+      synchronized (row) {
+        for (Entry<byte[], List<KeyValue>> cf : put.getFamilyMap().entrySet()) {
+          NavigableMap<byte[], KeyValue> cells = cell(row, cf.getKey());
+          for (KeyValue kv : cf.getValue()) {
+            if (kv.getTimestamp() == HConstants.LATEST_TIMESTAMP) {
+              kv = new KeyValue(put.getRow(), cf.getKey(), kv.getQualifier(), now, kv.getValue());
+            }
+            KeyValue old = cells.get(kv.getQualifier());
+            if (old == null || old.getTimestamp() <= kv.getTimestamp()) {
+              cells.put(kv.getQualifier(), kv);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  private void remove(final Delete delete) {
+    synchronized (data) {
+      NavigableMap<byte[], NavigableMap<byte[], KeyValue>> row = row(delete.getRow(), false);
+      if (row == null) {
+        return;
+      }
+      synchronized (row) {
+        if (delete.getFamilyMap().isEmpty()) {
+          row.clear();
+        }
+        for (Entry<byte[], List<KeyValue>> cf : delete.getFamilyMap().entrySet()) {
+          NavigableMap<byte[], KeyValue> cells = row.get(cf.getKey());
+          if (cells == null) {
+            continue;
+          }
+          for (KeyValue kv : cf.getValue()) {
+            if (kv.isDeleteFamily()) {
+              row.remove(cf.getKey());
+              break;
+            }
+            cells.remove(kv.getQualifier());
+          }
+        }
+        if (row.isEmpty()) {
+          data.rows.remove(delete.getRow());
+        }
+      }
+    }
+  }
+
+  private boolean matches(final byte[] row, final byte[] family, final byte[] qualifier,
+      final byte[] value) {
+    NavigableMap<byte[], NavigableMap<byte[], KeyValue>> r = row(row, false);
+    KeyValue kv = null;
+    if (r != null && r.containsKey(family)) {
+      kv = r.get(family).get(qualifier);
+    }
+    return value == null ? kv == null : kv != null && Bytes.equals(kv.getValue(), value);
+  }
+
+  private NavigableMap<byte[], NavigableMap<byte[], KeyValue>> row(final byte[] key,
+      final boolean create) {
+    NavigableMap<byte[], NavigableMap<byte[], KeyValue>> row = data.rows.get(key);
+    if (row == null && create) {
+      row = new TreeMap<byte[], NavigableMap<byte[], KeyValue>>(Bytes.BYTES_COMPARATOR);
+      data.rows.put(key, row);
+    }
+    return row;
+  }
+
+  private static NavigableMap<byte[], KeyValue> cell(
+      final NavigableMap<byte[], NavigableMap<byte[], KeyValue>> row, final byte[] family) {
+    NavigableMap<byte[], KeyValue> cells = row.get(family);
+    if (cells == null) {
+      cells = new TreeMap<byte[], KeyValue>(Bytes.BYTES_COMPARATOR);
+      row.put(family, cells);
+    }
+    return cells;
+  }
+
+  private void checkFamilies(final Put put) throws NoSuchColumnFamilyException {
+    for (byte[] cf : put.getFamilyMap().keySet()) {
+      checkFamily(cf);
+    }
+  }
+
+  private void checkFamily(final byte[] family) throws NoSuchColumnFamilyException {
+    if (!data.families.contains(family)) {
+      throw new NoSuchColumnFamilyException(String.format("Column family %s does not exist in %s",
+        Bytes.toString(family), Bytes.toString(data.name)));
+    }
+  }
+
+  /**
+   * Reads the rows of a scan lazily, making an RPC for every {@link Scan#getCaching()} rows
+   */
+  private class Scanner implements ResultScanner {
+    private final Scan scan;
+    private final Filter filter;
+    private final int caching;
+    private final Iterator<byte[]> keys;
+    private int sinceRpc;
+    private boolean closed = false;
+
+    Scanner(final Scan scan) {
+      this.scan = scan;
+      this.filter = scan.getFilter();
+      this.caching = scan.getCaching() > 0 ? scan.getCaching() : DEFAULT_SCANNER_CACHING;
+      this.sinceRpc = caching;
+
+      ConcurrentNavigableMap<byte[], NavigableMap<byte[], NavigableMap<byte[], KeyValue>>> range =
+          data.rows;
+      if (scan.getStartRow().length > 0) {
+        range = range.tailMap(scan.getStartRow(), true);
+      }
+      if (scan.getStopRow().length > 0) {
+        range = range.headMap(scan.getStopRow(), false);
+      }
+      this.keys = range.keySet().iterator();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Result next() throws IOException {
+      while (!closed && keys.hasNext()) {
+        if (filter != null && filter.filterAllRemaining()) {
+          return null;
+        }
+        byte[] key = keys.next();
+        if (sinceRpc >= caching) {
+          rpc(Arrays.asList(key));
+          sinceRpc = 0;
+        }
+        sinceRpc++;
+
+        Result r = filter(key, read(toGet(key)));
+        if (r != null && !r.isEmpty()) {
+          return r;
+        }
+      }
+      return null;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Result[] next(int nbRows) throws IOException {
+      List<Result> results = new ArrayList<Result>(nbRows);
+      for (int i = 0; i < nbRows; i++) {
+        Result r = next();
+        if (r == null) {
+          break;
+        }
+        results.add(r);
+      }
+      return results.toArray(new Result[results.size()]);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void close() {
+      closed = true;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Iterator<Result> iterator() {
+      return new Iterator<Result>() {
+        private Result next;
+
+        @Override
+        public boolean hasNext() {
+          if (next == null) {
+            try {
+              next = Scanner.this.next();
+            } catch (IOException e) {
+              throw new RuntimeException(e);
+            }
+          }
+          return next != null;
+        }
+
+        @Override
+        public Result next() {
+          if (!hasNext()) {
+            throw new NoSuchElementException();
+          }
+          Result r = next;
+          next = null;
+          return r;
+        }
+
+        @Override
+        public void remove() {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+
+    private Get toGet(final byte[] key) {
+      Get g = new Get(key);
+      for (Entry<byte[], NavigableSet<byte[]>> cf : scan.getFamilyMap().entrySet()) {
+        if (cf.getValue() == null) {
+          g.addFamily(cf.getKey());
+        } else {
+          for (byte[] cq : cf.getValue()) {
+            g.addColumn(cf.getKey(), cq);
+          }
+        }
+      }
+      try {
+        g.setTimeRange(scan.getTimeRange().getMin(), scan.getTimeRange().getMax());
+      } catch (IOException e) {
+        // The range was already validated by the scan
+      }
+      return g;
+    }
+
+    /**
+     * @return The cells of the row accepted by the scan's filter, or null if the row is filtered
+     *         out
+     */
+    private Result filter(final byte[] key, final Result row) throws IOException {
+      if (filter == null || row.isEmpty()) {
+        return row;
+      }
+      filter.reset();
+      if (filter.filterRowKey(key, 0, key.length)) {
+        return null;
+      }
+      List<KeyValue> kvs = new ArrayList<KeyValue>();
+      for (KeyValue kv : row.raw()) {
+        Filter.ReturnCode rc = filter.filterKeyValue(kv);
+        if (rc == Filter.ReturnCode.INCLUDE) {
+          kvs.add(filter.transform(kv));
+        } else if (rc == Filter.ReturnCode.NEXT_ROW) {
+          break;
+        }
+      }
+      filter.filterRow(kvs);
+      if (filter.filterRow()) {
+        return null;
+      }
+      return new Result(kvs);
+    }
+  }
+}
@@ -0,0 +1,183 @@
+package backtype.storm.contrib.hbase.testing;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.TableNotFoundException;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import backtype.storm.contrib.hbase.utils.TableFactory;
+
+/**
+ * A {@link TableFactory} for {@link InMemoryHTable}s, so bolts and states can be tested and
+ * benchmarked without a HBase cluster. E.g:
+ *
+ * <pre>
+ * InMemoryTableFactory tables = new InMemoryTableFactory()
+ *     .addTable(&quot;shorturl&quot;, &quot;data&quot;, &quot;daily&quot;)
+ *     .setRpcLatency(Latency.fixed(0.5))
+ *     .setRegionLatency(&quot;m&quot;, Latency.logNormal(2, 50))
+ *     .setFailureRate(0.001);
+ * config.setTableFactory(tables);
+ * </pre>
+ * <p>
+ * The tables' data is held per JVM, so all the workers of a <tt>LocalCluster</tt> see the same
+ * rows. Each call that would be an RPC to HBase sleeps for the RPC latency plus the highest latency
+ * sampled for the regions it touches, and fails with the configured probability.
+ */
+@SuppressWarnings("serial")
+public class InMemoryTableFactory implements TableFactory {
+  private static final Map<String, InMemoryHTable.Data> TABLES =
+      new HashMap<String, InMemoryHTable.Data>();
+
+  private Map<String, String[]> families = new HashMap<String, String[]>();
+  private Latency rpcLatency = Latency.fixed(0);
+  private List<byte[]> regionStartKeys = new ArrayList<byte[]>();
+  private List<Latency> regionLatencies = new ArrayList<Latency>();
+  private double failureRate = 0.0;
+
+  /**
+   * @param tableName The table name
+   * @param columnFamilies The column families of the table
+   * @return This factory
+   */
+  public InMemoryTableFactory addTable(final String tableName, final String... columnFamilies) {
+    families.put(tableName, columnFamilies);
+    return this;
+  }
+
+  /**
+   * @param latency The latency of every RPC. <b>Default is zero
+   * @return This factory
+   */
+  public InMemoryTableFactory setRpcLatency(final Latency latency) {
+    this.rpcLatency = latency;
+    return this;
+  }
+
+  /**
+   * Split the tables into a region starting at the given row key, with its own latency. The first
+   * region, starting at the empty row key, has no latency unless set here
+   * @param startKey The first row key of the region
+   * @param latency The additional latency of RPCs to the region
+   * @return This factory
+   */
+  public InMemoryTableFactory setRegionLatency(final String startKey, final Latency latency) {
+    byte[] key = Bytes.toBytes(startKey);
+    int i = 0;
+    while (i < regionStartKeys.size() && Bytes.compareTo(regionStartKeys.get(i), key) < 0) {
+      i++;
+    }
+    if (i < regionStartKeys.size() && Bytes.equals(regionStartKeys.get(i), key)) {
+      regionLatencies.set(i, latency);
+    } else {
+      regionStartKeys.add(i, key);
+      regionLatencies.add(i, latency);
+    }
+    return this;
+  }
+
+  /**
+   * @param failureRate The probability that an RPC fails with a retriable {@link IOException}.
+   *          <b>Default is zero
+   * @return This factory
+   */
+  public InMemoryTableFactory setFailureRate(final double failureRate) {
+    this.failureRate = failureRate;
+    return this;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public HTableInterface getTable(Configuration conf, String tableName) throws IOException {
+    return new InMemoryHTable(conf, getData(tableName), this);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void releaseTable(Configuration conf, HTableInterface table) throws IOException {
+    table.close();
+  }
+
+  Latency getRpcLatency() {
+    return rpcLatency;
+  }
+
+  List<byte[]> getRegionStartKeys() {
+    return regionStartKeys;
+  }
+
+  List<Latency> getRegionLatencies() {
+    return regionLatencies;
+  }
+
+  double getFailureRate() {
+    return failureRate;
+  }
+
+  private InMemoryHTable.Data getData(final String tableName) throws IOException {
+    synchronized (TABLES) {
+      InMemoryHTable.Data data = TABLES.get(tableName);
+      if (data == null) {
+        String[] cfs = families.get(tableName);
+        if (cfs == null) {
+          throw new TableNotFoundException(tableName);
+        }
+        data = new InMemoryHTable.Data(tableName, cfs);
+        TABLES.put(tableName, data);
+      }
+      return data;
+    }
+  }
+
+  /**
+   * @param tableName The table name
+   * @return The number of RPCs made to the table in this JVM, e.g. to compare with the number of
+   *         tuples processed
+   */
+  public static long getRpcCount(final String tableName) {
+    synchronized (TABLES) {
+      InMemoryHTable.Data data = TABLES.get(tableName);
+      return data == null ? 0 : data.rpcs.get();
+    }
+  }
+
+  /**
+   * Make the next RPCs to a table fail, e.g. to test retries
+   * @param tableName The table name
+   * @param rpcs The number of RPCs to fail
+   */
+  public static void failNext(final String tableName, final int rpcs) {
+    synchronized (TABLES) {
+      InMemoryHTable.Data data = TABLES.get(tableName);
+      if (data != null) {
+        data.failNext.set(rpcs);
+      }
+    }
+  }
+
+  /**
+   * @param tableName The table name
+   * @return The number of rows in the table
+   */
+  public static int getRowCount(final String tableName) {
+    synchronized (TABLES) {
+      InMemoryHTable.Data data = TABLES.get(tableName);
+      return data == null ? 0 : data.rows.size();
+    }
+  }
+
+  /**
+   * Drop all the in-memory tables
+   */
+  public static void reset() {
+    synchronized (TABLES) {
+      TABLES.clear();
+    }
+  }
+}
@@ -0,0 +1,61 @@
+package backtype.storm.contrib.hbase.testing;
+
+import java.io.Serializable;
+import java.util.Random;
+
+/**
+ * A distribution of simulated RPC latencies, in milliseconds
+ * @see InMemoryTableFactory
+ */
+@SuppressWarnings("serial")
+public abstract class Latency implements Serializable {
+  /**
+   * @param random The source of randomness
+   * @return A latency in milliseconds
+   */
+  public abstract double sample(Random random);
+
+  /**
+   * @param millis The latency
+   * @return A constant latency
+   */
+  public static Latency fixed(final double millis) {
+    return new Latency() {
+      @Override
+      public double sample(Random random) {
+        return millis;
+      }
+    };
+  }
+
+  /**
+   * @param minMillis The lowest latency
+   * @param maxMillis The highest latency
+   * @return Latencies uniformly distributed between the bounds
+   */
+  public static Latency uniform(final double minMillis, final double maxMillis) {
+    return new Latency() {
+      @Override
+      public double sample(Random random) {
+        return minMillis + random.nextDouble() * (maxMillis - minMillis);
+      }
+    };
+  }
+
+  /**
+   * A long-tailed distribution, typical of RPCs to a busy server
+   * @param medianMillis The median latency
+   * @param p99Millis The 99th percentile latency, at least the median
+   * @return Log-normally distributed latencies
+   */
+  public static Latency logNormal(final double medianMillis, final double p99Millis) {
+    // The 99th percentile of a standard normal distribution
+    final double sigma = Math.log(p99Millis / medianMillis) / 2.326;
+    return new Latency() {
+      @Override
+      public double sample(Random random) {
+        return medianMillis * Math.exp(sigma * random.nextGaussian());
+      }
+    };
+  }
+}
@@ -0,0 +1,198 @@
+package backtype.storm.contrib.hbase.testing;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import backtype.storm.contrib.hbase.bolts.HBaseBolt;
+import backtype.storm.contrib.hbase.utils.TupleTraceReader;
+import backtype.storm.spout.SpoutOutputCollector;
+import backtype.storm.task.TopologyContext;
+import backtype.storm.topology.OutputFieldsDeclarer;
+import backtype.storm.topology.base.BaseRichSpout;
+import backtype.storm.tuple.Fields;
+
+/**
+ * Replays the tuples of trace files captured by {@link HBaseBolt#setTraceDirectory(String)}, so
+ * changes to batching or caching can be compared against the exact same traffic
+ * <p>
+ * By default the tuples are emitted with their original spacing. The speed can be scaled, e.g.
+ * <tt>2.0</tt> replays twice as fast, or set to {@link #MAX_SPEED} to emit as fast as the topology
+ * accepts. With several spout tasks each task replays its share of the files, so a trace captured
+ * by N bolt tasks is best replayed by N spout tasks.
+ * <p>
+ * Tuples are emitted with a message id so they are tracked, count towards
+ * <tt>topology.max.spout.pending</tt> and time out as usual, but failed tuples are not replayed.
+ * The trace files must be readable from the workers, and from the submitter to declare the fields.
+ */
+@SuppressWarnings("serial")
+public class TraceReplaySpout extends BaseRichSpout {
+  private static final Logger LOG = Logger.getLogger(TraceReplaySpout.class);
+
+  public static final double MAX_SPEED = 0.0;
+
+  // The most tuples emitted per call, so the spout still handles acks when it falls behind
+  private static final int MAX_EMITS_PER_CALL = 1000;
+
+  private final String[] paths;
+  private final List<String> fields;
+  private double speed = 1.0;
+  private boolean loop = false;
+
+  private transient SpoutOutputCollector collector;
+  private transient List<File> files;
+  private transient int fileIndex;
+  private transient TupleTraceReader reader;
+  private transient long startNanos;
+  private transient long offsetMicros;
+  private transient long emitted;
+  private transient boolean pendingTuple;
+
+  /**
+   * @param paths The trace files, all with the same fields. Empty files, captured by bolt tasks
+   *          which received no tuples, are skipped
+   * @throws IOException if none of the files can be read
+   */
+  public TraceReplaySpout(String... paths) throws IOException {
+    this.paths = paths;
+    this.fields = readFields(paths);
+  }
+
+  /**
+   * @param speed The replay speed relative to the capture, or {@link #MAX_SPEED}. <b>Default is 1.0
+   */
+  public void setSpeed(double speed) {
+    this.speed = speed;
+  }
+
+  /**
+   * @param loop Whether to start the files over once they have all been replayed. <b>Default is
+   *          false
+   */
+  public void setLoop(boolean loop) {
+    this.loop = loop;
+  }
+
+  /** {@inheritDoc} */
+  @SuppressWarnings("rawtypes")
+  @Override
+  public void open(Map conf, TopologyContext context, SpoutOutputCollector collector) {
+    this.collector = collector;
+    this.files = new ArrayList<File>();
+    int tasks = context.getComponentTasks(context.getThisComponentId()).size();
+    int index = context.getThisTaskIndex();
+    for (int i = index; i < paths.length; i += tasks) {
+      files.add(new File(paths[i]));
+    }
+    this.fileIndex = -1;
+    this.emitted = 0;
+    nextFile();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void nextTuple() {
+    long nowMicros = (System.nanoTime() - startNanos) / 1000;
+    for (int i = 0; i < MAX_EMITS_PER_CALL && reader != null; i++) {
+      if (!pendingTuple && !advance()) {
+        continue;
+      }
+      if (speed != MAX_SPEED && (reader.getMicros() + offsetMicros) / speed > nowMicros) {
+        // Not due yet
+        return;
+      }
+      collector.emit(reader.getValues(), emitted++);
+      pendingTuple = false;
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void close() {
+    closeReader();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void declareOutputFields(OutputFieldsDeclarer declarer) {
+    declarer.declare(new Fields(fields));
+  }
+
+  /**
+   * Read the next tuple, moving on to the next file at the end of the current one
+   * @return False if the end of the current file was reached
+   */
+  private boolean advance() {
+    try {
+      if (reader.next()) {
+        pendingTuple = true;
+        return true;
+      }
+    } catch (IOException e) {
+      LOG.error("Unable to read tuple trace " + files.get(fileIndex), e);
+    }
+    // Files replayed in turn keep their relative timing
+    offsetMicros += reader.getMicros();
+    nextFile();
+    return false;
+  }
+
+  /**
+   * Open the next readable file, giving up after a full pass over the files finds none
+   */
+  private void nextFile() {
+    closeReader();
+    for (int tried = 0; tried < files.size(); tried++) {
+      fileIndex++;
+      if (fileIndex == files.size()) {
+        if (!loop || emitted == 0) {
+          break;
+        }
+        fileIndex = 0;
+      }
+      if (fileIndex == 0) {
+        startNanos = System.nanoTime();
+        offsetMicros = 0;
+      }
+      try {
+        reader = new TupleTraceReader(files.get(fileIndex));
+        return;
+      } catch (IOException e) {
+        LOG.warn("Skipping tuple trace " + files.get(fileIndex), e);
+      }
+    }
+    LOG.info(String.format("Replayed %d traced tuples", emitted));
+  }
+
+  private static List<String> readFields(final String[] paths) throws IOException {
+    IOException error = new IOException("No tuple trace files");
+    for (String path : paths) {
+      try {
+        TupleTraceReader reader = new TupleTraceReader(new File(path));
+        try {
+          return reader.getFields().toList();
+        } finally {
+          reader.close();
+        }
+      } catch (IOException e) {
+        error = e;
+      }
+    }
+    throw error;
+  }
+
+  private void closeReader() {
+    if (reader != null) {
+      try {
+        reader.close();
+      } catch (IOException e) {
+        LOG.warn("Unable to close tuple trace", e);
+      }
+      reader = null;
+    }
+  }
+}
@@ -0,0 +1,46 @@
+package backtype.storm.contrib.hbase.trident;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import storm.trident.state.JSONOpaqueSerializer;
+import storm.trident.state.OpaqueValue;
+import storm.trident.state.Serializer;
+
+/**
+ * Serializes {@link OpaqueValue}s in the compact {@link BinaryStateFormat}: the current txid,
+ * followed by the current and previous values.
+ * <p>
+ * Cells written by {@link JSONOpaqueSerializer} are still read, so existing tables can be switched
+ * over without a migration. They are rewritten in the binary format on their next update.
+ */
+@SuppressWarnings({ "serial", "rawtypes" })
+public class BinaryOpaqueSerializer implements Serializer<OpaqueValue> {
+  private final JSONOpaqueSerializer json = new JSONOpaqueSerializer();
+
+  /** {@inheritDoc} */
+  @Override
+  public byte[] serialize(OpaqueValue obj) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(32);
+    out.write(BinaryStateFormat.VERSION);
+    BinaryStateFormat.writeVarLong(out, obj.getCurrTxid());
+    BinaryStateFormat.writeValue(out, obj.getCurr());
+    BinaryStateFormat.writeValue(out, obj.getPrev());
+    return out.toByteArray();
+  }
+
+  /** {@inheritDoc} */
+  @SuppressWarnings("unchecked")
+  @Override
+  public OpaqueValue deserialize(byte[] b) {
+    if (BinaryStateFormat.isJSON(b)) {
+      return json.deserialize(b);
+    }
+
+    ByteBuffer in = BinaryStateFormat.open(b);
+    long txid = BinaryStateFormat.readVarLong(in);
+    Object curr = BinaryStateFormat.readValue(in);
+    Object prev = BinaryStateFormat.readValue(in);
+    return new OpaqueValue(txid, curr, prev);
+  }
+}
@@ -0,0 +1,157 @@
+package backtype.storm.contrib.hbase.trident;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * The compact binary encoding shared by {@link BinaryOpaqueSerializer} and
+ * {@link BinaryTransactionalSerializer}.
+ * <p>
+ * A cell starts with a version byte, followed by the txid(s) as unsigned variable-length integers
+ * and then the typed values. Each value is a type tag followed by its payload: longs and ints are
+ * zig-zag variable-length integers, doubles are 8 bytes, and strings and byte arrays are a
+ * variable-length length followed by their bytes. A small counter therefore takes a handful of
+ * bytes, rather than the ~30 bytes of its JSON form.
+ * <p>
+ * The version byte can never be <tt>'['</tt>, so cells written by the JSON serializers can still be
+ * recognised and read.
+ */
+public class BinaryStateFormat {
+  public static final byte VERSION = 1;
+
+  private static final byte JSON_START = '[';
+
+  private static final byte TYPE_NULL = 0;
+  private static final byte TYPE_LONG = 1;
+  private static final byte TYPE_INT = 2;
+  private static final byte TYPE_DOUBLE = 3;
+  private static final byte TYPE_STRING = 4;
+  private static final byte TYPE_BYTES = 5;
+
+  private BinaryStateFormat() {
+  }
+
+  /**
+   * @param b A serialized cell
+   * @return True if the cell was written by one of the JSON serializers
+   */
+  public static boolean isJSON(final byte[] b) {
+    return b.length > 0 && b[0] == JSON_START;
+  }
+
+  /**
+   * @param b A serialized cell
+   * @return A buffer positioned after the version byte
+   * @throws IllegalArgumentException if the version isn't supported
+   */
+  public static ByteBuffer open(final byte[] b) {
+    if (b.length == 0 || b[0] != VERSION) {
+      throw new IllegalArgumentException("Unsupported state format version: "
+          + (b.length == 0 ? "empty" : b[0]));
+    }
+    ByteBuffer buf = ByteBuffer.wrap(b);
+    buf.position(1);
+    return buf;
+  }
+
+  /**
+   * @param out The output
+   * @param v The value, must not be negative
+   */
+  public static void writeVarLong(final ByteArrayOutputStream out, long v) {
+    while ((v & ~0x7FL) != 0) {
+      out.write((int) ((v & 0x7F) | 0x80));
+      v >>>= 7;
+    }
+    out.write((int) v);
+  }
+
+  /**
+   * @param in The input
+   * @return The value
+   */
+  public static long readVarLong(final ByteBuffer in) {
+    long v = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      byte b = in.get();
+      v |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return v;
+      }
+    }
+    throw new IllegalArgumentException("Malformed variable-length integer");
+  }
+
+  /**
+   * @param out The output
+   * @param value A null, {@link Long}, {@link Integer}, {@link Double}, {@link String} or byte[]
+   * @throws IllegalArgumentException for any other type of value
+   */
+  public static void writeValue(final ByteArrayOutputStream out, final Object value) {
+    if (value == null) {
+      out.write(TYPE_NULL);
+    } else if (value instanceof Long) {
+      out.write(TYPE_LONG);
+      writeVarLong(out, zigZag((Long) value));
+    } else if (value instanceof Integer) {
+      out.write(TYPE_INT);
+      writeVarLong(out, zigZag((Integer) value));
+    } else if (value instanceof Double) {
+      out.write(TYPE_DOUBLE);
+      out.write(Bytes.toBytes((Double) value), 0, Bytes.SIZEOF_DOUBLE);
+    } else if (value instanceof String) {
+      byte[] b = Bytes.toBytes((String) value);
+      out.write(TYPE_STRING);
+      writeVarLong(out, b.length);
+      out.write(b, 0, b.length);
+    } else if (value instanceof byte[]) {
+      byte[] b = (byte[]) value;
+      out.write(TYPE_BYTES);
+      writeVarLong(out, b.length);
+      out.write(b, 0, b.length);
+    } else {
+      throw new IllegalArgumentException("Unsupported state value type: "
+          + value.getClass().getName());
+    }
+  }
+
+  /**
+   * @param in The input
+   * @return The value
+   */
+  public static Object readValue(final ByteBuffer in) {
+    byte type = in.get();
+    switch (type) {
+    case TYPE_NULL:
+      return null;
+    case TYPE_LONG:
+      return unZigZag(readVarLong(in));
+    case TYPE_INT:
+      return (int) unZigZag(readVarLong(in));
+    case TYPE_DOUBLE:
+      return in.getDouble();
+    case TYPE_STRING:
+      return Bytes.toString(readBytes(in));
+    case TYPE_BYTES:
+      return readBytes(in);
+    default:
+      throw new IllegalArgumentException("Unknown state value type: " + type);
+    }
+  }
+
+  private static byte[] readBytes(final ByteBuffer in) {
+    byte[] b = new byte[(int) readVarLong(in)];
+    in.get(b);
+    return b;
+  }
+
+  private static long zigZag(final long v) {
+    return (v << 1) ^ (v >> 63);
+  }
+
+  private static long unZigZag(final long v) {
+    return (v >>> 1) ^ -(v & 1);
+  }
+}
@@ -0,0 +1,43 @@
+package backtype.storm.contrib.hbase.trident;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import storm.trident.state.JSONTransactionalSerializer;
+import storm.trident.state.Serializer;
+import storm.trident.state.TransactionalValue;
+
+/**
+ * Serializes {@link TransactionalValue}s in the compact {@link BinaryStateFormat}: the txid,
+ * followed by the value.
+ * <p>
+ * Cells written by {@link JSONTransactionalSerializer} are still read, so existing tables can be
+ * switched over without a migration. They are rewritten in the binary format on their next update.
+ */
+@SuppressWarnings({ "serial", "rawtypes" })
+public class BinaryTransactionalSerializer implements Serializer<TransactionalValue> {
+  private final JSONTransactionalSerializer json = new JSONTransactionalSerializer();
+
+  /** {@inheritDoc} */
+  @Override
+  public byte[] serialize(TransactionalValue obj) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(16);
+    out.write(BinaryStateFormat.VERSION);
+    BinaryStateFormat.writeVarLong(out, obj.getTxid());
+    BinaryStateFormat.writeValue(out, obj.getVal());
+    return out.toByteArray();
+  }
+
+  /** {@inheritDoc} */
+  @SuppressWarnings("unchecked")
+  @Override
+  public TransactionalValue deserialize(byte[] b) {
+    if (BinaryStateFormat.isJSON(b)) {
+      return json.deserialize(b);
+    }
+
+    ByteBuffer in = BinaryStateFormat.open(b);
+    long txid = BinaryStateFormat.readVarLong(in);
+    return new TransactionalValue(txid, BinaryStateFormat.readValue(in));
+  }
+}
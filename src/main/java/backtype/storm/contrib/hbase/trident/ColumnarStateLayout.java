@@ -0,0 +1,115 @@
+package backtype.storm.contrib.hbase.trident;
+
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import storm.trident.state.OpaqueValue;
+import storm.trident.state.StateType;
+import storm.trident.state.TransactionalValue;
+
+/**
+ * Stores numeric state values as raw 8 byte longs, with the parts of opaque and transactional
+ * values in separate cells:
+ * <ul>
+ * <li><tt>cq</tt> - the current value</li>
+ * <li><tt>cq_txid</tt> - the txid of the current value (opaque and transactional)</li>
+ * <li><tt>cq_prev</tt> - the previous value (opaque only)</li>
+ * </ul>
+ * Reading or writing a counter needs no serialization beyond {@link Bytes#toLong(byte[])}, the
+ * current value can be read by any HBase client, and the fixed-width txid cell can be used in
+ * server-side filters. Only values that are {@link Number}s are supported, and they are read back
+ * as {@link Long}s.
+ * <p>
+ * The layout can only be used on a new table or column. Cells written by the default
+ * {@link SerializedStateLayout} aren't converted, and reading one fails with a
+ * {@link RuntimeException} naming the cell. An opaque or transactional value without its txid cell
+ * is treated as absent.
+ */
+@SuppressWarnings({ "serial", "rawtypes" })
+public class ColumnarStateLayout implements StateLayout {
+  private static final byte[] TXID_SUFFIX = Bytes.toBytes("_txid");
+  private static final byte[] PREV_SUFFIX = Bytes.toBytes("_prev");
+
+  private StateType type;
+
+  /**
+   * @param type The {@link StateType} of the values
+   */
+  public ColumnarStateLayout(final StateType type) {
+    this.type = type;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void addColumns(Get get, byte[] cf, byte[] cq) {
+    get.addColumn(cf, cq);
+    if (type != StateType.NON_TRANSACTIONAL) {
+      get.addColumn(cf, Bytes.add(cq, TXID_SUFFIX));
+    }
+    if (type == StateType.OPAQUE) {
+      get.addColumn(cf, Bytes.add(cq, PREV_SUFFIX));
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Object read(Result result, byte[] cf, byte[] cq) {
+    Long curr = getLong(result, cf, cq);
+    if (curr == null) {
+      return null;
+    }
+
+    if (type == StateType.NON_TRANSACTIONAL) {
+      return curr;
+    }
+
+    // Trident can't compare a null txid, so a value without one is treated as never written
+    Long txid = getLong(result, cf, Bytes.add(cq, TXID_SUFFIX));
+    if (txid == null) {
+      return null;
+    }
+    if (type == StateType.OPAQUE) {
+      return new OpaqueValue<Long>(txid, curr, getLong(result, cf, Bytes.add(cq, PREV_SUFFIX)));
+    }
+    return new TransactionalValue<Long>(txid, curr);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void write(Put put, byte[] cf, byte[] cq, Object value) {
+    if (type == StateType.OPAQUE) {
+      OpaqueValue v = (OpaqueValue) value;
+      put.add(cf, cq, toBytes(v.getCurr()));
+      put.add(cf, Bytes.add(cq, TXID_SUFFIX), Bytes.toBytes(v.getCurrTxid()));
+      if (v.getPrev() != null) {
+        put.add(cf, Bytes.add(cq, PREV_SUFFIX), toBytes(v.getPrev()));
+      }
+    } else if (type == StateType.TRANSACTIONAL) {
+      TransactionalValue v = (TransactionalValue) value;
+      put.add(cf, cq, toBytes(v.getVal()));
+      put.add(cf, Bytes.add(cq, TXID_SUFFIX), Bytes.toBytes(v.getTxid()));
+    } else {
+      put.add(cf, cq, toBytes(value));
+    }
+  }
+
+  private static Long getLong(final Result result, final byte[] cf, final byte[] cq) {
+    byte[] cv = result.getValue(cf, cq);
+    if (cv == null) {
+      return null;
+    }
+    if (cv.length != Bytes.SIZEOF_LONG) {
+      throw new RuntimeException(String.format(
+        "Cell %s:%s of row %s holds %d bytes rather than an 8 byte long. ColumnarStateLayout can "
+            + "only be used on a new table or column", Bytes.toString(cf), Bytes.toString(cq),
+        Bytes.toStringBinary(result.getRow()), cv.length));
+    }
+    return Bytes.toLong(cv);
+  }
+
+  private static byte[] toBytes(final Object value) {
+    return Bytes.toBytes(((Number) value).longValue());
+  }
+}
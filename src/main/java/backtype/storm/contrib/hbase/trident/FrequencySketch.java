@@ -0,0 +1,87 @@
+package backtype.storm.contrib.hbase.trident;
+
+/**
+ * A count-min sketch of 4-bit counters estimating how often keys have been seen recently, used for
+ * TinyLFU cache admission.
+ * <p>
+ * Each key increments one counter in each of four rows, and its frequency is the smallest of those
+ * counters. Once the number of increments reaches ten times the cache capacity all counters are
+ * halved, so the estimates favour recent history.
+ */
+public class FrequencySketch {
+  private static final int DEPTH = 4;
+  private static final int MAX_COUNT = 15;
+  private static final int[] SEEDS = { 0x97cb3127, 0xb9c8d2e1, 0x7f4a7c15, 0x2545f491 };
+
+  private final int[] counters;
+  private final int mask;
+  private final int sampleSize;
+  private int additions = 0;
+
+  /**
+   * @param capacity The capacity of the cache the sketch is used for
+   */
+  public FrequencySketch(final int capacity) {
+    int width = 16;
+    while (width < capacity && width < (1 << 28)) {
+      width <<= 1;
+    }
+    this.counters = new int[DEPTH * width];
+    this.mask = width - 1;
+    this.sampleSize = Math.max(10 * capacity, 10);
+  }
+
+  /**
+   * Record an access to the key
+   * @param key The key
+   */
+  public void increment(final Object key) {
+    int hash = spread(key.hashCode());
+    for (int i = 0; i < DEPTH; i++) {
+      int idx = index(hash, i);
+      if (counters[idx] < MAX_COUNT) {
+        counters[idx]++;
+      }
+    }
+
+    if (++additions >= sampleSize) {
+      reset();
+    }
+  }
+
+  /**
+   * @param key The key
+   * @return The estimated number of recent accesses to the key
+   */
+  public int frequency(final Object key) {
+    int hash = spread(key.hashCode());
+    int min = MAX_COUNT;
+    for (int i = 0; i < DEPTH; i++) {
+      min = Math.min(min, counters[index(hash, i)]);
+    }
+    return min;
+  }
+
+  /**
+   * Halve all counters
+   */
+  private void reset() {
+    for (int i = 0; i < counters.length; i++) {
+      counters[i] >>>= 1;
+    }
+    additions >>>= 1;
+  }
+
+  private int index(final int hash, final int row) {
+    int h = (hash ^ SEEDS[row]) * 0x9e3779b9;
+    h ^= h >>> 16;
+    return row * (mask + 1) + (h & mask);
+  }
+
+  private static int spread(int h) {
+    h ^= h >>> 17;
+    h *= 0xed5ad4bb;
+    h ^= h >>> 11;
+    return h;
+  }
+}
@@ -7,7 +7,6 @@ import org.apache.log4j.Logger;
 import storm.trident.state.State;
 import storm.trident.state.StateFactory;
 import storm.trident.state.StateType;
-import storm.trident.state.map.CachedMap;
 import storm.trident.state.map.MapState;
 import storm.trident.state.map.NonTransactionalMap;
 import storm.trident.state.map.OpaqueMap;
@@ -19,6 +18,15 @@ import backtype.storm.tuple.Values;
 
 /**
  * Factory for creating {@link HBaseAggregateState} objects for Trident
+ * <p>
+ * The state is cached by a {@link HBaseStateCache}. Its on-heap tier is sized by
+ * {@link TridentConfig#getStateCacheSize()} and its optional {@link OffHeapStateCache} tier by
+ * {@link TridentConfig#getOffHeapCacheSize()}. Its metric is registered as
+ * <tt>hbase-state-cache-&lt;table&gt;-&lt;index&gt;</tt>, see {@link StateMetrics}
+ * <p>
+ * Trident has no callback for a state that is no longer used, so the off-heap cache and table of a
+ * state are only released early by {@link HBaseStateCache#close()}. Otherwise the cache's direct
+ * buffers are freed by the garbage collector once Trident drops the state
  */
 @SuppressWarnings({ "serial", "rawtypes", "unchecked" })
 public class HBaseAggregateFactory implements StateFactory {
@@ -48,8 +56,23 @@ public class HBaseAggregateFactory implements StateFactory {
   /** {@inheritDoc} */
   @Override
   public State makeState(Map conf, IMetricsContext metrics, int partitionIndex, int numPartitions) {
-    HBaseAggregateState state = new HBaseAggregateState(config);
-    CachedMap c = new CachedMap(state, config.getStateCacheSize());
+    StateMetrics stateMetrics = new StateMetrics(metrics, config.getTableName());
+
+    HBaseAggregateState state;
+    if (config.isColumnarState()) {
+      state = new HBaseAggregateState(config, new ColumnarStateLayout(type));
+    } else {
+      state = new HBaseAggregateState(config);
+    }
+    stateMetrics.register(HBaseAggregateState.SUPPRESSED_WRITES_METRIC_NAME,
+      state.getSuppressedWritesMetric());
+
+    StateCacheTier offHeap = null;
+    if (config.getOffHeapCacheSize() > 0) {
+      offHeap = new OffHeapStateCache(config, config.getOffHeapCacheSize());
+    }
+    HBaseStateCache c = new HBaseStateCache(state, config.getStateCacheSize(), offHeap);
+    stateMetrics.register(HBaseStateCache.METRIC_NAME, c.getMetric());
 
     MapState ms;
     if (type == StateType.NON_TRANSACTIONAL) {
@@ -2,9 +2,15 @@ package backtype.storm.contrib.hbase.trident;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 
+import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTable;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.util.Bytes;
@@ -16,15 +22,41 @@ import storm.trident.state.StateType;
 import storm.trident.state.TransactionalValue;
 import storm.trident.state.map.IBackingMap;
 import backtype.storm.contrib.hbase.utils.HTableConnector;
+import backtype.storm.contrib.hbase.utils.RowKeyBuilder;
 import backtype.storm.contrib.hbase.utils.TridentConfig;
+import backtype.storm.metric.api.CountMetric;
+import backtype.storm.metric.api.IMetric;
+import backtype.storm.topology.FailedException;
 
 /**
  * A HBase persistentAggregate source of state for Storm Trident topologies
+ * <p>
+ * The state is grouped by the row key field(s), column family and column qualifier. Row keys are
+ * built by {@link TridentConfig#getStateRowKey(List)}, so the same {@link RowKeyBuilder} is used
+ * for reads and writes.
+ * <p>
+ * By default each value is serialized into a single cell. The {@link ColumnarStateLayout} instead
+ * stores numeric values and their txids in separate fixed-width cells, see
+ * {@link TridentConfig#setColumnarState(boolean)}
+ * <p>
+ * Failed reads and writes are retried according to the {@link TridentConfig#getRetryPolicy()}. If
+ * they still fail a {@link FailedException} is thrown so that Trident replays the batch, rather
+ * than committing it without its state
+ * <p>
+ * Large batches can be read with concurrent requests split by region, see
+ * {@link TridentConfig#setParallelGets(int, int)}
+ * <p>
+ * The cells last read or written for each recently used key are remembered, and values which would
+ * be written unchanged, e.g. when an opaque batch is replayed, are skipped. Skipped writes are
+ * counted in {@link #getSuppressedWritesMetric()}. The keys remembered are bounded by the state
+ * cache size plus the size of the current batch
  * @param <T> The type of value being persisted. Either {@link OpaqueValue} or
  *          {@link TransactionalValue}
  */
 @SuppressWarnings({ "rawtypes", "unchecked" })
 public class HBaseAggregateState<T> implements IBackingMap<T> {
+  public static final String SUPPRESSED_WRITES_METRIC_NAME = "hbase-suppressed-writes";
+
   /**
    * @param config The {@link TridentConfig}
    * @return {@link StateFactory} for opaque transactional topologies
@@ -50,52 +82,92 @@ public class HBaseAggregateState<T> implements IBackingMap<T> {
   }
 
   private HTableConnector connector;
-  private Serializer serializer;
+  private StateLayout layout;
+  private TridentConfig config;
+  private ParallelMultiGet parallelGet;
+
+  // The cells known to be stored for recently read or written keys
+  private int maxStoredKeys;
+  private final Map<List<Object>, KeyValue[]> stored;
+  private final CountMetric suppressedWrites = new CountMetric();
 
+  /**
+   * Create a state storing each value in a single cell, serialized by the configured
+   * {@link Serializer}
+   * @param config The {@link TridentConfig}
+   */
   public HBaseAggregateState(TridentConfig config) {
-    this.serializer = config.getStateSerializer();
+    this(config, new SerializedStateLayout(config.getStateSerializer()));
+  }
+
+  /**
+   * @param config The {@link TridentConfig}
+   * @param layout The {@link StateLayout} of the state values in HBase
+   */
+  public HBaseAggregateState(TridentConfig config, StateLayout layout) {
+    this.config = config;
+    this.layout = layout;
+    this.maxStoredKeys = config.getStateCacheSize();
+    this.stored = new LinkedHashMap<List<Object>, KeyValue[]>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<List<Object>, KeyValue[]> eldest) {
+        return size() > maxStoredKeys;
+      }
+    };
     try {
       this.connector = new HTableConnector(config);
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
+    if (config.getParallelGetThreads() > 0) {
+      this.parallelGet =
+          new ParallelMultiGet(config.getTableName(), config.getParallelGetThreads(),
+              config.getParallelGetBatchSize());
+    }
   }
 
   /** {@inheritDoc} */
   @Override
   public List<T> multiGet(List<List<Object>> keys) {
-    List<Get> gets = new ArrayList<Get>(keys.size());
+    track(keys.size());
+    final List<Get> gets = new ArrayList<Get>(keys.size());
     byte[] rk;
     byte[] cf;
     byte[] cq;
 
     for (List<Object> k : keys) {
-      rk = Bytes.toBytes((String) k.get(0));
-      cf = Bytes.toBytes((String) k.get(1));
-      cq = Bytes.toBytes((String) k.get(2));
+      rk = config.getStateRowKey(k);
+      cf = config.getStateFamily(k);
+      cq = config.getStateQualifier(k);
       Get g = new Get(rk);
-      gets.add(g.addColumn(cf, cq));
+      layout.addColumns(g, cf, cq);
+      gets.add(g);
     }
 
     // Log.debug("GETS: " + gets.toString());
 
-    Result[] results = null;
-    try {
-      results = connector.getTable().get(gets);
-    } catch (IOException e) {
-      new RuntimeException(e);
-    }
+    Result[] results = config.getRetryPolicy().call(new Callable<Result[]>() {
+      @Override
+      public Result[] call() throws IOException {
+        if (parallelGet != null && connector.getTable() instanceof HTable) {
+          return parallelGet.get((HTable) connector.getTable(), gets);
+        }
+        return connector.getTable().get(gets);
+      }
+    }, String.format("get %d state values", gets.size()));
 
     List<T> rtn = new ArrayList<T>(keys.size());
 
     for (int i = 0; i < keys.size(); i++) {
-      cf = Bytes.toBytes((String) keys.get(i).get(1));
-      cq = Bytes.toBytes((String) keys.get(i).get(2));
+      cf = config.getStateFamily(keys.get(i));
+      cq = config.getStateQualifier(keys.get(i));
       Result r = results[i];
       if (r.isEmpty()) {
+        stored.remove(keys.get(i));
         rtn.add(null);
       } else {
-        rtn.add((T) serializer.deserialize(r.getValue(cf, cq)));
+        stored.put(keys.get(i), r.raw());
+        rtn.add((T) layout.read(r, cf, cq));
       }
     }
 
@@ -105,24 +177,102 @@ public class HBaseAggregateState<T> implements IBackingMap<T> {
   /** {@inheritDoc} */
   @Override
   public void multiPut(List<List<Object>> keys, List<T> vals) {
-    List<Put> puts = new ArrayList<Put>();
+    track(keys.size());
+    final List<Put> puts = new ArrayList<Put>();
+    List<List<Object>> putKeys = new ArrayList<List<Object>>();
 
     for (int i = 0; i < keys.size(); i++) {
-      byte[] rk = Bytes.toBytes((String) keys.get(i).get(0));
-      byte[] cf = Bytes.toBytes((String) keys.get(i).get(1));
-      byte[] cq = Bytes.toBytes((String) keys.get(i).get(2));
-      byte[] cv = serializer.serialize(vals.get(i));
+      byte[] rk = config.getStateRowKey(keys.get(i));
+      byte[] cf = config.getStateFamily(keys.get(i));
+      byte[] cq = config.getStateQualifier(keys.get(i));
       Put p = new Put(rk);
-      puts.add(p.add(cf, cq, cv));
+      layout.write(p, cf, cq, vals.get(i));
+      if (isStored(p, stored.get(keys.get(i)))) {
+        suppressedWrites.incr();
+      } else {
+        puts.add(p);
+        putKeys.add(keys.get(i));
+      }
+    }
+
+    if (puts.isEmpty()) {
+      return;
     }
 
     // Log.debug("PUTS: " + puts.toString());
 
-    try {
-      connector.getTable().put(puts);
-      connector.getTable().flushCommits();
-    } catch (IOException e) {
-      new RuntimeException(e);
+    config.getRetryPolicy().call(new Callable<Void>() {
+      @Override
+      public Void call() throws IOException {
+        // Drop the puts of a failed attempt left in the write buffer, they are all sent again
+        connector.clearWriteBuffer();
+        connector.getTable().put(puts);
+        connector.getTable().flushCommits();
+        return null;
+      }
+    }, String.format("put %d state values", puts.size()));
+
+    for (int i = 0; i < puts.size(); i++) {
+      List<KeyValue> written = new ArrayList<KeyValue>();
+      for (List<KeyValue> kvs : puts.get(i).getFamilyMap().values()) {
+        written.addAll(kvs);
+      }
+      stored.put(putKeys.get(i), written.toArray(new KeyValue[written.size()]));
+    }
+  }
+
+  /**
+   * Release the state's table. The state can't be used afterwards
+   */
+  public void close() {
+    connector.close();
+  }
+
+  /**
+   * @return The number of state values not written because they were already stored
+   */
+  public IMetric getSuppressedWritesMetric() {
+    return suppressedWrites;
+  }
+
+  /**
+   * Make room for the stored cells of a batch of keys on top of those of the keys in the state
+   * cache, and forget the least recently used keys beyond that, e.g. after a larger batch
+   * @param batchSize The number of keys in the batch
+   */
+  private void track(final int batchSize) {
+    maxStoredKeys = config.getStateCacheSize() + batchSize;
+    Iterator<List<Object>> it = stored.keySet().iterator();
+    while (stored.size() > maxStoredKeys && it.hasNext()) {
+      it.next();
+      it.remove();
+    }
+  }
+
+  /**
+   * @param put The {@link Put} of a state value
+   * @param cells The cells stored for the state key, or null if unknown
+   * @return True if every cell of the put is already stored with the same value
+   */
+  private static boolean isStored(final Put put, final KeyValue[] cells) {
+    if (cells == null) {
+      return false;
+    }
+    for (List<KeyValue> kvs : put.getFamilyMap().values()) {
+      for (KeyValue kv : kvs) {
+        boolean found = false;
+        for (KeyValue c : cells) {
+          if (Bytes.equals(kv.getFamily(), c.getFamily())
+              && Bytes.equals(kv.getQualifier(), c.getQualifier())) {
+            found = Bytes.equals(kv.getValue(), c.getValue());
+            break;
+          }
+        }
+        if (!found) {
+          return false;
+        }
+      }
     }
+    return true;
   }
 }
\ No newline at end of file
@@ -0,0 +1,95 @@
+package backtype.storm.contrib.hbase.trident;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import storm.trident.operation.TridentCollector;
+import storm.trident.state.BaseQueryFunction;
+import storm.trident.tuple.TridentTuple;
+import backtype.storm.contrib.hbase.utils.TridentConfig;
+import backtype.storm.contrib.hbase.utils.ValueCodec;
+import backtype.storm.tuple.Values;
+
+/**
+ * Storm Trident query function for reading ranges of rows and columns from a
+ * {@link HBaseValueState}
+ * <p>
+ * Each tuple is turned into a bounded {@link Scan} by
+ * {@link TridentConfig#getScanFromTridentTuple(TridentTuple)}, and a tuple is emitted for every
+ * cell returned, with the fields <tt>row</tt> (the row key bytes), <tt>family</tt>,
+ * <tt>qualifier</tt> and <tt>value</tt>. The cells are emitted while the scanner is being read, so
+ * a scan is a single stream of RPCs rather than one get per row, and its results are never held in
+ * memory all at once.
+ * <p>
+ * E.g. to read the daily counters of a short URL for a range of dates:
+ *
+ * <pre>
+ * config.setScanColumnRange(&quot;from&quot;, &quot;to&quot;);
+ * stream.stateQuery(state, new Fields(&quot;shortid&quot;, &quot;from&quot;, &quot;to&quot;),
+ *   new HBaseScanQuery(ValueCodecs.LONG),
+ *   new Fields(&quot;row&quot;, &quot;family&quot;, &quot;date&quot;, &quot;count&quot;));
+ * </pre>
+ */
+@SuppressWarnings("serial")
+public class HBaseScanQuery extends BaseQueryFunction<HBaseValueState, HBaseScanQuery.PendingScan> {
+  private ValueCodec valueCodec;
+
+  /**
+   * Decode values with the codecs of the configured columns
+   */
+  public HBaseScanQuery() {
+  }
+
+  /**
+   * @param valueCodec The {@link ValueCodec} for all values, e.g. for a column range over counters
+   */
+  public HBaseScanQuery(final ValueCodec valueCodec) {
+    this.valueCodec = valueCodec;
+  }
+
+  /**
+   * A scan to be run when its tuple is executed
+   */
+  public static class PendingScan {
+    final HBaseValueState state;
+    final Scan scan;
+
+    PendingScan(final HBaseValueState state, final Scan scan) {
+      this.state = state;
+      this.scan = scan;
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public List<PendingScan> batchRetrieve(HBaseValueState state, List<TridentTuple> args) {
+    List<PendingScan> scans = new ArrayList<PendingScan>(args.size());
+    for (TridentTuple t : args) {
+      scans.add(new PendingScan(state, state.getConf().getScanFromTridentTuple(t)));
+    }
+    return scans;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void execute(TridentTuple tuple, PendingScan result, final TridentCollector collector) {
+    final TridentConfig<?> conf = result.state.getConf();
+    result.state.scan(result.scan, new HBaseValueState.ResultHandler() {
+      @Override
+      public void handle(Result row) {
+        for (KeyValue kv : row.raw()) {
+          String family = Bytes.toString(kv.getFamily());
+          String qualifier = Bytes.toString(kv.getQualifier());
+          ValueCodec codec =
+              valueCodec != null ? valueCodec : conf.getColumnCodec(family, qualifier);
+          collector.emit(new Values(kv.getRow(), family, qualifier, codec.decode(kv.getValue())));
+        }
+      }
+    });
+  }
+}
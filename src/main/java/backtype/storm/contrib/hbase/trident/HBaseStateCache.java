@@ -0,0 +1,167 @@
+package backtype.storm.contrib.hbase.trident;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+
+import storm.trident.state.map.CachedMap;
+import storm.trident.state.map.IBackingMap;
+import backtype.storm.metric.api.IMetric;
+import backtype.storm.metric.api.MultiCountMetric;
+
+/**
+ * A multi-level cache in front of {@link HBaseAggregateState}, used in place of Trident's
+ * {@link CachedMap}.
+ * <p>
+ * The first tier is a size-bounded on-heap LRU map. When it is full a new key is only admitted if
+ * it has been seen more often recently than the key it would evict, as estimated by a
+ * {@link FrequencySketch} (TinyLFU admission). This keeps one-off keys from flushing hot keys out
+ * of the cache. Keys that are evicted or not admitted are handed to the optional second tier, see
+ * {@link StateCacheTier}.
+ * <p>
+ * Writes go through to the backing map and update the cache. Hits, misses, evictions and rejected
+ * admissions are counted in {@link #getMetric()}.
+ * @param <T> The type of value cached
+ */
+public class HBaseStateCache<T> implements IBackingMap<T> {
+  public static final String METRIC_NAME = "hbase-state-cache";
+
+  private final IBackingMap<T> delegate;
+  private final int capacity;
+  private final LinkedHashMap<List<Object>, T> heap;
+  private final FrequencySketch sketch;
+  private final StateCacheTier<T> secondary;
+  private final MultiCountMetric metric = new MultiCountMetric();
+
+  /**
+   * @param delegate The backing map
+   * @param capacity The maximum number of entries in the on-heap tier, zero for none
+   * @param secondary The second tier, or null for none
+   */
+  public HBaseStateCache(final IBackingMap<T> delegate, final int capacity,
+      final StateCacheTier<T> secondary) {
+    this.delegate = delegate;
+    this.capacity = capacity;
+    this.heap = new LinkedHashMap<List<Object>, T>(16, 0.75f, true);
+    this.sketch = new FrequencySketch(capacity);
+    this.secondary = secondary;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public List<T> multiGet(List<List<Object>> keys) {
+    List<T> rtn = new ArrayList<T>(keys.size());
+    List<List<Object>> missKeys = new ArrayList<List<Object>>();
+    List<Integer> missIndexes = new ArrayList<Integer>();
+
+    for (int i = 0; i < keys.size(); i++) {
+      List<Object> key = keys.get(i);
+      sketch.increment(key);
+
+      T val = heap.get(key);
+      if (val != null) {
+        metric.scope("heapHits").incr();
+      } else if (secondary != null && (val = secondary.get(key)) != null) {
+        metric.scope("secondaryHits").incr();
+        admit(key, val);
+      } else {
+        metric.scope("misses").incr();
+        missKeys.add(key);
+        missIndexes.add(i);
+      }
+      rtn.add(val);
+    }
+
+    if (!missKeys.isEmpty()) {
+      List<T> fetched = delegate.multiGet(missKeys);
+      for (int i = 0; i < missKeys.size(); i++) {
+        T val = fetched.get(i);
+        rtn.set(missIndexes.get(i), val);
+        if (val != null) {
+          admit(missKeys.get(i), val);
+        }
+      }
+    }
+
+    return rtn;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void multiPut(List<List<Object>> keys, List<T> vals) {
+    delegate.multiPut(keys, vals);
+    for (int i = 0; i < keys.size(); i++) {
+      admit(keys.get(i), vals.get(i));
+    }
+  }
+
+  /**
+   * @return The cache metric, counting <tt>heapHits</tt>, <tt>secondaryHits</tt>, <tt>misses</tt>,
+   *         <tt>evictions</tt> and <tt>rejections</tt>
+   */
+  public IMetric getMetric() {
+    return metric;
+  }
+
+  /**
+   * Empty the cache and release its secondary tier, and the table of the backing map if it is a
+   * {@link HBaseAggregateState}
+   */
+  public void close() {
+    heap.clear();
+    if (secondary != null) {
+      secondary.close();
+    }
+    if (delegate instanceof HBaseAggregateState) {
+      ((HBaseAggregateState<?>) delegate).close();
+    }
+  }
+
+  /**
+   * @return The number of entries in the on-heap tier
+   */
+  public int size() {
+    return heap.size();
+  }
+
+  /**
+   * Add or update an entry in the on-heap tier, if the admission policy allows it
+   * @param key The state key
+   * @param val The value
+   */
+  private void admit(final List<Object> key, final T val) {
+    if (capacity <= 0) {
+      // No on-heap tier, e.g. a state cache size of zero
+      if (secondary != null) {
+        secondary.put(key, val);
+      }
+      return;
+    }
+    if (heap.containsKey(key) || heap.size() < capacity) {
+      heap.put(key, val);
+      if (secondary != null) {
+        secondary.remove(key);
+      }
+      return;
+    }
+
+    Iterator<Entry<List<Object>, T>> it = heap.entrySet().iterator();
+    Entry<List<Object>, T> victim = it.next();
+    if (sketch.frequency(key) > sketch.frequency(victim.getKey())) {
+      it.remove();
+      metric.scope("evictions").incr();
+      if (secondary != null) {
+        secondary.put(victim.getKey(), victim.getValue());
+        secondary.remove(key);
+      }
+      heap.put(key, val);
+    } else {
+      metric.scope("rejections").incr();
+      if (secondary != null) {
+        secondary.put(key, val);
+      }
+    }
+  }
+}
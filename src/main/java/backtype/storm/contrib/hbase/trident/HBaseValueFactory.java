@@ -21,6 +21,11 @@ public class HBaseValueFactory implements StateFactory {
   /** {@inheritDoc} */
   @Override
   public State makeState(Map conf, IMetricsContext metrics, int partitionIndex, int numPartitions) {
-    return new HBaseValueState(_conf);
+    HBaseValueState state = new HBaseValueState(_conf);
+    if (_conf.getLookupCacheSize() > 0) {
+      new StateMetrics(metrics, _conf.getTableName()).register(LookupCache.METRIC_NAME,
+        state.getCacheMetric());
+    }
+    return state;
   }
 }
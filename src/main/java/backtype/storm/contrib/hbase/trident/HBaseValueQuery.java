@@ -0,0 +1,74 @@
+package backtype.storm.contrib.hbase.trident;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import storm.trident.operation.TridentCollector;
+import storm.trident.state.BaseQueryFunction;
+import storm.trident.tuple.TridentTuple;
+import backtype.storm.contrib.hbase.utils.TridentConfig;
+import backtype.storm.tuple.Values;
+
+/**
+ * Storm Trident query function for looking up rows in a {@link HBaseValueState}
+ * <p>
+ * The {@link Get}s for a batch are built by
+ * {@link TridentConfig#getGetFromTridentTuple(TridentTuple)} and sent as a single multi-get, each
+ * distinct row and timestamp being fetched once however many tuples in the batch ask for it. Each
+ * tuple is emitted with the values of the configured columns, decoded by their codecs, see
+ * {@link TridentConfig#getValuesFromResult(Result)}. E.g:
+ *
+ * <pre>
+ * stream.stateQuery(state, new Fields(&quot;shortid&quot;), new HBaseValueQuery(),
+ *   new Fields(&quot;url&quot;, &quot;user&quot;, &quot;date&quot;));
+ * </pre>
+ */
+@SuppressWarnings("serial")
+public class HBaseValueQuery extends BaseQueryFunction<HBaseValueState, List<Object>> {
+
+  /** {@inheritDoc} */
+  @Override
+  public List<List<Object>> batchRetrieve(HBaseValueState state, List<TridentTuple> args) {
+    TridentConfig<?> conf = state.getConf();
+
+    // Gets keyed by row key and timestamp, so each distinct get is only sent once
+    Map<byte[], Integer> distinct = new TreeMap<byte[], Integer>(Bytes.BYTES_COMPARATOR);
+    List<Get> gets = new ArrayList<Get>();
+    int[] indexes = new int[args.size()];
+    for (int i = 0; i < args.size(); i++) {
+      Get g = conf.getGetFromTridentTuple(args.get(i));
+      byte[] key = Bytes.add(g.getRow(), Bytes.toBytes(g.getTimeRange().getMin()));
+      Integer index = distinct.get(key);
+      if (index == null) {
+        index = gets.size();
+        distinct.put(key, index);
+        gets.add(g);
+      }
+      indexes[i] = index;
+    }
+
+    List<Result> results = state.getValuesBulk(gets);
+    List<List<Object>> values = new ArrayList<List<Object>>(results.size());
+    for (Result r : results) {
+      values.add(conf.getValuesFromResult(r));
+    }
+
+    List<List<Object>> rtn = new ArrayList<List<Object>>(args.size());
+    for (int i = 0; i < args.size(); i++) {
+      rtn.add(values.get(indexes[i]));
+    }
+    return rtn;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void execute(TridentTuple tuple, List<Object> result, TridentCollector collector) {
+    collector.emit(new Values(result.toArray()));
+  }
+}
@@ -7,14 +7,24 @@ import java.util.List;
 import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
 import org.apache.log4j.Logger;
 
 import storm.trident.state.State;
 import backtype.storm.contrib.hbase.utils.HTableConnector;
+import backtype.storm.contrib.hbase.utils.HTableConnectorPool;
 import backtype.storm.contrib.hbase.utils.TridentConfig;
 
 /**
  * Storm Trident state implementation for putting and getting values from a HBase table
+ * <p>
+ * A table connector is borrowed from the {@link HTableConnectorPool} at the start of each commit
+ * and handed back at the end of it. Reads made outside a commit, e.g. by {@link HBaseValueQuery},
+ * borrow a connector for the duration of the read.
+ * <p>
+ * Reads can be cached by a worker-scoped {@link LookupCache}, see
+ * {@link TridentConfig#setLookupCache(int, long)}.
  */
 @SuppressWarnings("rawtypes")
 public class HBaseValueState implements State {
@@ -22,9 +32,24 @@ public class HBaseValueState implements State {
 
   private HTableConnector _connector;
   private TridentConfig _conf;
+  private LookupCache _cache;
+  private LookupCache.Stats _cacheStats = new LookupCache.Stats();
+
+  /**
+   * Receives the rows of a scan as they are returned
+   */
+  public interface ResultHandler {
+    /**
+     * @param row The {@link Result} for a row, or part of a row if the scan has a batch size
+     */
+    void handle(Result row);
+  }
 
   public HBaseValueState(final TridentConfig conf) {
     this._conf = conf;
+    if (conf.getLookupCacheSize() > 0) {
+      this._cache = LookupCache.forConfig(conf);
+    }
   }
 
   /** {@inheritDoc} */
@@ -33,8 +58,12 @@ public class HBaseValueState implements State {
     if (LOG.isDebugEnabled()) {
       LOG.debug("Beginning commit for tx " + txid);
     }
+    if (_connector != null) {
+      // The previous commit failed before completing
+      HTableConnectorPool.release(_connector);
+    }
     try {
-      _connector = new HTableConnector(_conf);
+      _connector = HTableConnectorPool.borrow(_conf);
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
@@ -46,7 +75,8 @@ public class HBaseValueState implements State {
     if (LOG.isDebugEnabled()) {
       LOG.debug("Commit tx " + txid);
     }
-    _connector.close();
+    HTableConnectorPool.release(_connector);
+    _connector = null;
   }
 
   /**
@@ -60,6 +90,9 @@ public class HBaseValueState implements State {
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
+    if (_cache != null) {
+      _cache.invalidate(puts);
+    }
   }
 
   /**
@@ -68,13 +101,73 @@ public class HBaseValueState implements State {
    * @return List of HBase results from the the given gets
    */
   public List<Result> getValuesBulk(final List<Get> gets) {
+    if (_cache == null) {
+      return Arrays.asList(fetch(gets));
+    }
+    try {
+      return _cache.get(gets, new LookupCache.Loader() {
+        @Override
+        public Result[] load(List<Get> misses) {
+          return fetch(misses);
+        }
+      }, _cacheStats);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Scan HBase, handing each row to the handler as the scanner returns it, so the rows are never
+   * all held in memory. Rows are fetched in batches of {@link Scan#getCaching()} rows
+   * @param scan The {@link Scan}
+   * @param handler The {@link ResultHandler}
+   */
+  public void scan(final Scan scan, final ResultHandler handler) {
+    HTableConnector connector = _connector;
+    ResultScanner scanner = null;
+    try {
+      if (connector == null) {
+        connector = HTableConnectorPool.borrow(_conf);
+      }
+      scanner = connector.getTable().getScanner(scan);
+      for (Result r = scanner.next(); r != null; r = scanner.next()) {
+        handler.handle(r);
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    } finally {
+      if (scanner != null) {
+        scanner.close();
+      }
+      if (connector != null && connector != _connector) {
+        HTableConnectorPool.release(connector);
+      }
+    }
+  }
+
+  /**
+   * @return The metric of the lookup cache, see {@link LookupCache.Stats}
+   */
+  public LookupCache.Stats getCacheMetric() {
+    return _cacheStats;
+  }
+
+  private Result[] fetch(final List<Get> gets) {
     Result[] results;
+    HTableConnector connector = _connector;
     try {
-      results = _connector.getTable().get(gets);
+      if (connector == null) {
+        connector = HTableConnectorPool.borrow(_conf);
+      }
+      results = connector.getTable().get(gets);
     } catch (IOException e) {
       throw new RuntimeException(e);
+    } finally {
+      if (connector != null && connector != _connector) {
+        HTableConnectorPool.release(connector);
+      }
     }
-    return Arrays.asList(results);
+    return results;
   }
 
   /**
@@ -0,0 +1,299 @@
+package backtype.storm.contrib.hbase.trident;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import backtype.storm.contrib.hbase.utils.TridentConfig;
+import backtype.storm.metric.api.IMetric;
+
+/**
+ * A worker-scoped, read-through cache of HBase rows in front of
+ * {@link HBaseValueState#getValuesBulk(List)}
+ * <p>
+ * Rows are cached by row key and timestamp for a fixed time to live, up to a maximum number of
+ * rows, evicting the least recently used. Missing rows are cached too, as empty {@link Result}s, so
+ * lookups of keys that don't exist don't reach HBase either.
+ * <p>
+ * Loading is single-flight: a row requested by several tasks at once is fetched once, by the first
+ * task to miss it, and the other tasks wait for that fetch. The misses of a batch are still fetched
+ * with a single multi-get.
+ * <p>
+ * Puts made through a {@link HBaseValueState} in the same worker invalidate the rows they write.
+ * Writes made elsewhere are only seen once the cached row expires.
+ * <p>
+ * One cache is shared by all the states of the worker with the same table and columns, see
+ * {@link TridentConfig#setLookupCache(int, long)}. Hits, misses and load latency are counted per
+ * state, see {@link Stats}.
+ */
+public class LookupCache {
+  public static final String METRIC_NAME = "hbase-lookup-cache";
+
+  private static final Map<String, LookupCache> CACHES = new HashMap<String, LookupCache>();
+
+  /**
+   * Fetches rows from HBase on a cache miss
+   */
+  public interface Loader {
+    /**
+     * @param gets The gets of the missed rows
+     * @return The results, in the same order as the gets
+     * @throws IOException
+     */
+    Result[] load(List<Get> gets) throws IOException;
+  }
+
+  /**
+   * @param conf The {@link TridentConfig} of the state
+   * @return The worker's cache for the table and columns of the config
+   */
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  public static synchronized LookupCache forConfig(final TridentConfig conf) {
+    StringBuilder key = new StringBuilder(conf.getTableName());
+    for (String cf : (Iterable<String>) conf.getColumnFamilies()) {
+      key.append('/').append(cf).append(conf.getColumns(cf));
+    }
+    LookupCache cache = CACHES.get(key.toString());
+    if (cache == null) {
+      cache = new LookupCache(conf.getLookupCacheSize(), conf.getLookupCacheTtlMillis());
+      CACHES.put(key.toString(), cache);
+    }
+    return cache;
+  }
+
+  private final long ttlMillis;
+  private final LinkedHashMap<ByteBuffer, CachedRow> entries;
+
+  /**
+   * @param maxSize The maximum number of rows cached
+   * @param ttlMillis How long a row is cached for
+   */
+  public LookupCache(final int maxSize, final long ttlMillis) {
+    this.ttlMillis = ttlMillis;
+    this.entries = new LinkedHashMap<ByteBuffer, CachedRow>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<ByteBuffer, CachedRow> eldest) {
+        if (size() > maxSize) {
+          eldest.getValue().stats.evictions.incrementAndGet();
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  /**
+   * Get rows from the cache, loading the rows which aren't cached
+   * @param gets The gets
+   * @param loader The {@link Loader} for the missed rows
+   * @param stats The {@link Stats} of the calling state
+   * @return The results, in the same order as the gets
+   * @throws IOException if the missed rows can't be loaded
+   */
+  public List<Result> get(final List<Get> gets, final Loader loader, final Stats stats)
+      throws IOException {
+    CachedRow[] found = new CachedRow[gets.size()];
+    List<Get> misses = new ArrayList<Get>();
+    List<CachedRow> loading = new ArrayList<CachedRow>();
+
+    long now = System.currentTimeMillis();
+    synchronized (entries) {
+      for (int i = 0; i < gets.size(); i++) {
+        ByteBuffer key = key(gets.get(i).getRow(), gets.get(i).getTimeRange().getMin());
+        CachedRow e = entries.get(key);
+        if (e != null && e.expires <= now) {
+          entries.remove(key);
+          stats.expirations.incrementAndGet();
+          e = null;
+        }
+        if (e == null) {
+          e = new CachedRow(key, now + ttlMillis, stats);
+          entries.put(key, e);
+          misses.add(gets.get(i));
+          loading.add(e);
+          stats.misses.incrementAndGet();
+        } else {
+          stats.hits.incrementAndGet();
+        }
+        found[i] = e;
+      }
+    }
+
+    if (!misses.isEmpty()) {
+      load(misses, loading, loader, stats);
+    }
+
+    List<Result> results = new ArrayList<Result>(gets.size());
+    for (CachedRow e : found) {
+      results.add(e.result());
+    }
+    return results;
+  }
+
+  /**
+   * Drop the cached rows written by some puts
+   * <p>
+   * A get at a timestamp only reads cells with exactly that timestamp, so besides its latest
+   * version, the row is dropped at the timestamp of each cell put. The timestamps are set per cell,
+   * e.g. by {@link TridentConfig#getPutFromTridentTuple}, so the put's own timestamp isn't enough.
+   * @param puts The puts
+   */
+  public void invalidate(final List<Put> puts) {
+    synchronized (entries) {
+      for (Put p : puts) {
+        entries.remove(key(p.getRow(), 0L));
+        for (List<KeyValue> kvs : p.getFamilyMap().values()) {
+          for (KeyValue kv : kvs) {
+            if (kv.getTimestamp() != HConstants.LATEST_TIMESTAMP) {
+              entries.remove(key(p.getRow(), kv.getTimestamp()));
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * @return The number of rows cached, including rows being loaded
+   */
+  public int size() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  private void load(final List<Get> gets, final List<CachedRow> loading, final Loader loader,
+      final Stats stats) throws IOException {
+    long start = System.currentTimeMillis();
+    Result[] results;
+    try {
+      results = loader.load(gets);
+    } catch (IOException ex) {
+      fail(loading, ex);
+      throw ex;
+    } catch (RuntimeException ex) {
+      fail(loading, ex);
+      throw ex;
+    }
+    stats.loads.incrementAndGet();
+    stats.loadMillis.addAndGet(System.currentTimeMillis() - start);
+
+    for (int i = 0; i < loading.size(); i++) {
+      loading.get(i).set(results[i]);
+    }
+  }
+
+  /**
+   * Drop entries whose load failed, so the next lookup retries them, and wake up their waiters
+   */
+  private void fail(final List<CachedRow> loading, final Exception ex) {
+    synchronized (entries) {
+      for (CachedRow e : loading) {
+        if (entries.get(e.key) == e) {
+          entries.remove(e.key);
+        }
+      }
+    }
+    for (CachedRow e : loading) {
+      e.setException(ex);
+    }
+  }
+
+  private static ByteBuffer key(final byte[] row, final long ts) {
+    return ByteBuffer.wrap(Bytes.add(row, Bytes.toBytes(ts)));
+  }
+
+  /**
+   * A cached row, or a row being loaded by another task
+   */
+  private static class CachedRow extends FutureTask<Result> {
+    final ByteBuffer key;
+    final long expires;
+    // The stats of the state that loaded the row, charged with its eviction
+    final Stats stats;
+
+    CachedRow(final ByteBuffer key, final long expires, final Stats stats) {
+      super(new Runnable() {
+        @Override
+        public void run() {
+        }
+      }, null);
+      this.key = key;
+      this.expires = expires;
+      this.stats = stats;
+    }
+
+    @Override
+    protected void set(final Result r) {
+      super.set(r);
+    }
+
+    @Override
+    protected void setException(final Throwable t) {
+      super.setException(t);
+    }
+
+    Result result() throws IOException {
+      try {
+        return get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting for row to load", e);
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof IOException) {
+          throw (IOException) e.getCause();
+        }
+        throw new IOException("Unable to load row", e.getCause());
+      }
+    }
+  }
+
+  /**
+   * The lookup cache metric of a state. Reports the <tt>hits</tt>, <tt>misses</tt>,
+   * <tt>expirations</tt> and <tt>evictions</tt>, the <tt>hitRatio</tt>, and the number of
+   * <tt>loads</tt> and their mean latency <tt>loadMillis</tt>
+   */
+  public static class Stats implements IMetric {
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong loadMillis = new AtomicLong();
+
+    /** {@inheritDoc} */
+    @Override
+    public Object getValueAndReset() {
+      long h = hits.getAndSet(0);
+      long m = misses.getAndSet(0);
+      long l = loads.getAndSet(0);
+      long lm = loadMillis.getAndSet(0);
+
+      Map<String, Object> value = new HashMap<String, Object>();
+      value.put("hits", h);
+      value.put("misses", m);
+      value.put("expirations", expirations.getAndSet(0));
+      value.put("evictions", evictions.getAndSet(0));
+      value.put("hitRatio", h + m == 0 ? 0.0 : (double) h / (h + m));
+      value.put("loads", l);
+      value.put("loadMillis", l == 0 ? 0.0 : (double) lm / l);
+      return value;
+    }
+  }
+}
@@ -0,0 +1,268 @@
+package backtype.storm.contrib.hbase.trident;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import storm.trident.state.Serializer;
+import backtype.storm.contrib.hbase.utils.DirectBuffers;
+import backtype.storm.contrib.hbase.utils.TridentConfig;
+
+/**
+ * An off-heap {@link StateCacheTier} holding serialized state keys and values in direct
+ * {@link ByteBuffer}s.
+ * <p>
+ * Keys are stored as the row key, column family and column qualifier bytes that
+ * {@link HBaseAggregateState} reads and writes, and values in the form produced by the state's
+ * {@link Serializer}. A value is only deserialized when it is hit, so the cache costs the garbage
+ * collector a few primitive arrays however many entries it holds.
+ * <p>
+ * The cache is split into segments, each an append-only log in a direct buffer with an
+ * open-addressing index of <tt>long</tt>s on the heap. When a segment's log is full the segment is
+ * cleared and refilled, which evicts its oldest entries in bulk.
+ * <p>
+ * The direct buffers are freed by {@link #close()}, rather than when the garbage collector gets
+ * round to them, which may not happen before the JVM runs out of direct memory.
+ * @param <T> The type of value cached
+ */
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class OffHeapStateCache<T> implements StateCacheTier<T> {
+  private static final int SEGMENTS = 16;
+
+  private final TridentConfig config;
+  private final Serializer serializer;
+  private final Segment[] segments;
+  private volatile boolean closed = false;
+
+  /**
+   * @param config The {@link TridentConfig} of the state
+   * @param capacityBytes The total size of the direct buffers
+   */
+  public OffHeapStateCache(final TridentConfig config, final long capacityBytes) {
+    this.config = config;
+    this.serializer = config.getStateSerializer();
+
+    long segmentBytes = Math.min(capacityBytes / SEGMENTS, Integer.MAX_VALUE - 1);
+    this.segments = new Segment[SEGMENTS];
+    for (int i = 0; i < SEGMENTS; i++) {
+      segments[i] = new Segment((int) segmentBytes);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public T get(List<Object> key) {
+    if (closed) {
+      return null;
+    }
+    byte[] k = encodeKey(key);
+    int hash = hash(k);
+    byte[] v = segmentFor(hash).get(k, hash);
+    return v == null ? null : (T) serializer.deserialize(v);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void put(List<Object> key, T value) {
+    if (closed) {
+      return;
+    }
+    byte[] k = encodeKey(key);
+    int hash = hash(k);
+    segmentFor(hash).put(k, hash, serializer.serialize(value));
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void remove(List<Object> key) {
+    if (closed) {
+      return;
+    }
+    byte[] k = encodeKey(key);
+    int hash = hash(k);
+    segmentFor(hash).remove(k, hash);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    for (Segment s : segments) {
+      s.close();
+    }
+  }
+
+  /**
+   * @return The number of entries cached
+   */
+  public int size() {
+    if (closed) {
+      return 0;
+    }
+    int size = 0;
+    for (Segment s : segments) {
+      size += s.count;
+    }
+    return size;
+  }
+
+  /**
+   * @param key The state key
+   * @return The length-prefixed row key, column family and column qualifier
+   */
+  private byte[] encodeKey(final List<Object> key) {
+    byte[] rk = config.getStateRowKey(key);
+    byte[] cf = config.getStateFamily(key);
+    byte[] cq = config.getStateQualifier(key);
+
+    ByteBuffer b = ByteBuffer.allocate(8 + rk.length + cf.length + cq.length);
+    b.putInt(rk.length).put(rk).putInt(cf.length).put(cf).put(cq);
+    return b.array();
+  }
+
+  private Segment segmentFor(final int hash) {
+    return segments[(hash >>> 16) & (SEGMENTS - 1)];
+  }
+
+  private static int hash(final byte[] k) {
+    int h = 1;
+    for (byte b : k) {
+      h = 31 * h + b;
+    }
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * An append-only log of <tt>[key length][value length][key][value]</tt> records, indexed by
+   * slots holding the key hash in the high 32 bits and the record offset + 1 in the low 32 bits
+   */
+  private static class Segment {
+    private static final long EMPTY = 0L;
+    private static final long REMOVED = -1L;
+
+    private ByteBuffer data;
+    private long[] slots = new long[64];
+    private int used = 0;
+    private int count = 0;
+
+    Segment(final int capacity) {
+      this.data = ByteBuffer.allocateDirect(capacity);
+    }
+
+    byte[] get(final byte[] k, final int hash) {
+      int i = find(k, hash);
+      if (i < 0) {
+        return null;
+      }
+      int offset = offset(slots[i]);
+      byte[] v = new byte[data.getInt(offset + 4)];
+      ByteBuffer dup = data.duplicate();
+      dup.position(offset + 8 + k.length);
+      dup.get(v);
+      return v;
+    }
+
+    void put(final byte[] k, final int hash, final byte[] v) {
+      int size = 8 + k.length + v.length;
+      if (size > data.capacity()) {
+        remove(k, hash);
+        return;
+      }
+      if (data.capacity() - data.position() < size) {
+        clear();
+      } else {
+        remove(k, hash);
+      }
+
+      int offset = data.position();
+      data.putInt(k.length).putInt(v.length).put(k).put(v);
+
+      int mask = slots.length - 1;
+      int i = hash & mask;
+      while (slots[i] != EMPTY && slots[i] != REMOVED) {
+        i = (i + 1) & mask;
+      }
+      if (slots[i] == EMPTY) {
+        used++;
+      }
+      slots[i] = ((long) hash << 32) | ((offset + 1) & 0xFFFFFFFFL);
+      count++;
+
+      if (used > slots.length * 3 / 4) {
+        rehash(count > slots.length / 2 ? slots.length * 2 : slots.length);
+      }
+    }
+
+    void remove(final byte[] k, final int hash) {
+      int i = find(k, hash);
+      if (i >= 0) {
+        slots[i] = REMOVED;
+        count--;
+      }
+    }
+
+    private int find(final byte[] k, final int hash) {
+      int mask = slots.length - 1;
+      for (int i = hash & mask;; i = (i + 1) & mask) {
+        long slot = slots[i];
+        if (slot == EMPTY) {
+          return -1;
+        }
+        if (slot != REMOVED && (int) (slot >>> 32) == hash && keyEquals(offset(slot), k)) {
+          return i;
+        }
+      }
+    }
+
+    private boolean keyEquals(final int offset, final byte[] k) {
+      if (data.getInt(offset) != k.length) {
+        return false;
+      }
+      int start = offset + 8;
+      for (int i = 0; i < k.length; i++) {
+        if (data.get(start + i) != k[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private void rehash(final int size) {
+      long[] old = slots;
+      slots = new long[size];
+      used = 0;
+      int mask = size - 1;
+      for (long slot : old) {
+        if (slot != EMPTY && slot != REMOVED) {
+          int i = (int) (slot >>> 32) & mask;
+          while (slots[i] != EMPTY) {
+            i = (i + 1) & mask;
+          }
+          slots[i] = slot;
+          used++;
+        }
+      }
+    }
+
+    private void clear() {
+      data.clear();
+      slots = new long[64];
+      used = 0;
+      count = 0;
+    }
+
+    private void close() {
+      DirectBuffers.free(data);
+      data = null;
+      slots = new long[64];
+      used = 0;
+      count = 0;
+    }
+
+    private static int offset(final long slot) {
+      return (int) slot - 1;
+    }
+  }
+}
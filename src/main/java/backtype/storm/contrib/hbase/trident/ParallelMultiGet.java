@@ -0,0 +1,189 @@
+package backtype.storm.contrib.hbase.trident;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Threads;
+
+import backtype.storm.contrib.hbase.utils.HConnectionRegistry;
+
+/**
+ * Splits a large multi-get into sub-requests by region and runs them concurrently.
+ * <p>
+ * HTable already groups a multi-get by region server, but each server then receives a single
+ * request for all of its keys, and the call returns once the slowest server has answered all of
+ * them. Here the gets for each region are sent as separate requests of at most <tt>batchSize</tt>
+ * gets, so the keys of one server are fetched by several concurrent requests and a single large
+ * region no longer holds up the whole batch. The results are merged back in the order of the
+ * original gets.
+ * <p>
+ * The sub-requests of every state in the worker run on one shared pool of daemon threads, sized
+ * for the largest number of threads requested, so states need no shutdown. Each pool thread reads
+ * through its own lightweight table handle per table on the worker's shared connection, see
+ * {@link HConnectionRegistry}.
+ */
+public class ParallelMultiGet {
+  private static ThreadPoolExecutor executor;
+  private static final ThreadLocal<Map<String, HTable>> HANDLES =
+      new ThreadLocal<Map<String, HTable>>() {
+        @Override
+        protected Map<String, HTable> initialValue() {
+          return new HashMap<String, HTable>();
+        }
+      };
+
+  /**
+   * Sends the sub-request for the gets of one region
+   */
+  public interface Fetcher {
+    /**
+     * @param gets The gets of the sub-request
+     * @return The results, in the same order as the gets
+     * @throws IOException
+     */
+    Result[] fetch(List<Get> gets) throws IOException;
+  }
+
+  private final String tableName;
+  private final int batchSize;
+
+  /**
+   * @param tableName The table name
+   * @param threads The number of concurrent sub-requests
+   * @param batchSize The maximum number of gets in a sub-request
+   */
+  public ParallelMultiGet(final String tableName, final int threads, final int batchSize) {
+    this.tableName = tableName;
+    this.batchSize = batchSize;
+    ensureThreads(threads);
+  }
+
+  /**
+   * @param locator The table used to look up the region of each get
+   * @param gets The gets
+   * @return The results, in the same order as the gets
+   * @throws IOException if any sub-request fails
+   */
+  public Result[] get(final HTable locator, final List<Get> gets) throws IOException {
+    if (gets.size() <= batchSize) {
+      return locator.get(gets);
+    }
+
+    List<String> regions = new ArrayList<String>(gets.size());
+    for (Get g : gets) {
+      regions.add(locator.getRegionLocation(g.getRow(), false).getRegionInfo().getEncodedName());
+    }
+    return get(gets, regions, new Fetcher() {
+      @Override
+      public Result[] fetch(List<Get> sub) throws IOException {
+        return handle().get(sub);
+      }
+    });
+  }
+
+  /**
+   * @param gets The gets
+   * @param regions The region of each get
+   * @param fetcher Sends a sub-request, on a pool thread
+   * @return The results, in the same order as the gets
+   * @throws IOException if any sub-request fails
+   */
+  public Result[] get(final List<Get> gets, final List<String> regions, final Fetcher fetcher)
+      throws IOException {
+    // Group the gets by region, keeping their original positions
+    Map<String, List<Integer>> byRegion = new LinkedHashMap<String, List<Integer>>();
+    for (int i = 0; i < gets.size(); i++) {
+      List<Integer> indexes = byRegion.get(regions.get(i));
+      if (indexes == null) {
+        indexes = new ArrayList<Integer>();
+        byRegion.put(regions.get(i), indexes);
+      }
+      indexes.add(i);
+    }
+
+    final Result[] results = new Result[gets.size()];
+    List<Future<Void>> futures = new ArrayList<Future<Void>>();
+    for (List<Integer> indexes : byRegion.values()) {
+      for (int start = 0; start < indexes.size(); start += batchSize) {
+        final List<Integer> chunk = indexes.subList(start, Math.min(start + batchSize,
+          indexes.size()));
+        futures.add(getExecutor().submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            List<Get> sub = new ArrayList<Get>(chunk.size());
+            for (int i : chunk) {
+              sub.add(gets.get(i));
+            }
+            Result[] subResults = fetcher.fetch(sub);
+            for (int i = 0; i < chunk.size(); i++) {
+              results[chunk.get(i)] = subResults[i];
+            }
+            return null;
+          }
+        }));
+      }
+    }
+
+    for (Future<Void> f : futures) {
+      try {
+        f.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting for multi-get", e);
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof IOException) {
+          throw (IOException) e.getCause();
+        }
+        throw new IOException("Multi-get failed", e.getCause());
+      }
+    }
+    return results;
+  }
+
+  /**
+   * @return The current pool thread's handle on the table
+   * @throws IOException
+   */
+  private HTable handle() throws IOException {
+    Map<String, HTable> handles = HANDLES.get();
+    HTable t = handles.get(tableName);
+    if (t == null) {
+      t = HConnectionRegistry.getTable(HConnectionRegistry.getDefaultConfiguration(), tableName);
+      handles.put(tableName, t);
+    }
+    return t;
+  }
+
+  /**
+   * Create the worker's pool, or grow it to the given number of threads
+   * @param threads The number of threads needed
+   */
+  private static synchronized void ensureThreads(final int threads) {
+    if (executor == null) {
+      executor =
+          new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+              new LinkedBlockingQueue<Runnable>(),
+              Threads.newDaemonThreadFactory("storm-hbase-multiget"));
+    } else if (threads > executor.getMaximumPoolSize()) {
+      executor.setMaximumPoolSize(threads);
+      executor.setCorePoolSize(threads);
+    }
+  }
+
+  private static synchronized ThreadPoolExecutor getExecutor() {
+    return executor;
+  }
+}
@@ -0,0 +1,43 @@
+package backtype.storm.contrib.hbase.trident;
+
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+
+import storm.trident.state.Serializer;
+
+/**
+ * Stores the whole state value, e.g. an opaque value's txid, current and previous values, in a
+ * single cell in the form produced by a {@link Serializer}. <b>This is the default
+ * @param <T> The type of value being persisted
+ */
+@SuppressWarnings("serial")
+public class SerializedStateLayout<T> implements StateLayout<T> {
+  private Serializer<T> serializer;
+
+  /**
+   * @param serializer The {@link Serializer} for the state values
+   */
+  public SerializedStateLayout(final Serializer<T> serializer) {
+    this.serializer = serializer;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void addColumns(Get get, byte[] cf, byte[] cq) {
+    get.addColumn(cf, cq);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public T read(Result result, byte[] cf, byte[] cq) {
+    byte[] cv = result.getValue(cf, cq);
+    return cv == null ? null : serializer.deserialize(cv);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void write(Put put, byte[] cf, byte[] cq, T value) {
+    put.add(cf, cq, serializer.serialize(value));
+  }
+}
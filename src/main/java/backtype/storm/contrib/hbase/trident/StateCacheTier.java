@@ -0,0 +1,32 @@
+package backtype.storm.contrib.hbase.trident;
+
+import java.util.List;
+
+/**
+ * A secondary tier of the {@link HBaseStateCache}, holding the entries evicted from, or not
+ * admitted to, the on-heap tier
+ * @param <T> The type of value cached
+ */
+public interface StateCacheTier<T> {
+  /**
+   * @param key The state key
+   * @return The cached value, or null if the key isn't cached
+   */
+  T get(List<Object> key);
+
+  /**
+   * @param key The state key
+   * @param value The value to cache
+   */
+  void put(List<Object> key, T value);
+
+  /**
+   * @param key The state key to remove
+   */
+  void remove(List<Object> key);
+
+  /**
+   * Release the memory held by the tier. It is empty afterwards, and ignores further puts
+   */
+  void close();
+}
@@ -0,0 +1,41 @@
+package backtype.storm.contrib.hbase.trident;
+
+import java.io.Serializable;
+
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+
+/**
+ * How {@link HBaseAggregateState} lays out a state value in the cells of a row
+ * @param <T> The type of value being persisted
+ * @see SerializedStateLayout
+ * @see ColumnarStateLayout
+ */
+public interface StateLayout<T> extends Serializable {
+  /**
+   * Add the cells holding a state value to a {@link Get}
+   * @param get The {@link Get}
+   * @param cf The column family
+   * @param cq The column qualifier of the state value
+   */
+  void addColumns(Get get, byte[] cf, byte[] cq);
+
+  /**
+   * @param result The {@link Result} of a {@link Get} built by
+   *          {@link #addColumns(Get, byte[], byte[])}
+   * @param cf The column family
+   * @param cq The column qualifier of the state value
+   * @return The state value, or null if it isn't stored
+   */
+  T read(Result result, byte[] cf, byte[] cq);
+
+  /**
+   * Add the cells holding a state value to a {@link Put}
+   * @param put The {@link Put}
+   * @param cf The column family
+   * @param cq The column qualifier of the state value
+   * @param value The state value
+   */
+  void write(Put put, byte[] cf, byte[] cq, T value);
+}
@@ -0,0 +1,53 @@
+package backtype.storm.contrib.hbase.trident;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import backtype.storm.contrib.hbase.utils.HConnectionRegistry;
+import backtype.storm.metric.api.IMetric;
+import backtype.storm.task.IMetricsContext;
+
+/**
+ * Registers the metrics of one HBase state with its task
+ * <p>
+ * Trident can put several states into one bolt, and they all share the task's
+ * {@link IMetricsContext}, where a metric name can only be registered once. The worker-wide table
+ * handles metric is registered by the first HBase state of each task, and the metrics of each state
+ * are suffixed with its table name and its index among the task's HBase states, e.g.
+ * <tt>hbase-state-cache-shorturl-0</tt>
+ */
+class StateMetrics {
+  private static final Map<IMetricsContext, Integer> STATES =
+      new WeakHashMap<IMetricsContext, Integer>();
+
+  private final IMetricsContext context;
+  private final String suffix;
+
+  /**
+   * @param context The task's {@link IMetricsContext}
+   * @param tableName The table of the state
+   */
+  StateMetrics(final IMetricsContext context, final String tableName) {
+    int index;
+    synchronized (STATES) {
+      Integer states = STATES.get(context);
+      index = states == null ? 0 : states;
+      STATES.put(context, index + 1);
+    }
+
+    this.context = context;
+    this.suffix = String.format("-%s-%d", tableName, index);
+    if (index == 0) {
+      context.registerMetric(HConnectionRegistry.HANDLES_METRIC_NAME,
+        HConnectionRegistry.handlesInUseMetric(), HConnectionRegistry.METRICS_BUCKET_SECS);
+    }
+  }
+
+  /**
+   * @param name The metric name, suffixed to make it unique within the task
+   * @param metric The {@link IMetric}
+   */
+  void register(final String name, final IMetric metric) {
+    context.registerMetric(name + suffix, metric, HConnectionRegistry.METRICS_BUCKET_SECS);
+  }
+}
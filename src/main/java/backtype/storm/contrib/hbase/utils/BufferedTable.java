@@ -0,0 +1,39 @@
+package backtype.storm.contrib.hbase.utils;
+
+import java.io.IOException;
+
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.HTableInterface;
+
+/**
+ * The client-side write buffer operations of {@link HTable} which aren't part of
+ * {@link HTableInterface}. Implemented by tables from a {@link TableFactory} that buffer writes
+ */
+public interface BufferedTable {
+  /**
+   * @param autoFlush False to buffer puts until the buffer is full or flushed
+   * @param clearBufferOnFail True to drop the buffered puts if a flush fails
+   */
+  void setAutoFlush(boolean autoFlush, boolean clearBufferOnFail);
+
+  /**
+   * @return The size of the write buffer in bytes
+   */
+  long getWriteBufferSize();
+
+  /**
+   * @param writeBufferSize The size of the write buffer in bytes
+   * @throws IOException if flushing the buffer fails
+   */
+  void setWriteBufferSize(long writeBufferSize) throws IOException;
+
+  /**
+   * Drop the buffered puts without sending them
+   */
+  void clearWriteBuffer();
+
+  /**
+   * @return True if no puts are buffered
+   */
+  boolean isWriteBufferEmpty();
+}
@@ -0,0 +1,120 @@
+package backtype.storm.contrib.hbase.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link RowKeyBuilder} that concatenates one or more encoded tuple fields, optionally with a
+ * separator between them, and optionally salts the result.
+ * <p>
+ * Each field is encoded with a {@link ValueCodec}. Fixed-width codecs, such as
+ * {@link ValueCodecs#fixedWidth(int)}, {@link ValueCodecs#fixedWidthString(int)} and
+ * {@link ValueCodecs#REVERSED_TIMESTAMP}, keep the key components aligned so that rows sort by each
+ * component in turn.
+ * <p>
+ * Salting prefixes the key with a single byte derived from a hash of the rest of the key, which
+ * spreads monotonically increasing keys over <tt>buckets</tt> key ranges, and so over more region
+ * servers. A salted table should be pre-split on the bucket prefixes. E.g:
+ * 
+ * <pre>
+ * new CompositeRowKeyBuilder().add(&quot;shortid&quot;)
+ *     .add(&quot;timestamp&quot;, ValueCodecs.REVERSED_TIMESTAMP).setSaltBuckets(16);
+ * </pre>
+ */
+@SuppressWarnings("serial")
+public class CompositeRowKeyBuilder implements RowKeyBuilder {
+  private final List<String> fields = new ArrayList<String>();
+  private final List<ValueCodec> codecs = new ArrayList<ValueCodec>();
+  private byte[] separator = new byte[0];
+  private int saltBuckets = 0;
+
+  /**
+   * Add a string field to the key
+   * @param field The tuple field name
+   * @return This builder
+   */
+  public CompositeRowKeyBuilder add(final String field) {
+    return add(field, ValueCodecs.STRING);
+  }
+
+  /**
+   * Add a field to the key
+   * @param field The tuple field name
+   * @param codec The {@link ValueCodec} used to encode the field
+   * @return This builder
+   */
+  public CompositeRowKeyBuilder add(final String field, final ValueCodec codec) {
+    fields.add(field);
+    codecs.add(codec);
+    return this;
+  }
+
+  /**
+   * @param separator Sets the bytes written between the key components. <b>Default is none
+   * @return This builder
+   */
+  public CompositeRowKeyBuilder setSeparator(final byte[] separator) {
+    this.separator = separator;
+    return this;
+  }
+
+  /**
+   * @param saltBuckets Sets the number of salt buckets, from 1 to 256. Zero disables salting.
+   *          <b>Default is zero
+   * @return This builder
+   */
+  public CompositeRowKeyBuilder setSaltBuckets(final int saltBuckets) {
+    if (saltBuckets < 0 || saltBuckets > 256) {
+      throw new IllegalArgumentException("Salt buckets must be between 0 and 256: " + saltBuckets);
+    }
+    this.saltBuckets = saltBuckets;
+    return this;
+  }
+
+  /**
+   * @return The number of salt buckets
+   */
+  public int getSaltBuckets() {
+    return saltBuckets;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public List<String> getFields() {
+    return fields;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public byte[] build(List<Object> values) {
+    byte[][] parts = new byte[codecs.size()][];
+    int length = saltBuckets > 0 ? 1 : 0;
+    for (int i = 0; i < parts.length; i++) {
+      parts[i] = codecs.get(i).encode(values.get(i));
+      length += parts[i].length;
+      if (i > 0) {
+        length += separator.length;
+      }
+    }
+
+    byte[] key = new byte[length];
+    int offset = saltBuckets > 0 ? 1 : 0;
+    for (int i = 0; i < parts.length; i++) {
+      if (i > 0) {
+        System.arraycopy(separator, 0, key, offset, separator.length);
+        offset += separator.length;
+      }
+      System.arraycopy(parts[i], 0, key, offset, parts[i].length);
+      offset += parts[i].length;
+    }
+
+    if (saltBuckets > 0) {
+      int hash = 1;
+      for (int i = 1; i < key.length; i++) {
+        hash = 31 * hash + key[i];
+      }
+      key[0] = (byte) ((hash & Integer.MAX_VALUE) % saltBuckets);
+    }
+    return key;
+  }
+}
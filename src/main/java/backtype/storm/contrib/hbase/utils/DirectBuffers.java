@@ -0,0 +1,37 @@
+package backtype.storm.contrib.hbase.utils;
+
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+/**
+ * Releases direct and memory-mapped {@link ByteBuffer}s without waiting for the garbage collector,
+ * which may not get round to them before the JVM runs out of direct memory or address space
+ */
+public class DirectBuffers {
+  private DirectBuffers() {
+  }
+
+  /**
+   * Free a direct buffer's memory, or unmap a mapped buffer, now, through its cleaner if the JVM
+   * exposes one. Otherwise it is released when the buffer is garbage collected. The buffer must not
+   * be used afterwards
+   * @param buffer The direct {@link ByteBuffer}, may be null
+   */
+  public static void free(final ByteBuffer buffer) {
+    if (buffer == null || !buffer.isDirect()) {
+      return;
+    }
+    try {
+      Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+      cleanerMethod.setAccessible(true);
+      Object cleaner = cleanerMethod.invoke(buffer);
+      if (cleaner != null) {
+        Method clean = cleaner.getClass().getMethod("clean");
+        clean.setAccessible(true);
+        clean.invoke(cleaner);
+      }
+    } catch (Exception e) {
+      // Left to the garbage collector
+    }
+  }
+}
@@ -0,0 +1,192 @@
+package backtype.storm.contrib.hbase.utils;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.client.HConnection;
+import org.apache.hadoop.hbase.client.HConnectionManager;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Threads;
+import org.apache.log4j.Logger;
+
+import backtype.storm.metric.api.IMetric;
+
+/**
+ * Worker-scoped registry of HBase connections.
+ * <p>
+ * Every {@link HTableConnector} in the worker shares one {@link HConnection}, and so one ZooKeeper
+ * session and region location cache, per HBase cluster. Tables are lightweight handles on the
+ * shared connection, and all of them run their multi-region batch operations on one shared
+ * executor. Table descriptors are also cached per table, so the column families of a table are
+ * only fetched once per worker.
+ * <p>
+ * The number of table handles in use per table is available as a Storm metric, see
+ * {@link #handlesInUseMetric()}.
+ */
+public class HConnectionRegistry {
+  private static final Logger LOG = Logger.getLogger(HConnectionRegistry.class);
+
+  public static final String HANDLES_METRIC_NAME = "hbase-table-handles";
+  public static final int METRICS_BUCKET_SECS = 60;
+
+  /**
+   * The connection and batch executor for one HBase cluster
+   */
+  private static class ClusterConnection {
+    final Configuration conf;
+    final HConnection connection;
+    final ExecutorService pool;
+
+    ClusterConnection(final Configuration conf) throws IOException {
+      this.conf = conf;
+      this.connection = HConnectionManager.createConnection(conf);
+
+      int maxThreads = conf.getInt("hbase.htable.threads.max", Integer.MAX_VALUE);
+      long keepAliveSecs = conf.getLong("hbase.htable.threads.keepalivetime", 60);
+      ThreadPoolExecutor executor =
+          new ThreadPoolExecutor(1, maxThreads > 0 ? maxThreads : 1, keepAliveSecs,
+              TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+              Threads.newDaemonThreadFactory("storm-hbase-batch"));
+      executor.allowCoreThreadTimeOut(true);
+      this.pool = executor;
+    }
+  }
+
+  private static Configuration defaultConf;
+  private static final Map<String, ClusterConnection> CONNECTIONS =
+      new HashMap<String, ClusterConnection>();
+  private static final Map<String, HTableDescriptor> DESCRIPTORS =
+      new HashMap<String, HTableDescriptor>();
+  private static final Map<String, Integer> HANDLES = new HashMap<String, Integer>();
+
+  private HConnectionRegistry() {
+  }
+
+  /**
+   * @return The HBase configuration picked up from the first <tt>hbase-site.xml</tt> encountered
+   *         in the classpath. Created once per worker
+   */
+  public static synchronized Configuration getDefaultConfiguration() {
+    if (defaultConf == null) {
+      defaultConf = HBaseConfiguration.create();
+    }
+    return defaultConf;
+  }
+
+  /**
+   * Get a table handle on the shared connection to the cluster. The handle must be released with
+   * {@link #release(Configuration, HTableInterface)}
+   * @param conf The HBase configuration of the cluster
+   * @param tableName The table name
+   * @return {@link HTable}
+   * @throws IOException
+   */
+  public static HTable getTable(final Configuration conf, final String tableName)
+      throws IOException {
+    ClusterConnection cluster;
+    synchronized (HConnectionRegistry.class) {
+      String key = clusterKey(conf);
+      cluster = CONNECTIONS.get(key);
+      if (cluster == null) {
+        LOG.info("Creating shared connection to HBase cluster " + key);
+        cluster = new ClusterConnection(conf);
+        CONNECTIONS.put(key, cluster);
+      }
+    }
+
+    HTable table = new HTable(Bytes.toBytes(tableName), cluster.connection, cluster.pool);
+
+    synchronized (HConnectionRegistry.class) {
+      String key = tableKey(conf, tableName);
+      Integer handles = HANDLES.get(key);
+      HANDLES.put(key, handles == null ? 1 : handles + 1);
+    }
+    return table;
+  }
+
+  /**
+   * Close a table handle. The shared connection stays open for the other handles
+   * @param conf The HBase configuration of the cluster
+   * @param table The {@link HTable}
+   * @throws IOException
+   */
+  public static void release(final Configuration conf, final HTableInterface table)
+      throws IOException {
+    synchronized (HConnectionRegistry.class) {
+      String key = tableKey(conf, Bytes.toString(table.getTableName()));
+      Integer handles = HANDLES.get(key);
+      if (handles != null && handles > 0) {
+        HANDLES.put(key, handles - 1);
+      }
+    }
+    table.close();
+  }
+
+  /**
+   * Get the table's descriptor, fetching it from HBase the first time the table is used
+   * @param conf The HBase configuration of the cluster
+   * @param table The table
+   * @return {@link HTableDescriptor}
+   * @throws IOException
+   */
+  public static HTableDescriptor getTableDescriptor(final Configuration conf,
+      final HTableInterface table) throws IOException {
+    String key = tableKey(conf, Bytes.toString(table.getTableName()));
+    synchronized (HConnectionRegistry.class) {
+      HTableDescriptor desc = DESCRIPTORS.get(key);
+      if (desc != null) {
+        return desc;
+      }
+    }
+
+    HTableDescriptor desc = table.getTableDescriptor();
+    synchronized (HConnectionRegistry.class) {
+      DESCRIPTORS.put(key, desc);
+    }
+    return desc;
+  }
+
+  /**
+   * @return A copy of the number of table handles in use, keyed by cluster and table name
+   */
+  public static synchronized Map<String, Integer> getHandlesInUse() {
+    return new HashMap<String, Integer>(HANDLES);
+  }
+
+  /**
+   * @return An {@link IMetric} reporting the number of table handles in use in the worker, keyed by
+   *         cluster and table name
+   */
+  public static IMetric handlesInUseMetric() {
+    return new IMetric() {
+      @Override
+      public Object getValueAndReset() {
+        return getHandlesInUse();
+      }
+    };
+  }
+
+  /**
+   * @param conf The HBase configuration
+   * @return The ZooKeeper ensemble identifying the cluster
+   */
+  private static String clusterKey(final Configuration conf) {
+    return String.format("%s:%s%s", conf.get(HConstants.ZOOKEEPER_QUORUM),
+      conf.get(HConstants.ZOOKEEPER_CLIENT_PORT), conf.get(HConstants.ZOOKEEPER_ZNODE_PARENT));
+  }
+
+  private static String tableKey(final Configuration conf, final String tableName) {
+    return clusterKey(conf) + "/" + tableName;
+  }
+}
@@ -4,8 +4,8 @@ import java.io.IOException;
 import java.io.Serializable;
 
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.log4j.Logger;
 
@@ -15,15 +15,22 @@ import backtype.storm.generated.Bolt;
  * HTable connector for Storm {@link Bolt}
  * <p>
  * The HBase configuration is picked up from the first <tt>hbase-site.xml</tt> encountered in the
- * classpath
+ * classpath. The table is created by the config's {@link TableFactory}, by default a lightweight
+ * handle on the worker's shared connection to the cluster
+ * @see HConnectionRegistry
  */
 @SuppressWarnings("serial")
 public class HTableConnector implements Serializable {
   private static final Logger LOG = Logger.getLogger(HTableConnector.class);
 
+  // The HBase client's default write buffer size
+  private static final long DEFAULT_WRITE_BUFFER_SIZE = 2097152L;
+
   private Configuration conf;
-  protected HTable table;
+  private TableFactory factory;
+  protected HTableInterface table;
   private String tableName;
+  private long writeBufferSize;
 
   /**
    * Initialize HTable connection
@@ -32,27 +39,39 @@ public class HTableConnector implements Serializable {
    */
   public HTableConnector(final TupleTableConfig conf) throws IOException {
     this.tableName = conf.getTableName();
-    this.conf = HBaseConfiguration.create();
+    this.conf = HConnectionRegistry.getDefaultConfiguration();
+    this.factory = conf.getTableFactory();
 
     LOG.info(String.format("Initializing connection to HBase table %s at %s", tableName,
       this.conf.get("hbase.rootdir")));
 
     try {
-      this.table = new HTable(this.conf, this.tableName);
+      this.table = factory.getTable(this.conf, this.tableName);
     } catch (IOException ex) {
       throw new IOException("Unable to establish connection to HBase table " + this.tableName, ex);
     }
 
     if (conf.isBatch()) {
       // Enable client-side write buffer
-      this.table.setAutoFlush(false, true);
+      if (table instanceof HTable) {
+        ((HTable) table).setAutoFlush(false, true);
+      } else if (table instanceof BufferedTable) {
+        ((BufferedTable) table).setAutoFlush(false, true);
+      }
       LOG.info("Enabled client-side write buffer");
     }
 
     // If set, override write buffer size
+    this.writeBufferSize =
+        this.conf.getLong("hbase.client.write.buffer", DEFAULT_WRITE_BUFFER_SIZE);
     if (conf.getWriteBufferSize() > 0) {
+      this.writeBufferSize = conf.getWriteBufferSize();
       try {
-        this.table.setWriteBufferSize(conf.getWriteBufferSize());
+        if (table instanceof HTable) {
+          ((HTable) table).setWriteBufferSize(conf.getWriteBufferSize());
+        } else if (table instanceof BufferedTable) {
+          ((BufferedTable) table).setWriteBufferSize(conf.getWriteBufferSize());
+        }
 
         LOG.info("Setting client-side write buffer to " + conf.getWriteBufferSize());
       } catch (IOException ex) {
@@ -77,22 +96,65 @@ public class HTableConnector implements Serializable {
    * @throws IOException
    */
   private boolean columnFamilyExists(final String columnFamily) throws IOException {
-    return this.table.getTableDescriptor().hasFamily(Bytes.toBytes(columnFamily));
+    return HConnectionRegistry.getTableDescriptor(this.conf, this.table).hasFamily(
+      Bytes.toBytes(columnFamily));
   }
 
   /**
    * @return the table
    */
-  public HTable getTable() {
+  public HTableInterface getTable() {
     return table;
   }
 
+  /**
+   * @return The size of the table's client-side write buffer in bytes
+   */
+  public long getWriteBufferSize() {
+    if (table instanceof HTable) {
+      return ((HTable) table).getWriteBufferSize();
+    } else if (table instanceof BufferedTable) {
+      return ((BufferedTable) table).getWriteBufferSize();
+    }
+    return writeBufferSize;
+  }
+
+  /**
+   * Drop the puts in the table's client-side write buffer without sending them
+   */
+  public void clearWriteBuffer() {
+    if (table instanceof HTable) {
+      ((HTable) table).getWriteBuffer().clear();
+      try {
+        // Flushing the empty buffer sends nothing, but resets the HTable's count of buffered bytes,
+        // which would otherwise still include the dropped puts and trigger early flushes
+        table.flushCommits();
+      } catch (IOException ex) {
+        LOG.warn("Unable to reset the write buffer of HBase table " + tableName, ex);
+      }
+    } else if (table instanceof BufferedTable) {
+      ((BufferedTable) table).clearWriteBuffer();
+    }
+  }
+
+  /**
+   * @return True if there are no puts in the table's client-side write buffer
+   */
+  public boolean isWriteBufferEmpty() {
+    if (table instanceof HTable) {
+      return ((HTable) table).getWriteBuffer().isEmpty();
+    } else if (table instanceof BufferedTable) {
+      return ((BufferedTable) table).isWriteBufferEmpty();
+    }
+    return true;
+  }
+
   /**
    * Close the table
    */
   public void close() {
     try {
-      this.table.close();
+      factory.releaseTable(this.conf, this.table);
     } catch (IOException ex) {
       LOG.error("Unable to close connection to HBase table " + tableName, ex);
     }
@@ -0,0 +1,199 @@
+package backtype.storm.contrib.hbase.utils;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Per-worker pool of {@link HTableConnector}s, for components that need a table for a short time on
+ * every batch, such as transactional bolts and Trident states.
+ * <p>
+ * Connectors are borrowed with {@link #borrow(TupleTableConfig)} and must be handed back with
+ * {@link #release(HTableConnector)}. A connector is only ever leased to one borrower at a time, as
+ * HTable is not thread-safe, and is reused by later borrowers of the same table configuration. This
+ * avoids creating a new configuration, opening the table and checking its column families on every
+ * batch.
+ * <p>
+ * The pool keeps a reference count of the connectors leased for each table configuration. When the
+ * last lease of a configuration is released, only the returned connector is kept for the next
+ * borrower and any other idle connectors are closed. Configurations that haven't been borrowed for
+ * {@link #IDLE_TIMEOUT_MS} have their last connector closed too, on the next release. The remaining
+ * idle connectors are closed by {@link #closeIdle()}, which is called when the worker shuts down.
+ */
+public class HTableConnectorPool {
+  private static final Logger LOG = Logger.getLogger(HTableConnectorPool.class);
+
+  public static final long IDLE_TIMEOUT_MS = 5 * 60 * 1000L;
+
+  /**
+   * The connectors for one table configuration
+   */
+  private static class Pool {
+    final LinkedList<HTableConnector> idle = new LinkedList<HTableConnector>();
+    int leased = 0;
+    long lastReleased = System.currentTimeMillis();
+  }
+
+  private static final Map<String, Pool> POOLS = new HashMap<String, Pool>();
+  private static final Map<HTableConnector, String> LEASES =
+      new IdentityHashMap<HTableConnector, String>();
+  private static boolean shutdownHookAdded = false;
+
+  private HTableConnectorPool() {
+  }
+
+  /**
+   * Borrow a connector for the given table configuration, creating one if none are idle
+   * @param conf The {@link TupleTableConfig}
+   * @return {@link HTableConnector}
+   * @throws IOException
+   */
+  public static HTableConnector borrow(final TupleTableConfig conf) throws IOException {
+    String key = poolKey(conf);
+    HTableConnector connector = null;
+
+    synchronized (HTableConnectorPool.class) {
+      Pool pool = POOLS.get(key);
+      if (pool == null) {
+        pool = new Pool();
+        POOLS.put(key, pool);
+      }
+      if (!shutdownHookAdded) {
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+          @Override
+          public void run() {
+            closeIdle();
+          }
+        });
+        shutdownHookAdded = true;
+      }
+      connector = pool.idle.poll();
+      pool.leased++;
+    }
+
+    if (connector == null) {
+      try {
+        connector = new HTableConnector(conf);
+      } catch (IOException ex) {
+        synchronized (HTableConnectorPool.class) {
+          POOLS.get(key).leased--;
+        }
+        throw ex;
+      } catch (RuntimeException ex) {
+        synchronized (HTableConnectorPool.class) {
+          POOLS.get(key).leased--;
+        }
+        throw ex;
+      }
+    }
+
+    synchronized (HTableConnectorPool.class) {
+      LEASES.put(connector, key);
+    }
+    return connector;
+  }
+
+  /**
+   * Hand a borrowed connector back to the pool. A connector with unflushed puts in its write buffer
+   * is closed rather than reused, so that they can't be sent on behalf of the next borrower
+   * @param connector The {@link HTableConnector}
+   */
+  public static void release(final HTableConnector connector) {
+    boolean reuse = connector.isWriteBufferEmpty();
+    boolean pooled = false;
+    LinkedList<HTableConnector> close = new LinkedList<HTableConnector>();
+    long now = System.currentTimeMillis();
+
+    synchronized (HTableConnectorPool.class) {
+      String key = LEASES.remove(connector);
+      if (key != null) {
+        Pool pool = POOLS.get(key);
+        pool.leased--;
+        pool.lastReleased = now;
+        if (pool.leased == 0) {
+          // Only one connector is needed until the table is borrowed concurrently again
+          close.addAll(pool.idle);
+          pool.idle.clear();
+        }
+        if (reuse) {
+          pool.idle.add(connector);
+          pooled = true;
+        }
+      }
+
+      Iterator<Map.Entry<String, Pool>> it = POOLS.entrySet().iterator();
+      while (it.hasNext()) {
+        Pool pool = it.next().getValue();
+        if (pool.leased == 0 && now - pool.lastReleased > IDLE_TIMEOUT_MS) {
+          close.addAll(pool.idle);
+          it.remove();
+        }
+      }
+    }
+
+    if (!pooled) {
+      LOG.warn("Closing HBase table connector instead of returning it to the pool");
+      close.add(connector);
+    }
+    for (HTableConnector c : close) {
+      c.close();
+    }
+  }
+
+  /**
+   * @param conf The {@link TupleTableConfig}
+   * @return The number of idle connectors kept for the given table configuration
+   */
+  public static synchronized int getIdle(final TupleTableConfig conf) {
+    Pool pool = POOLS.get(poolKey(conf));
+    return pool == null ? 0 : pool.idle.size();
+  }
+
+  /**
+   * @param conf The {@link TupleTableConfig}
+   * @return The number of connectors currently leased for the given table configuration
+   */
+  public static synchronized int getLeased(final TupleTableConfig conf) {
+    Pool pool = POOLS.get(poolKey(conf));
+    return pool == null ? 0 : pool.leased;
+  }
+
+  /**
+   * Close all idle connectors. Leased connectors are closed when they are released
+   */
+  public static void closeIdle() {
+    LinkedList<HTableConnector> idle = new LinkedList<HTableConnector>();
+    synchronized (HTableConnectorPool.class) {
+      for (Map.Entry<String, Pool> e : POOLS.entrySet()) {
+        idle.addAll(e.getValue().idle);
+        e.getValue().idle.clear();
+        if (e.getValue().leased > 0) {
+          LOG.warn(String.format("%d connectors still leased for %s", e.getValue().leased,
+            e.getKey()));
+        }
+      }
+    }
+
+    for (HTableConnector connector : idle) {
+      connector.close();
+    }
+  }
+
+  /**
+   * Connectors can only be shared between configurations that open the table the same way and
+   * check the same column families
+   * @param conf The {@link TupleTableConfig}
+   * @return The pool key
+   */
+  private static String poolKey(final TupleTableConfig conf) {
+    return String.format("%s/%b/%d/%s/%s", conf.getTableName(), conf.isBatch(),
+      conf.getWriteBufferSize(), new TreeSet<String>(conf.getColumnFamilies()), conf
+          .getTableFactory().getClass().getName());
+  }
+}
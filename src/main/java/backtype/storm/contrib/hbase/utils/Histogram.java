@@ -0,0 +1,141 @@
+package backtype.storm.contrib.hbase.utils;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import backtype.storm.metric.api.IMetric;
+
+/**
+ * A thread-safe histogram of non-negative values, such as latencies in microseconds, with
+ * log-linear buckets accurate to about 1.5%, so high percentiles can be read without keeping every
+ * sample
+ * <p>
+ * As a metric it reports the <tt>count</tt>, <tt>mean</tt>, <tt>p50</tt>, <tt>p99</tt>,
+ * <tt>p999</tt> and <tt>max</tt> of the values recorded since the last report, divided by the
+ * histogram's scale, e.g. 1000 to report microseconds as milliseconds
+ */
+public class Histogram implements IMetric {
+  // Values below LINEAR have their own bucket, above they share SUB_BUCKETS buckets per power of 2
+  private static final int SUB_BITS = 6;
+  private static final int SUB_BUCKETS = 1 << SUB_BITS;
+  private static final int LINEAR = SUB_BUCKETS * 2;
+
+  private final double scale;
+  private final long[] counts = new long[LINEAR + (63 - SUB_BITS - 1) * SUB_BUCKETS];
+  private long total = 0;
+  private long sum = 0;
+  private long max = 0;
+
+  public Histogram() {
+    this(1.0);
+  }
+
+  /**
+   * @param scale The divisor of the values reported as a metric
+   */
+  public Histogram(final double scale) {
+    this.scale = scale;
+  }
+
+  /**
+   * @param value The value
+   */
+  public void record(final long value) {
+    record(value, 1);
+  }
+
+  /**
+   * @param value The value
+   * @param count The number of samples with the value
+   */
+  public synchronized void record(final long value, final long count) {
+    long v = Math.max(0, value);
+    counts[index(v)] += count;
+    total += count;
+    sum += v * count;
+    max = Math.max(max, v);
+  }
+
+  /**
+   * @return The number of samples
+   */
+  public synchronized long getCount() {
+    return total;
+  }
+
+  /**
+   * @return The mean of the samples, or zero if there are none
+   */
+  public synchronized double getMean() {
+    return total == 0 ? 0.0 : (double) sum / total;
+  }
+
+  /**
+   * @return The highest sample, or zero if there are none
+   */
+  public synchronized long getMax() {
+    return max;
+  }
+
+  /**
+   * @param percentile The percentile, e.g. 99.9
+   * @return The value below which the percentile of samples fall, or zero if there are none
+   */
+  public synchronized long getPercentile(final double percentile) {
+    if (total == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(total * percentile / 100.0);
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= Math.max(1, rank)) {
+        return Math.min(upperBound(i), max);
+      }
+    }
+    return max;
+  }
+
+  /**
+   * Drop all the samples
+   */
+  public synchronized void reset() {
+    Arrays.fill(counts, 0);
+    total = 0;
+    sum = 0;
+    max = 0;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public synchronized Object getValueAndReset() {
+    Map<String, Object> value = new HashMap<String, Object>();
+    value.put("count", total);
+    value.put("mean", getMean() / scale);
+    value.put("p50", getPercentile(50) / scale);
+    value.put("p99", getPercentile(99) / scale);
+    value.put("p999", getPercentile(99.9) / scale);
+    value.put("max", max / scale);
+    reset();
+    return value;
+  }
+
+  private static int index(final long v) {
+    if (v < LINEAR) {
+      return (int) v;
+    }
+    int exp = 63 - Long.numberOfLeadingZeros(v);
+    int top = (int) (v >>> (exp - SUB_BITS));
+    return LINEAR + (exp - SUB_BITS - 1) * SUB_BUCKETS + (top - SUB_BUCKETS);
+  }
+
+  private static long upperBound(final int index) {
+    if (index < LINEAR) {
+      return index;
+    }
+    int exp = (index - LINEAR) / SUB_BUCKETS + SUB_BITS + 1;
+    long top = (index - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+    return ((top + 1) << (exp - SUB_BITS)) - 1;
+  }
+}
@@ -0,0 +1,128 @@
+package backtype.storm.contrib.hbase.utils;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+import org.apache.hadoop.hbase.DoNotRetryIOException;
+import org.apache.hadoop.hbase.TableNotFoundException;
+import org.apache.hadoop.hbase.client.RetriesExhaustedWithDetailsException;
+import org.apache.log4j.Logger;
+
+import backtype.storm.topology.FailedException;
+
+/**
+ * Bounded retry with jittered exponential backoff for HBase operations.
+ * <p>
+ * Errors are classified as either fatal or retriable:
+ * <ul>
+ * <li>Fatal errors, such as a missing table or column family, can't be fixed by trying again. They
+ * are rethrown as a {@link RuntimeException}</li>
+ * <li>Any other {@link IOException}, such as a region moving or a region server being busy, is
+ * retried after a backoff. If the operation still fails once all attempts are used up a
+ * {@link FailedException} is thrown, so that Storm fails and replays the batch</li>
+ * </ul>
+ */
+@SuppressWarnings("serial")
+public class RetryPolicy implements Serializable {
+  private static final Logger LOG = Logger.getLogger(RetryPolicy.class);
+
+  private int maxAttempts = 3;
+  private long baseBackoffMillis = 100L;
+  private long maxBackoffMillis = 5000L;
+  private transient Random random;
+
+  public RetryPolicy() {
+  }
+
+  /**
+   * @param maxAttempts The maximum number of attempts, including the first
+   * @param baseBackoffMillis The backoff after the first failed attempt, doubled after each attempt
+   * @param maxBackoffMillis The maximum backoff
+   */
+  public RetryPolicy(final int maxAttempts, final long baseBackoffMillis,
+      final long maxBackoffMillis) {
+    this.maxAttempts = maxAttempts;
+    this.baseBackoffMillis = baseBackoffMillis;
+    this.maxBackoffMillis = maxBackoffMillis;
+  }
+
+  /**
+   * Run an operation, retrying it on retriable errors
+   * @param op The operation
+   * @param description A description of the operation, for logging
+   * @return The result of the operation
+   * @throws FailedException if the operation still fails after the last attempt
+   */
+  public <V> V call(final Callable<V> op, final String description) {
+    for (int attempt = 1;; attempt++) {
+      try {
+        return op.call();
+      } catch (IOException ex) {
+        if (isFatal(ex)) {
+          throw new RuntimeException("Unable to " + description, ex);
+        }
+        if (attempt >= maxAttempts) {
+          throw new FailedException(String.format("Unable to %s after %d attempts", description,
+            attempt), ex);
+        }
+
+        long backoff = backoffMillis(attempt);
+        LOG.warn(String.format("Unable to %s (attempt %d of %d), retrying in %d ms", description,
+          attempt, maxAttempts, backoff), ex);
+        try {
+          Thread.sleep(backoff);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new FailedException("Interrupted while retrying to " + description, e);
+        }
+      } catch (RuntimeException ex) {
+        throw ex;
+      } catch (Exception ex) {
+        throw new RuntimeException("Unable to " + description, ex);
+      }
+    }
+  }
+
+  /**
+   * @param ex The error
+   * @return True if retrying the operation can't succeed
+   */
+  public boolean isFatal(final IOException ex) {
+    if (ex instanceof DoNotRetryIOException || ex instanceof TableNotFoundException) {
+      return true;
+    }
+    if (ex instanceof RetriesExhaustedWithDetailsException) {
+      RetriesExhaustedWithDetailsException details = (RetriesExhaustedWithDetailsException) ex;
+      for (int i = 0; i < details.getNumExceptions(); i++) {
+        if (details.getCause(i) instanceof DoNotRetryIOException) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param attempt The number of the failed attempt, starting from 1
+   * @return A random backoff of between a half and all of the exponential backoff for the attempt
+   */
+  public long backoffMillis(final int attempt) {
+    if (random == null) {
+      random = new Random();
+    }
+    long backoff = baseBackoffMillis << Math.min(attempt - 1, 30);
+    if (backoff <= 0 || backoff > maxBackoffMillis) {
+      backoff = maxBackoffMillis;
+    }
+    return backoff / 2 + (long) (random.nextDouble() * (backoff / 2));
+  }
+
+  /**
+   * @return The maximum number of attempts. <b>Default is 3
+   */
+  public int getMaxAttempts() {
+    return maxAttempts;
+  }
+}
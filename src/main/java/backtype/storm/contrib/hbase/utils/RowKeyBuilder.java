@@ -0,0 +1,24 @@
+package backtype.storm.contrib.hbase.utils;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Builds HBase row keys from tuple values.
+ * <p>
+ * The same builder is used for writes and reads, so a key written by a bolt or Trident state can be
+ * read back through a Trident Get or {@link backtype.storm.contrib.hbase.trident.HBaseAggregateState}
+ * @see CompositeRowKeyBuilder
+ */
+public interface RowKeyBuilder extends Serializable {
+  /**
+   * @return The names of the tuple fields the row key is built from, in order
+   */
+  List<String> getFields();
+
+  /**
+   * @param values The values of the fields returned by {@link #getFields()}, in the same order
+   * @return The row key
+   */
+  byte[] build(List<Object> values);
+}
@@ -0,0 +1,28 @@
+package backtype.storm.contrib.hbase.utils;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.HTableInterface;
+
+/**
+ * The default {@link TableFactory}: {@link HTable} handles on the worker's shared connection to the
+ * cluster
+ * @see HConnectionRegistry
+ */
+@SuppressWarnings("serial")
+public class SharedConnectionTableFactory implements TableFactory {
+
+  /** {@inheritDoc} */
+  @Override
+  public HTableInterface getTable(Configuration conf, String tableName) throws IOException {
+    return HConnectionRegistry.getTable(conf, tableName);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void releaseTable(Configuration conf, HTableInterface table) throws IOException {
+    HConnectionRegistry.release(conf, table);
+  }
+}
@@ -0,0 +1,33 @@
+package backtype.storm.contrib.hbase.utils;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.HTableInterface;
+
+/**
+ * Creates the tables behind {@link HTableConnector}s, so the HBase client can be replaced, e.g. by
+ * an in-memory table for tests and benchmarks. Set with
+ * {@link TupleTableConfig#setTableFactory(TableFactory)}
+ * <p>
+ * Tables that buffer writes client-side should also implement {@link BufferedTable}.
+ * @see SharedConnectionTableFactory
+ */
+public interface TableFactory extends Serializable {
+  /**
+   * @param conf The HBase configuration
+   * @param tableName The table name
+   * @return A table, used by one thread at a time
+   * @throws IOException
+   */
+  HTableInterface getTable(Configuration conf, String tableName) throws IOException;
+
+  /**
+   * Close a table returned by {@link #getTable(Configuration, String)}
+   * @param conf The HBase configuration
+   * @param table The table
+   * @throws IOException
+   */
+  void releaseTable(Configuration conf, HTableInterface table) throws IOException;
+}
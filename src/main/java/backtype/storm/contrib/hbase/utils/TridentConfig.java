@@ -1,11 +1,17 @@
 package backtype.storm.contrib.hbase.utils;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.ColumnRangeFilter;
 import org.apache.hadoop.hbase.util.Bytes;
 
 import storm.trident.state.JSONNonTransactionalSerializer;
@@ -14,6 +20,13 @@ import storm.trident.state.JSONTransactionalSerializer;
 import storm.trident.state.Serializer;
 import storm.trident.state.StateType;
 import storm.trident.tuple.TridentTuple;
+import backtype.storm.contrib.hbase.trident.BinaryOpaqueSerializer;
+import backtype.storm.contrib.hbase.trident.BinaryTransactionalSerializer;
+import backtype.storm.contrib.hbase.trident.ColumnarStateLayout;
+import backtype.storm.contrib.hbase.trident.HBaseScanQuery;
+import backtype.storm.contrib.hbase.trident.HBaseValueState;
+import backtype.storm.contrib.hbase.trident.LookupCache;
+import backtype.storm.contrib.hbase.trident.ParallelMultiGet;
 
 import com.esotericsoftware.minlog.Log;
 
@@ -34,6 +47,19 @@ public class TridentConfig<T> extends TupleTableConfig {
       };
 
   private int stateCacheSize = 1000;
+  private long offHeapCacheSize = 0L;
+  private boolean columnarState = false;
+  private RetryPolicy retryPolicy = new RetryPolicy();
+  private int parallelGetThreads = 0;
+  private int parallelGetBatchSize = 1000;
+  private int lookupCacheSize = 0;
+  private long lookupCacheTtlMillis = 60000L;
+  private String scanStartField;
+  private String scanStopField;
+  private String scanMinColumnField;
+  private String scanMaxColumnField;
+  private int scanCaching = 100;
+  private int scanBatch = 0;
   private Serializer<T> stateSerializer;
 
   public TridentConfig(String table, String rowKeyField) {
@@ -50,7 +76,7 @@ public class TridentConfig<T> extends TupleTableConfig {
    * @return {@link Put}
    */
   public Put getPutFromTridentTuple(final TridentTuple tuple) {
-    byte[] rowKey = Bytes.toBytes(tuple.getStringByField(tupleRowKeyField));
+    byte[] rowKey = getRowKeyFromTridentTuple(tuple);
 
     long ts = 0;
     if (!tupleTimestampField.equals("")) {
@@ -60,19 +86,14 @@ public class TridentConfig<T> extends TupleTableConfig {
     Put p = new Put(rowKey);
     p.setWriteToWAL(writeToWAL);
 
-    if (columnFamilies.size() > 0) {
-      for (String cf : columnFamilies.keySet()) {
-        byte[] cfBytes = Bytes.toBytes(cf);
-        for (String cq : columnFamilies.get(cf)) {
-          byte[] cqBytes = Bytes.toBytes(cq);
-          byte[] val = Bytes.toBytes(tuple.getStringByField(cq));
-
-          if (ts > 0) {
-            p.add(cfBytes, cqBytes, ts, val);
-          } else {
-            p.add(cfBytes, cqBytes, val);
-          }
-        }
+    MappingPlan plan = getPlan(null);
+    for (int i = 0; i < plan.families.length; i++) {
+      byte[] val = plan.codecs[i].encode(tuple.getValueByField(plan.qualifierNames[i]));
+
+      if (ts > 0) {
+        p.add(plan.families[i], plan.qualifiers[i], ts, val);
+      } else {
+        p.add(plan.families[i], plan.qualifiers[i], val);
       }
     }
 
@@ -85,7 +106,7 @@ public class TridentConfig<T> extends TupleTableConfig {
    * @return {@link Get}
    */
   public Get getGetFromTridentTuple(final TridentTuple tuple) {
-    byte[] rowKey = Bytes.toBytes(tuple.getStringByField(tupleRowKeyField));
+    byte[] rowKey = getRowKeyFromTridentTuple(tuple);
 
     long ts = 0;
     if (!tupleTimestampField.equals("")) {
@@ -94,21 +115,18 @@ public class TridentConfig<T> extends TupleTableConfig {
 
     Get g = new Get(rowKey);
 
-    if (columnFamilies.size() > 0) {
-      for (String cf : columnFamilies.keySet()) {
-        byte[] cfBytes = Bytes.toBytes(cf);
-        for (String cq : columnFamilies.get(cf)) {
-          byte[] cqBytes = Bytes.toBytes(cq);
-          g.addColumn(cfBytes, cqBytes);
-          try {
-            g.setMaxVersions(1);
-          } catch (IOException e) {
-            Log.error("Invalid number of versions", e);
-          }
-          if (ts > 0) {
-            g.setTimeStamp(ts);
-          }
-        }
+    MappingPlan plan = getPlan(null);
+    for (int i = 0; i < plan.families.length; i++) {
+      g.addColumn(plan.families[i], plan.qualifiers[i]);
+    }
+    if (plan.families.length > 0) {
+      try {
+        g.setMaxVersions(1);
+      } catch (IOException e) {
+        Log.error("Invalid number of versions", e);
+      }
+      if (ts > 0) {
+        g.setTimeStamp(ts);
       }
     }
 
@@ -116,19 +134,320 @@ public class TridentConfig<T> extends TupleTableConfig {
   }
 
   /**
-   * @return The size of the least-recently-used (LRU) cache. <b>Default is 1000
+   * Creates a bounded HBase {@link Scan} from a Storm {@link TridentTuple}
+   * <p>
+   * The scan covers the rows starting with the tuple's row key. The range can be narrowed with
+   * start and stop suffixes taken from the tuple, see {@link #setScanRowRange(String, String)}, and
+   * the columns of each row with a column range, see {@link #setScanColumnRange(String, String)}.
+   * Without a column range the scan returns the configured columns, with one it returns the
+   * columns of the configured column families within the range
+   * @param tuple The {@link TridentTuple}
+   * @return {@link Scan}
+   */
+  public Scan getScanFromTridentTuple(final TridentTuple tuple) {
+    byte[] prefix = getRowKeyFromTridentTuple(tuple);
+
+    byte[] start = prefix;
+    if (scanStartField != null) {
+      start = Bytes.add(prefix, Bytes.toBytes(tuple.getStringByField(scanStartField)));
+    }
+    byte[] stop;
+    if (scanStopField != null) {
+      stop = Bytes.add(prefix, Bytes.toBytes(tuple.getStringByField(scanStopField)));
+    } else {
+      stop = nextPrefix(prefix);
+    }
+
+    Scan s = new Scan(start, stop);
+    s.setCaching(scanCaching);
+    if (scanBatch > 0) {
+      s.setBatch(scanBatch);
+    }
+    s.setCacheBlocks(false);
+
+    if (scanMinColumnField != null || scanMaxColumnField != null) {
+      for (String cf : getColumnFamilies()) {
+        s.addFamily(Bytes.toBytes(cf));
+      }
+      byte[] min =
+          scanMinColumnField == null ? null : Bytes.toBytes(tuple
+              .getStringByField(scanMinColumnField));
+      byte[] max =
+          scanMaxColumnField == null ? null : Bytes.toBytes(tuple
+              .getStringByField(scanMaxColumnField));
+      s.setFilter(new ColumnRangeFilter(min, true, max, false));
+    } else {
+      MappingPlan plan = getPlan(null);
+      for (int i = 0; i < plan.families.length; i++) {
+        s.addColumn(plan.families[i], plan.qualifiers[i]);
+      }
+    }
+
+    if (!tupleTimestampField.equals("")) {
+      s.setTimeStamp(tuple.getLongByField(tupleTimestampField));
+    }
+    return s;
+  }
+
+  /**
+   * @param prefix A row key prefix
+   * @return The first row key after all the row keys starting with the prefix, or an empty array
+   *         for the end of the table
+   */
+  private static byte[] nextPrefix(final byte[] prefix) {
+    for (int i = prefix.length - 1; i >= 0; i--) {
+      if (prefix[i] != (byte) 0xFF) {
+        byte[] next = Arrays.copyOf(prefix, i + 1);
+        next[i]++;
+        return next;
+      }
+    }
+    return new byte[0];
+  }
+
+  /**
+   * Decodes the configured columns of a HBase {@link Result} with their {@link ValueCodec}s
+   * @param result The {@link Result} of a {@link Get} built by
+   *          {@link #getGetFromTridentTuple(TridentTuple)}
+   * @return The column values, in the order the columns were added, grouped by column family. A
+   *         value is null if the cell doesn't exist
+   */
+  public List<Object> getValuesFromResult(final Result result) {
+    MappingPlan plan = getPlan(null);
+    List<Object> values = new ArrayList<Object>(plan.families.length);
+    for (int i = 0; i < plan.families.length; i++) {
+      byte[] val = result.getValue(plan.families[i], plan.qualifiers[i]);
+      values.add(val == null ? null : plan.codecs[i].decode(val));
+    }
+    return values;
+  }
+
+  /**
+   * @param tuple The {@link TridentTuple}
+   * @return The row key, built by the {@link RowKeyBuilder} if one is set
+   */
+  public byte[] getRowKeyFromTridentTuple(final TridentTuple tuple) {
+    if (rowKeyBuilder == null) {
+      return Bytes.toBytes(tuple.getStringByField(tupleRowKeyField));
+    }
+
+    List<String> fields = rowKeyBuilder.getFields();
+    List<Object> values = new ArrayList<Object>(fields.size());
+    for (String f : fields) {
+      values.add(tuple.getValueByField(f));
+    }
+    return rowKeyBuilder.build(values);
+  }
+
+  /**
+   * Trident state keys are the groupBy fields: the row key fields, followed by the column family and
+   * column qualifier. Without a {@link RowKeyBuilder} the row key is a single string field
+   * @param key The state key
+   * @return The row key
+   */
+  public byte[] getStateRowKey(final List<Object> key) {
+    if (rowKeyBuilder == null) {
+      return Bytes.toBytes((String) key.get(0));
+    }
+    return rowKeyBuilder.build(key.subList(0, stateRowKeySize()));
+  }
+
+  /**
+   * @param key The state key
+   * @return The column family
+   * @see #getStateRowKey(List)
+   */
+  public byte[] getStateFamily(final List<Object> key) {
+    return Bytes.toBytes((String) key.get(stateRowKeySize()));
+  }
+
+  /**
+   * @param key The state key
+   * @return The column qualifier
+   * @see #getStateRowKey(List)
+   */
+  public byte[] getStateQualifier(final List<Object> key) {
+    return Bytes.toBytes((String) key.get(stateRowKeySize() + 1));
+  }
+
+  private int stateRowKeySize() {
+    return rowKeyBuilder == null ? 1 : rowKeyBuilder.getFields().size();
+  }
+
+  /**
+   * @return The size of the on-heap tier of the state cache. <b>Default is 1000
    */
   public int getStateCacheSize() {
     return stateCacheSize;
   }
 
   /**
-   * @param stateCacheSize Sets the size of the least-recently-used (LRU) cache. <b>Default is 1000
+   * @param stateCacheSize Sets the size of the on-heap tier of the state cache. Once the cache is
+   *          full, keys are evicted in least-recently-used (LRU) order, but only to admit keys that
+   *          are accessed more frequently. <b>Default is 1000
    */
   public void setStateCacheSize(int stateCacheSize) {
     this.stateCacheSize = stateCacheSize;
   }
 
+  /**
+   * @return The size in bytes of the off-heap tier of the state cache
+   */
+  public long getOffHeapCacheSize() {
+    return offHeapCacheSize;
+  }
+
+  /**
+   * @param offHeapCacheSize Sets the size in bytes of the off-heap tier of the state cache, which
+   *          holds serialized entries evicted from the on-heap tier. <b>Default is zero, disabled
+   */
+  public void setOffHeapCacheSize(long offHeapCacheSize) {
+    this.offHeapCacheSize = offHeapCacheSize;
+  }
+
+  /**
+   * @return Whether Trident state is stored in the columnar layout
+   */
+  public boolean isColumnarState() {
+    return columnarState;
+  }
+
+  /**
+   * @param columnarState Sets whether to store numeric Trident state in the columnar layout, with
+   *          the value, txid and previous value of each counter in separate 8 byte cells, rather
+   *          than serializing them into one cell. Only for a new table or column, as existing
+   *          serialized cells can't be read.
+   *          <p>
+   *          Disabled by default
+   * @see ColumnarStateLayout
+   */
+  public void setColumnarState(boolean columnarState) {
+    this.columnarState = columnarState;
+  }
+
+  /**
+   * @return The {@link RetryPolicy} for reading and writing Trident state
+   */
+  public RetryPolicy getRetryPolicy() {
+    return retryPolicy;
+  }
+
+  /**
+   * @param retryPolicy Sets the {@link RetryPolicy} for reading and writing Trident state. <b>Default
+   *          is 3 attempts with a backoff starting at 100 ms
+   */
+  public void setRetryPolicy(RetryPolicy retryPolicy) {
+    this.retryPolicy = retryPolicy;
+  }
+
+  /**
+   * @return The number of threads used to read a batch of Trident state concurrently
+   */
+  public int getParallelGetThreads() {
+    return parallelGetThreads;
+  }
+
+  /**
+   * @return The maximum number of gets in each concurrent read of Trident state
+   */
+  public int getParallelGetBatchSize() {
+    return parallelGetBatchSize;
+  }
+
+  /**
+   * Read large batches of Trident state concurrently. Batches of more than <tt>batchSize</tt> keys
+   * are split by region into requests of at most <tt>batchSize</tt> gets, which are sent on a pool
+   * of threads shared by the worker's states, sized for the largest number of <tt>threads</tt>
+   * requested. <b>Default is zero threads, disabled
+   * @param threads The number of concurrent requests
+   * @param batchSize The maximum number of gets in each request. <b>Default is 1000
+   * @see ParallelMultiGet
+   */
+  public void setParallelGets(int threads, int batchSize) {
+    this.parallelGetThreads = threads;
+    this.parallelGetBatchSize = batchSize;
+  }
+
+  /**
+   * @return The maximum number of rows in the worker's lookup cache
+   */
+  public int getLookupCacheSize() {
+    return lookupCacheSize;
+  }
+
+  /**
+   * @return How long rows are kept in the worker's lookup cache
+   */
+  public long getLookupCacheTtlMillis() {
+    return lookupCacheTtlMillis;
+  }
+
+  /**
+   * Cache the rows read through {@link HBaseValueState} in a cache shared by the worker. <b>Default
+   * is zero rows, disabled
+   * @param size The maximum number of rows cached
+   * @param ttlMillis How long rows are cached for. <b>Default is 60000
+   * @see LookupCache
+   */
+  public void setLookupCache(int size, long ttlMillis) {
+    this.lookupCacheSize = size;
+    this.lookupCacheTtlMillis = ttlMillis;
+  }
+
+  /**
+   * Bound the row range of the scans built by {@link #getScanFromTridentTuple(TridentTuple)}.
+   * Either field can be null to scan from the first, or up to the last, row with the row key
+   * prefix. <b>Default is the whole prefix
+   * @param startField The tuple field holding the suffix of the first row, inclusive
+   * @param stopField The tuple field holding the suffix of the last row, exclusive
+   */
+  public void setScanRowRange(String startField, String stopField) {
+    this.scanStartField = startField;
+    this.scanStopField = stopField;
+  }
+
+  /**
+   * Bound the columns returned by the scans built by
+   * {@link #getScanFromTridentTuple(TridentTuple)}, e.g. to the dates of a range of daily
+   * counters. Either field can be null for an open range. <b>Default is the configured columns
+   * @param minField The tuple field holding the first column qualifier, inclusive
+   * @param maxField The tuple field holding the last column qualifier, exclusive
+   */
+  public void setScanColumnRange(String minField, String maxField) {
+    this.scanMinColumnField = minField;
+    this.scanMaxColumnField = maxField;
+  }
+
+  /**
+   * @return The number of rows fetched per scanner RPC
+   */
+  public int getScanCaching() {
+    return scanCaching;
+  }
+
+  /**
+   * @param scanCaching Sets the number of rows fetched per scanner RPC. <b>Default is 100
+   * @see HBaseScanQuery
+   */
+  public void setScanCaching(int scanCaching) {
+    this.scanCaching = scanCaching;
+  }
+
+  /**
+   * @return The maximum number of columns returned per row by a scanner RPC
+   */
+  public int getScanBatch() {
+    return scanBatch;
+  }
+
+  /**
+   * @param scanBatch Sets the maximum number of columns returned per row by a scanner RPC, so that
+   *          very wide rows are returned in parts. <b>Default is zero, unlimited
+   */
+  public void setScanBatch(int scanBatch) {
+    this.scanBatch = scanBatch;
+  }
+
   /**
    * @return The {@link Serializer} used for persisting Trident state to HBase
    */
@@ -137,7 +456,11 @@ public class TridentConfig<T> extends TupleTableConfig {
   }
 
   /**
-   * @param stateSerializer Set the {@link Serializer} to use for persisting Trident state to HBase
+   * @param stateSerializer Set the {@link Serializer} to use for persisting Trident state to HBase.
+   *          <p>
+   *          Defaults to the JSON serializers in {@link #DEFAULT_SERIALZERS}. For smaller cells and
+   *          cheaper serialization use {@link BinaryOpaqueSerializer} or
+   *          {@link BinaryTransactionalSerializer}, which can also read cells written in JSON
    */
   public void setStateSerializer(Serializer<T> stateSerializer) {
     this.stateSerializer = stateSerializer;
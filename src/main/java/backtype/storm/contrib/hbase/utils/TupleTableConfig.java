@@ -1,9 +1,14 @@
 package backtype.storm.contrib.hbase.utils;
 
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.NavigableMap;
 import java.util.Set;
 import java.util.TreeMap;
@@ -12,23 +17,42 @@ import org.apache.hadoop.hbase.client.Increment;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.util.Bytes;
 
+import backtype.storm.generated.GlobalStreamId;
+import backtype.storm.task.TopologyContext;
+import backtype.storm.tuple.Fields;
 import backtype.storm.tuple.Tuple;
 
 /**
  * Configuration for Storm {@link Tuple} to HBase serialization.
+ * <p>
+ * The column mapping is compiled into a {@link MappingPlan} per input stream by
+ * {@link #compile(TopologyContext)} when the bolt is prepared, or otherwise the first time a tuple
+ * with new fields is converted. The plans are recompiled only if the columns change.
+ * <p>
+ * Column values are converted to bytes by a {@link ValueCodec} per column, UTF-8 strings by
+ * default. Row keys are taken from a single string field, or built by a {@link RowKeyBuilder} from
+ * several fields.
  */
 @SuppressWarnings("serial")
 public class TupleTableConfig implements Serializable {
 
   public static final long DEFAULT_INCREMENT = 1L;
 
+  // Bounds the plans kept if tuples don't share their Fields instances
+  private static final int MAX_PLANS = 64;
+
   private String tableName;
   protected String tupleRowKeyField;
   protected String tupleTimestampField;
   protected Map<String, Set<String>> columnFamilies;
+  protected Map<String, ValueCodec> columnCodecs;
+  protected RowKeyBuilder rowKeyBuilder;
   private boolean batch = true;
   protected boolean writeToWAL = true;
   private long writeBufferSize = 0L;
+  private TableFactory tableFactory;
+  // Mapping plans by tuple fields, replaced as a whole when a plan is added
+  private transient volatile Map<Fields, MappingPlan> plans;
 
   /**
    * Initialize configuration
@@ -39,7 +63,8 @@ public class TupleTableConfig implements Serializable {
     this.tableName = table;
     this.tupleRowKeyField = rowKeyField;
     this.tupleTimestampField = "";
-    this.columnFamilies = new HashMap<String, Set<String>>();
+    this.columnFamilies = new LinkedHashMap<String, Set<String>>();
+    this.columnCodecs = new HashMap<String, ValueCodec>();
   }
 
   /**
@@ -52,11 +77,13 @@ public class TupleTableConfig implements Serializable {
     this.tableName = table;
     this.tupleRowKeyField = rowKeyField;
     this.tupleTimestampField = timestampField;
-    this.columnFamilies = new HashMap<String, Set<String>>();
+    this.columnFamilies = new LinkedHashMap<String, Set<String>>();
+    this.columnCodecs = new HashMap<String, ValueCodec>();
   }
 
   /**
-   * Add column family and column qualifier to be extracted from tuple
+   * Add column family and column qualifier to be extracted from tuple. Columns are kept grouped by
+   * column family, in the order they were added
    * @param columnFamily The column family name
    * @param columnQualifier The column qualifier name
    */
@@ -64,11 +91,42 @@ public class TupleTableConfig implements Serializable {
     Set<String> columns = this.columnFamilies.get(columnFamily);
 
     if (columns == null) {
-      columns = new HashSet<String>();
+      columns = new LinkedHashSet<String>();
     }
     columns.add(columnQualifier);
 
     this.columnFamilies.put(columnFamily, columns);
+    this.plans = null;
+  }
+
+  /**
+   * Add column family and column qualifier to be extracted from tuple, with the codec used to
+   * convert the tuple value into the bytes stored in HBase.
+   * <p>
+   * For counters the tuple value is used as the column qualifier, so the codec is applied to the
+   * qualifier instead
+   * @param columnFamily The column family name
+   * @param columnQualifier The column qualifier name
+   * @param codec The {@link ValueCodec}, e.g. one of {@link ValueCodecs}
+   */
+  public void addColumn(final String columnFamily, final String columnQualifier,
+      final ValueCodec codec) {
+    addColumn(columnFamily, columnQualifier);
+    this.columnCodecs.put(columnKey(columnFamily, columnQualifier), codec);
+  }
+
+  /**
+   * @param columnFamily The column family name
+   * @param columnQualifier The column qualifier name
+   * @return The {@link ValueCodec} for the column. <b>Default is {@link ValueCodecs#STRING}
+   */
+  public ValueCodec getColumnCodec(final String columnFamily, final String columnQualifier) {
+    ValueCodec codec = this.columnCodecs.get(columnKey(columnFamily, columnQualifier));
+    return codec == null ? ValueCodecs.STRING : codec;
+  }
+
+  private static String columnKey(final String columnFamily, final String columnQualifier) {
+    return columnFamily + ":" + columnQualifier;
   }
 
   /**
@@ -77,29 +135,27 @@ public class TupleTableConfig implements Serializable {
    * @return {@link Put}
    */
   public Put getPutFromTuple(final Tuple tuple) {
-    byte[] rowKey = Bytes.toBytes(tuple.getStringByField(tupleRowKeyField));
+    MappingPlan plan = getPlan(tuple.getFields());
+    byte[] rowKey = getRowKey(tuple, plan);
 
     long ts = 0;
-    if (!tupleTimestampField.equals("")) {
-      ts = tuple.getLongByField(tupleTimestampField);
+    if (plan.timestampIndex >= 0) {
+      ts = tuple.getLong(plan.timestampIndex);
     }
 
     Put p = new Put(rowKey);
     p.setWriteToWAL(writeToWAL);
 
-    if (columnFamilies.size() > 0) {
-      for (String cf : columnFamilies.keySet()) {
-        byte[] cfBytes = Bytes.toBytes(cf);
-        for (String cq : columnFamilies.get(cf)) {
-          byte[] cqBytes = Bytes.toBytes(cq);
-          byte[] val = Bytes.toBytes(tuple.getStringByField(cq));
-
-          if (ts > 0) {
-            p.add(cfBytes, cqBytes, ts, val);
-          } else {
-            p.add(cfBytes, cqBytes, val);
-          }
-        }
+    for (int i = 0; i < plan.families.length; i++) {
+      if (plan.valueIndexes[i] < 0) {
+        throw new IllegalArgumentException(plan.qualifierNames[i] + " does not exist");
+      }
+      byte[] val = plan.codecs[i].encode(tuple.getValue(plan.valueIndexes[i]));
+
+      if (ts > 0) {
+        p.add(plan.families[i], plan.qualifiers[i], ts, val);
+      } else {
+        p.add(plan.families[i], plan.qualifiers[i], val);
       }
     }
 
@@ -113,31 +169,180 @@ public class TupleTableConfig implements Serializable {
    * @return {@link Increment}
    */
   public Increment getIncrementFromTuple(final Tuple tuple, final long increment) {
-    byte[] rowKey = Bytes.toBytes(tuple.getStringByField(tupleRowKeyField));
+    MappingPlan plan = getPlan(tuple.getFields());
+    byte[] rowKey = getRowKey(tuple, plan);
 
     Increment inc = new Increment(rowKey);
     inc.setWriteToWAL(writeToWAL);
 
-    if (columnFamilies.size() > 0) {
-      for (String cf : columnFamilies.keySet()) {
-        byte[] cfBytes = Bytes.toBytes(cf);
-        for (String cq : columnFamilies.get(cf)) {
-          byte[] val;
-          try {
-            val = Bytes.toBytes(tuple.getStringByField(cq));
-          } catch (IllegalArgumentException ex) {
-            // if cq isn't a tuple field, use cq for counter instead of tuple
-            // value
-            val = Bytes.toBytes(cq);
-          }
-          inc.addColumn(cfBytes, val, increment);
-        }
+    for (int i = 0; i < plan.families.length; i++) {
+      byte[] val;
+      if (plan.valueIndexes[i] >= 0) {
+        val = plan.codecs[i].encode(tuple.getValue(plan.valueIndexes[i]));
+      } else {
+        // if cq isn't a tuple field, use cq for counter instead of tuple
+        // value
+        val = plan.qualifiers[i];
       }
+      inc.addColumn(plan.families[i], val, increment);
     }
 
     return inc;
   }
 
+  /**
+   * @param tuple The {@link Tuple}
+   * @param plan The {@link MappingPlan} for the tuple's fields
+   * @return The row key, built by the {@link RowKeyBuilder} if one is set
+   */
+  protected byte[] getRowKey(final Tuple tuple, final MappingPlan plan) {
+    return getRowKey(tuple.getValues(), plan);
+  }
+
+  /**
+   * @param fields The tuple {@link Fields}
+   * @param values The tuple values
+   * @return The row key, built by the {@link RowKeyBuilder} if one is set
+   */
+  public byte[] getRowKey(final Fields fields, final List<Object> values) {
+    return getRowKey(values, getPlan(fields));
+  }
+
+  private byte[] getRowKey(final List<Object> values, final MappingPlan plan) {
+    if (plan.rowKeyIndexes == null) {
+      return Bytes.toBytes((String) values.get(plan.rowKeyIndex));
+    }
+
+    Object[] keyValues = new Object[plan.rowKeyIndexes.length];
+    for (int i = 0; i < keyValues.length; i++) {
+      keyValues[i] = values.get(plan.rowKeyIndexes[i]);
+    }
+    return rowKeyBuilder.build(Arrays.asList(keyValues));
+  }
+
+  /**
+   * Compile the mapping plans for the streams a task subscribes to. Streams without the row key
+   * fields, e.g. the coordination streams of transactional topologies, are skipped
+   * @param context The task's {@link TopologyContext}
+   */
+  public void compile(final TopologyContext context) {
+    for (GlobalStreamId source : context.getThisSources().keySet()) {
+      try {
+        getPlan(context.getComponentOutputFields(source.get_componentId(), source.get_streamId()));
+      } catch (IllegalArgumentException ex) {
+        // Not a stream of mapped tuples
+      }
+    }
+  }
+
+  /**
+   * Get the mapping plan for tuples with the given fields, compiling it if there isn't one yet.
+   * Storm shares one {@link Fields} instance per stream, so plans are looked up by identity and
+   * only compared field by field the first time an instance is seen
+   * @param fields The tuple {@link Fields}, or null if field indexes aren't needed
+   * @return {@link MappingPlan}
+   */
+  protected MappingPlan getPlan(final Fields fields) {
+    Map<Fields, MappingPlan> current = this.plans;
+    MappingPlan p = current == null ? null : current.get(fields);
+    if (p != null) {
+      return p;
+    }
+
+    if (current != null) {
+      for (MappingPlan other : current.values()) {
+        if (other.isFor(fields)) {
+          p = other;
+          break;
+        }
+      }
+    }
+    if (p == null) {
+      p = new MappingPlan(fields);
+    }
+
+    Map<Fields, MappingPlan> updated = new IdentityHashMap<Fields, MappingPlan>();
+    if (current != null && current.size() < MAX_PLANS) {
+      updated.putAll(current);
+    }
+    updated.put(fields, p);
+    this.plans = updated;
+    return p;
+  }
+
+  /**
+   * The column mapping compiled for a particular set of tuple fields. Column families and
+   * qualifiers are encoded once, and tuple fields are resolved to indexes, so building a mutation
+   * from a tuple is a loop over flat arrays
+   */
+  protected class MappingPlan {
+    final Fields fields;
+    final int rowKeyIndex;
+    // Indexes of the RowKeyBuilder's fields, or null if there is no builder
+    final int[] rowKeyIndexes;
+    final int timestampIndex;
+    final byte[][] families;
+    final byte[][] qualifiers;
+    final String[] qualifierNames;
+    final ValueCodec[] codecs;
+    // Index of the tuple field holding each column's value, or -1 if it isn't a tuple field
+    final int[] valueIndexes;
+
+    MappingPlan(final Fields fields) {
+      this.fields = fields;
+      if (fields == null) {
+        this.rowKeyIndex = -1;
+        this.rowKeyIndexes = null;
+      } else if (rowKeyBuilder == null) {
+        this.rowKeyIndex = fields.fieldIndex(tupleRowKeyField);
+        this.rowKeyIndexes = null;
+      } else {
+        this.rowKeyIndex = -1;
+        this.rowKeyIndexes = new int[rowKeyBuilder.getFields().size()];
+        for (int i = 0; i < rowKeyIndexes.length; i++) {
+          rowKeyIndexes[i] = fields.fieldIndex(rowKeyBuilder.getFields().get(i));
+        }
+      }
+      this.timestampIndex =
+          fields == null || tupleTimestampField.equals("") ? -1 : fields
+              .fieldIndex(tupleTimestampField);
+
+      int size = 0;
+      for (Set<String> columns : columnFamilies.values()) {
+        size += columns.size();
+      }
+      this.families = new byte[size][];
+      this.qualifiers = new byte[size][];
+      this.qualifierNames = new String[size];
+      this.codecs = new ValueCodec[size];
+      this.valueIndexes = new int[size];
+
+      int i = 0;
+      for (Entry<String, Set<String>> cf : columnFamilies.entrySet()) {
+        byte[] cfBytes = Bytes.toBytes(cf.getKey());
+        for (String cq : cf.getValue()) {
+          families[i] = cfBytes;
+          qualifiers[i] = Bytes.toBytes(cq);
+          qualifierNames[i] = cq;
+          codecs[i] = getColumnCodec(cf.getKey(), cq);
+          valueIndexes[i] = fields != null && fields.contains(cq) ? fields.fieldIndex(cq) : -1;
+          i++;
+        }
+      }
+    }
+
+    /**
+     * @param other The tuple {@link Fields}
+     * @return True if this plan was compiled for the given fields
+     */
+    boolean isFor(final Fields other) {
+      if (fields == other) {
+        return true;
+      }
+      return fields != null && other != null && fields.toList().equals(other.toList());
+    }
+  }
+
   /**
    * Increment the counter for the given family and column by the specified amount
    * <p>
@@ -167,6 +372,20 @@ public class TupleTableConfig implements Serializable {
     inc.getFamilyMap().put(family, set);
   }
 
+  /**
+   * Add all of the counters in one {@link Increment} to another, using
+   * {@link #addIncrement(Increment, byte[], byte[], Long)} for each counter
+   * @param inc The {@link Increment} to update
+   * @param other The {@link Increment} whose counters are added
+   */
+  public static void addIncrement(Increment inc, final Increment other) {
+    for (Entry<byte[], NavigableMap<byte[], Long>> families : other.getFamilyMap().entrySet()) {
+      for (Entry<byte[], Long> columns : families.getValue().entrySet()) {
+        addIncrement(inc, families.getKey(), columns.getKey(), columns.getValue());
+      }
+    }
+  }
+
   /**
    * @return the tableName
    */
@@ -244,6 +463,49 @@ public class TupleTableConfig implements Serializable {
     return this.columnFamilies.keySet();
   }
 
+  /**
+   * @param columnFamily The column family name
+   * @return The column qualifiers added for the column family, or null if there are none
+   */
+  public Set<String> getColumns(final String columnFamily) {
+    return this.columnFamilies.get(columnFamily);
+  }
+
+  /**
+   * @return The {@link RowKeyBuilder}, or null if the row key is taken from a single field
+   */
+  public RowKeyBuilder getRowKeyBuilder() {
+    return rowKeyBuilder;
+  }
+
+  /**
+   * @param rowKeyBuilder Sets the {@link RowKeyBuilder} used to build row keys from one or more
+   *          tuple fields. Overrides the row key field given to the constructor
+   */
+  public void setRowKeyBuilder(RowKeyBuilder rowKeyBuilder) {
+    this.rowKeyBuilder = rowKeyBuilder;
+    this.plans = null;
+  }
+
+  /**
+   * @return The {@link TableFactory} creating the tables. <b>Default is a
+   *         {@link SharedConnectionTableFactory}
+   */
+  public TableFactory getTableFactory() {
+    if (tableFactory == null) {
+      tableFactory = new SharedConnectionTableFactory();
+    }
+    return tableFactory;
+  }
+
+  /**
+   * @param tableFactory Sets the {@link TableFactory} creating the tables, e.g. an in-memory table
+   *          for tests and benchmarks
+   */
+  public void setTableFactory(TableFactory tableFactory) {
+    this.tableFactory = tableFactory;
+  }
+
   /**
    * @return the tupleRowKeyField
    */
@@ -0,0 +1,220 @@
+package backtype.storm.contrib.hbase.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+import backtype.storm.tuple.Fields;
+
+/**
+ * Reads a trace file written by {@link TupleTraceWriter}
+ * <p>
+ * The file is memory-mapped, in segments of up to {@value #SEGMENT_BYTES} bytes so traces larger
+ * than 2GB can be read. Tuples are decoded straight from the mapping, without a system call or a
+ * copy into a read buffer per tuple. A segment is unmapped as soon as the next one is mapped, and
+ * the last one on {@link #close()}, so a long trace doesn't hold on to its earlier segments until
+ * the garbage collector releases them.
+ * <p>
+ * Not thread-safe.
+ */
+public class TupleTraceReader implements Closeable {
+  static final int SEGMENT_BYTES = 1 << 28;
+
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+  private final long size;
+  private final long startMillis;
+  private final Fields fields;
+  private final List<String> dictionary = new ArrayList<String>();
+
+  private MappedByteBuffer buffer;
+  private long base;
+  private long micros = 0;
+  private List<Object> values;
+
+  /**
+   * Open a trace file and read its header
+   * @param path The trace file
+   * @throws IOException if the file can't be read or isn't a trace
+   */
+  public TupleTraceReader(final File path) throws IOException {
+    this.file = new RandomAccessFile(path, "r");
+    this.channel = file.getChannel();
+    this.size = channel.size();
+    map(0);
+
+    try {
+      if (buffer.getInt() != TupleTraceWriter.MAGIC) {
+        throw new IOException(path + " is not a tuple trace");
+      }
+      if (buffer.get() != TupleTraceWriter.VERSION) {
+        throw new IOException("Unsupported version of tuple trace " + path);
+      }
+      this.startMillis = buffer.getLong();
+      int count = (int) readVarLong();
+      List<String> names = new ArrayList<String>(count);
+      for (int i = 0; i < count; i++) {
+        names.add(Bytes.toString(readBytes()));
+      }
+      this.fields = new Fields(names);
+    } catch (BufferUnderflowException e) {
+      close();
+      throw new IOException(path + " has no tuples");
+    } catch (IOException e) {
+      close();
+      throw e;
+    }
+  }
+
+  /**
+   * @return The fields of the traced tuples
+   */
+  public Fields getFields() {
+    return fields;
+  }
+
+  /**
+   * @return When the capture started, in milliseconds since the epoch
+   */
+  public long getStartMillis() {
+    return startMillis;
+  }
+
+  /**
+   * Read the next tuple
+   * @return False at the end of the trace
+   * @throws IOException
+   */
+  public boolean next() throws IOException {
+    while (true) {
+      int start = buffer.position();
+      int dictionarySize = dictionary.size();
+      try {
+        if (!buffer.hasRemaining() && base + buffer.limit() >= size) {
+          return false;
+        }
+        long delta = readVarLong();
+        List<Object> v = new ArrayList<Object>(fields.size());
+        for (int i = 0; i < fields.size(); i++) {
+          v.add(readValue());
+        }
+        micros += delta;
+        values = v;
+        return true;
+      } catch (BufferUnderflowException e) {
+        // Undo the strings of the partial tuple, then retry it from a mapping starting with it
+        while (dictionary.size() > dictionarySize) {
+          dictionary.remove(dictionary.size() - 1);
+        }
+        if (base + buffer.limit() >= size) {
+          // A tuple truncated by the end of the capture
+          return false;
+        }
+        if (start == 0) {
+          throw new IOException(String.format("Tuple at offset %d is larger than %d bytes", base,
+            SEGMENT_BYTES));
+        }
+        map(base + start);
+      }
+    }
+  }
+
+  /**
+   * @return The microseconds from the start of the capture to the current tuple
+   */
+  public long getMicros() {
+    return micros;
+  }
+
+  /**
+   * @return The values of the current tuple
+   */
+  public List<Object> getValues() {
+    return values;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void close() throws IOException {
+    unmap();
+    file.close();
+  }
+
+  private void map(final long position) throws IOException {
+    unmap();
+    base = position;
+    buffer = channel.map(FileChannel.MapMode.READ_ONLY, position,
+      Math.min(SEGMENT_BYTES, size - position));
+  }
+
+  private void unmap() {
+    // Null the buffer first, so a read after close fails rather than touching unmapped memory
+    MappedByteBuffer b = buffer;
+    buffer = null;
+    DirectBuffers.free(b);
+  }
+
+  private Object readValue() throws IOException {
+    byte tag = buffer.get();
+    switch (tag) {
+    case TupleTraceWriter.TAG_NULL:
+      return null;
+    case TupleTraceWriter.TAG_STRING:
+      byte[] b = readBytes();
+      String s = Bytes.toString(b);
+      if (b.length <= TupleTraceWriter.MAX_DICTIONARY_STRING_BYTES
+          && dictionary.size() < TupleTraceWriter.MAX_DICTIONARY_SIZE) {
+        dictionary.add(s);
+      }
+      return s;
+    case TupleTraceWriter.TAG_STRING_REF:
+      return dictionary.get((int) readVarLong());
+    case TupleTraceWriter.TAG_INT:
+      return (int) unZigZag(readVarLong());
+    case TupleTraceWriter.TAG_LONG:
+      return unZigZag(readVarLong());
+    case TupleTraceWriter.TAG_FLOAT:
+      return Float.intBitsToFloat(buffer.getInt());
+    case TupleTraceWriter.TAG_DOUBLE:
+      return Double.longBitsToDouble(buffer.getLong());
+    case TupleTraceWriter.TAG_TRUE:
+      return Boolean.TRUE;
+    case TupleTraceWriter.TAG_FALSE:
+      return Boolean.FALSE;
+    case TupleTraceWriter.TAG_BYTES:
+      return readBytes();
+    default:
+      throw new IOException("Corrupt tuple trace, unknown value type " + tag);
+    }
+  }
+
+  private byte[] readBytes() {
+    byte[] b = new byte[(int) readVarLong()];
+    buffer.get(b);
+    return b;
+  }
+
+  private long readVarLong() {
+    long v = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = buffer.get();
+      v |= (long) (b & 0x7F) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    return v;
+  }
+
+  private static long unZigZag(final long v) {
+    return (v >>> 1) ^ -(v & 1);
+  }
+}
@@ -0,0 +1,231 @@
+package backtype.storm.contrib.hbase.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Tuple;
+
+/**
+ * Records tuples and the time they arrived into a compact binary trace file, to be replayed by
+ * {@link TupleTraceReader}
+ * <p>
+ * The file starts with a header holding the capture start time and the field names, taken from the
+ * first tuple. Each tuple is then written as the microseconds since the previous one followed by
+ * its values, all as variable-length integers where possible. Strings of up to
+ * {@value #MAX_DICTIONARY_STRING_BYTES} bytes are written in full the first time they are seen
+ * and as a reference afterwards, so low-cardinality fields such as dates or user names take one to
+ * three bytes per tuple.
+ * <p>
+ * Tuples are buffered in memory, so a few may be lost if the worker dies. The reader ignores a
+ * truncated last tuple.
+ * <p>
+ * Strings, integers, longs, floats, doubles, booleans, byte arrays and nulls are recorded as such.
+ * Values of other types are recorded as their <tt>toString()</tt>. Tuples with different fields
+ * from the first one are skipped.
+ * <p>
+ * Not thread-safe.
+ */
+public class TupleTraceWriter implements Closeable {
+  static final int MAGIC = 0x53545243;
+  static final byte VERSION = 1;
+
+  static final byte TAG_NULL = 0;
+  static final byte TAG_STRING = 1;
+  static final byte TAG_STRING_REF = 2;
+  static final byte TAG_INT = 3;
+  static final byte TAG_LONG = 4;
+  static final byte TAG_FLOAT = 5;
+  static final byte TAG_DOUBLE = 6;
+  static final byte TAG_TRUE = 7;
+  static final byte TAG_FALSE = 8;
+  static final byte TAG_BYTES = 9;
+
+  static final int MAX_DICTIONARY_SIZE = 1 << 16;
+  static final int MAX_DICTIONARY_STRING_BYTES = 64;
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final OutputStream out;
+  private final long maxBytes;
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private final Map<String, Integer> dictionary = new HashMap<String, Integer>();
+  private int buffered = 0;
+  private long written = 0;
+  private long lastMicros;
+  private List<String> fields;
+  private boolean full = false;
+
+  /**
+   * Create a trace file, overwriting any existing file
+   * @param file The trace file
+   * @param maxBytes The size at which the capture stops
+   * @throws IOException
+   */
+  public TupleTraceWriter(final File file, final long maxBytes) throws IOException {
+    this.out = new FileOutputStream(file);
+    this.maxBytes = maxBytes;
+    this.lastMicros = System.nanoTime() / 1000;
+  }
+
+  /**
+   * Record a tuple
+   * @param tuple The {@link Tuple}
+   * @return False if the trace is full and the tuple was not recorded
+   * @throws IOException
+   */
+  public boolean write(final Tuple tuple) throws IOException {
+    if (full) {
+      return false;
+    }
+    if (fields == null) {
+      writeHeader(tuple.getFields());
+    } else if (!fields.equals(tuple.getFields().toList())) {
+      return true;
+    }
+
+    long micros = System.nanoTime() / 1000;
+    writeVarLong(Math.max(0, micros - lastMicros));
+    lastMicros = micros;
+    for (Object value : tuple.getValues()) {
+      writeValue(value);
+    }
+
+    if (written + buffered >= maxBytes) {
+      full = true;
+      flush();
+    }
+    return true;
+  }
+
+  /**
+   * @return The number of bytes recorded so far
+   */
+  public long getBytes() {
+    return written + buffered;
+  }
+
+  /**
+   * Write the buffered tuples to the file
+   * @throws IOException
+   */
+  public void flush() throws IOException {
+    out.write(buffer, 0, buffered);
+    written += buffered;
+    buffered = 0;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void close() throws IOException {
+    try {
+      flush();
+    } finally {
+      out.close();
+    }
+  }
+
+  private void writeHeader(final Fields tupleFields) throws IOException {
+    fields = tupleFields.toList();
+    writeInt(MAGIC);
+    writeByte(VERSION);
+    writeLong(System.currentTimeMillis());
+    writeVarLong(fields.size());
+    for (String f : fields) {
+      byte[] b = Bytes.toBytes(f);
+      writeVarLong(b.length);
+      writeBytes(b);
+    }
+  }
+
+  private void writeValue(final Object value) throws IOException {
+    if (value == null) {
+      writeByte(TAG_NULL);
+    } else if (value instanceof Integer) {
+      writeByte(TAG_INT);
+      writeVarLong(zigZag((Integer) value));
+    } else if (value instanceof Long) {
+      writeByte(TAG_LONG);
+      writeVarLong(zigZag((Long) value));
+    } else if (value instanceof Float) {
+      writeByte(TAG_FLOAT);
+      writeInt(Float.floatToIntBits((Float) value));
+    } else if (value instanceof Double) {
+      writeByte(TAG_DOUBLE);
+      writeLong(Double.doubleToLongBits((Double) value));
+    } else if (value instanceof Boolean) {
+      writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+    } else if (value instanceof byte[]) {
+      byte[] b = (byte[]) value;
+      writeByte(TAG_BYTES);
+      writeVarLong(b.length);
+      writeBytes(b);
+    } else {
+      writeString(value.toString());
+    }
+  }
+
+  private void writeString(final String s) throws IOException {
+    Integer ref = dictionary.get(s);
+    if (ref != null) {
+      writeByte(TAG_STRING_REF);
+      writeVarLong(ref);
+      return;
+    }
+    byte[] b = Bytes.toBytes(s);
+    writeByte(TAG_STRING);
+    writeVarLong(b.length);
+    writeBytes(b);
+    if (b.length <= MAX_DICTIONARY_STRING_BYTES && dictionary.size() < MAX_DICTIONARY_SIZE) {
+      dictionary.put(s, dictionary.size());
+    }
+  }
+
+  private static long zigZag(final long v) {
+    return (v << 1) ^ (v >> 63);
+  }
+
+  private void writeVarLong(long v) throws IOException {
+    while ((v & ~0x7FL) != 0) {
+      writeByte((byte) ((v & 0x7F) | 0x80));
+      v >>>= 7;
+    }
+    writeByte((byte) v);
+  }
+
+  private void writeInt(final int v) throws IOException {
+    writeBytes(Bytes.toBytes(v));
+  }
+
+  private void writeLong(final long v) throws IOException {
+    writeBytes(Bytes.toBytes(v));
+  }
+
+  private void writeByte(final byte b) throws IOException {
+    if (buffered == buffer.length) {
+      flush();
+    }
+    buffer[buffered++] = b;
+  }
+
+  private void writeBytes(final byte[] b) throws IOException {
+    if (b.length > buffer.length - buffered) {
+      flush();
+      if (b.length > buffer.length) {
+        out.write(b);
+        written += b.length;
+        return;
+      }
+    }
+    System.arraycopy(b, 0, buffer, buffered, b.length);
+    buffered += b.length;
+  }
+}
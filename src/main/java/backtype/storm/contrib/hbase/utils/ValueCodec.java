@@ -0,0 +1,22 @@
+package backtype.storm.contrib.hbase.utils;
+
+import java.io.Serializable;
+
+/**
+ * Converts a {@link backtype.storm.tuple.Tuple} value to and from the bytes stored in a HBase
+ * column
+ * @see ValueCodecs
+ */
+public interface ValueCodec extends Serializable {
+  /**
+   * @param value The tuple value
+   * @return The bytes to store in HBase
+   */
+  byte[] encode(Object value);
+
+  /**
+   * @param bytes The bytes stored in HBase
+   * @return The value
+   */
+  Object decode(byte[] bytes);
+}
@@ -0,0 +1,170 @@
+package backtype.storm.contrib.hbase.utils;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * The built-in {@link ValueCodec}s. Numbers are stored in their native big-endian form rather than
+ * as UTF-8 strings, which is what HBase's own {@link Bytes} utilities expect
+ */
+@SuppressWarnings("serial")
+public class ValueCodecs {
+  /**
+   * UTF-8 encoded strings. <b>This is the default
+   */
+  public static final ValueCodec STRING = new ValueCodec() {
+    @Override
+    public byte[] encode(Object value) {
+      return Bytes.toBytes((String) value);
+    }
+
+    @Override
+    public Object decode(byte[] bytes) {
+      return Bytes.toString(bytes);
+    }
+  };
+
+  /**
+   * 8 byte longs. Any {@link Number} is accepted
+   */
+  public static final ValueCodec LONG = new ValueCodec() {
+    @Override
+    public byte[] encode(Object value) {
+      return Bytes.toBytes(((Number) value).longValue());
+    }
+
+    @Override
+    public Object decode(byte[] bytes) {
+      return Bytes.toLong(bytes);
+    }
+  };
+
+  /**
+   * 4 byte ints. Any {@link Number} is accepted
+   */
+  public static final ValueCodec INT = new ValueCodec() {
+    @Override
+    public byte[] encode(Object value) {
+      return Bytes.toBytes(((Number) value).intValue());
+    }
+
+    @Override
+    public Object decode(byte[] bytes) {
+      return Bytes.toInt(bytes);
+    }
+  };
+
+  /**
+   * 8 byte IEEE 754 doubles. Any {@link Number} is accepted
+   */
+  public static final ValueCodec DOUBLE = new ValueCodec() {
+    @Override
+    public byte[] encode(Object value) {
+      return Bytes.toBytes(((Number) value).doubleValue());
+    }
+
+    @Override
+    public Object decode(byte[] bytes) {
+      return Bytes.toDouble(bytes);
+    }
+  };
+
+  /**
+   * Byte arrays, stored as they are
+   */
+  public static final ValueCodec BYTES = new ValueCodec() {
+    @Override
+    public byte[] encode(Object value) {
+      return (byte[]) value;
+    }
+
+    @Override
+    public Object decode(byte[] bytes) {
+      return bytes;
+    }
+  };
+
+  /**
+   * 8 byte longs stored as <tt>Long.MAX_VALUE - value</tt>, so that in row keys the most recent
+   * timestamps sort first
+   */
+  public static final ValueCodec REVERSED_TIMESTAMP = new ValueCodec() {
+    @Override
+    public byte[] encode(Object value) {
+      return Bytes.toBytes(Long.MAX_VALUE - ((Number) value).longValue());
+    }
+
+    @Override
+    public Object decode(byte[] bytes) {
+      return Long.MAX_VALUE - Bytes.toLong(bytes);
+    }
+  };
+
+  private ValueCodecs() {
+  }
+
+  /**
+   * UTF-8 encoded strings padded with zero bytes, or truncated, to a fixed width
+   * @param width The number of bytes
+   * @return {@link ValueCodec}
+   */
+  public static ValueCodec fixedWidthString(final int width) {
+    return new ValueCodec() {
+      @Override
+      public byte[] encode(Object value) {
+        byte[] b = new byte[width];
+        byte[] s = Bytes.toBytes((String) value);
+        System.arraycopy(s, 0, b, 0, Math.min(s.length, width));
+        return b;
+      }
+
+      @Override
+      public Object decode(byte[] bytes) {
+        int length = bytes.length;
+        while (length > 0 && bytes[length - 1] == 0) {
+          length--;
+        }
+        return Bytes.toString(bytes, 0, length);
+      }
+    };
+  }
+
+  /**
+   * Big-endian integers of a fixed width, e.g. 2 bytes for values that fit in a short
+   * @param width The number of bytes, from 1 to 8
+   * @return {@link ValueCodec}
+   */
+  public static ValueCodec fixedWidth(final int width) {
+    if (width < 1 || width > Bytes.SIZEOF_LONG) {
+      throw new IllegalArgumentException("Width must be between 1 and 8 bytes: " + width);
+    }
+
+    return new ValueCodec() {
+      @Override
+      public byte[] encode(Object value) {
+        long l = ((Number) value).longValue();
+        // The bits above the sign bit must all be copies of it
+        long high = l >> (width * 8 - 1);
+        if (high != 0 && high != -1) {
+          throw new IllegalArgumentException(String.format("%d does not fit in %d bytes", l, width));
+        }
+
+        byte[] b = new byte[width];
+        for (int i = width - 1; i >= 0; i--) {
+          b[i] = (byte) l;
+          l >>>= 8;
+        }
+        return b;
+      }
+
+      @Override
+      public Object decode(byte[] bytes) {
+        // Sign extend from the most significant byte
+        long l = bytes[0];
+        for (int i = 1; i < bytes.length; i++) {
+          l = (l << 8) | (bytes[i] & 0xFF);
+        }
+        return l;
+      }
+    };
+  }
+}
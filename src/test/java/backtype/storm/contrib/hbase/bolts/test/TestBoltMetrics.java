@@ -0,0 +1,100 @@
+package backtype.storm.contrib.hbase.bolts.test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.apache.hadoop.hbase.client.Increment;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import backtype.storm.contrib.hbase.bolts.BoltMetrics;
+import backtype.storm.metric.api.CombinedMetric;
+import backtype.storm.metric.api.ICombiner;
+import backtype.storm.metric.api.IMetric;
+import backtype.storm.metric.api.IReducer;
+import backtype.storm.metric.api.ReducedMetric;
+import backtype.storm.task.IMetricsContext;
+
+@SuppressWarnings("rawtypes")
+public class TestBoltMetrics {
+
+  /**
+   * Metrics context keeping the registered metrics by name
+   */
+  static class RecordingContext implements IMetricsContext {
+    final Map<String, IMetric> metrics = new HashMap<String, IMetric>();
+
+    @Override
+    public <T extends IMetric> T registerMetric(String name, T metric, int timeBucketSizeInSecs) {
+      Assert.assertNull("Duplicate metric " + name, metrics.put(name, metric));
+      return metric;
+    }
+
+    @Override
+    public ReducedMetric registerMetric(String name, IReducer reducer, int timeBucketSizeInSecs) {
+      return registerMetric(name, new ReducedMetric(reducer), timeBucketSizeInSecs);
+    }
+
+    @Override
+    public CombinedMetric registerMetric(String name, ICombiner combiner,
+        int timeBucketSizeInSecs) {
+      return registerMetric(name, new CombinedMetric(combiner), timeBucketSizeInSecs);
+    }
+
+    Map<?, ?> report(String name) {
+      return (Map<?, ?>) metrics.get(name).getValueAndReset();
+    }
+  }
+
+  @Test
+  public void testSizeOfIncrement() {
+    Increment inc = new Increment(Bytes.toBytes("ZK6t"));
+    inc.addColumn(Bytes.toBytes("daily"), Bytes.toBytes("20120816"), 1L);
+    Assert.assertEquals(4 + 5 + 8 + 8, BoltMetrics.sizeOf(inc));
+
+    inc.addColumn(Bytes.toBytes("data"), Bytes.toBytes("clicks"), 1L);
+    Assert.assertEquals(4 + 5 + 8 + 8 + 4 + 6 + 8, BoltMetrics.sizeOf(inc));
+  }
+
+  @Test
+  public void testMetrics() {
+    BoltMetrics metrics = new BoltMetrics();
+    RecordingContext context = new RecordingContext();
+    metrics.register(context);
+    Assert.assertEquals(6, context.metrics.size());
+
+    metrics.mutation(100);
+    metrics.mutation(50);
+    Map<?, ?> mutations = context.report(BoltMetrics.MUTATIONS_METRIC_NAME);
+    Assert.assertEquals(2L, mutations.get("mutations"));
+    Assert.assertEquals(150L, mutations.get("bytes"));
+    Assert.assertTrue(context.report(BoltMetrics.MUTATIONS_METRIC_NAME).isEmpty());
+
+    long start = System.nanoTime();
+    metrics.written(start, 10, 0.5);
+    metrics.written(start, 20, -1);
+    metrics.written(start, 30, 2.0);
+    Assert.assertEquals(3L, context.report(BoltMetrics.WRITE_MILLIS_METRIC_NAME).get("count"));
+    Map<?, ?> sizes = context.report(BoltMetrics.WRITE_SIZE_METRIC_NAME);
+    Assert.assertEquals(3L, sizes.get("count"));
+    Assert.assertEquals(20.0, (Double) sizes.get("mean"), 0.0001);
+    // Unknown fills aren't recorded, and fills are capped at 100%
+    Map<?, ?> fill = context.report(BoltMetrics.WRITE_BUFFER_FILL_METRIC_NAME);
+    Assert.assertEquals(2L, fill.get("count"));
+    Assert.assertEquals(75.0, (Double) fill.get("mean"), 0.0001);
+    Assert.assertEquals(100.0, (Double) fill.get("max"), 0.0001);
+
+    metrics.failed(new IOException());
+    metrics.failed(new IOException());
+    metrics.failed(new InterruptedException());
+    Map<?, ?> failures = context.report(BoltMetrics.FAILURES_METRIC_NAME);
+    Assert.assertEquals(2L, failures.get("IOException"));
+    Assert.assertEquals(1L, failures.get("InterruptedException"));
+
+    metrics.acked(System.nanoTime());
+    Assert.assertEquals(1L, context.report(BoltMetrics.ACK_LATENCY_METRIC_NAME).get("count"));
+  }
+}
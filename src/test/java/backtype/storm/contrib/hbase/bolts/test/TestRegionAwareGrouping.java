@@ -0,0 +1,74 @@
+package backtype.storm.contrib.hbase.bolts.test;
+
+import java.util.HashSet;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+import junit.framework.Assert;
+
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import backtype.storm.contrib.hbase.bolts.RegionAwareGrouping;
+
+public class TestRegionAwareGrouping {
+  private static final byte[] TABLE = Bytes.toBytes("shorturl");
+
+  private static NavigableMap<HRegionInfo, ServerName> locations(String... regions) {
+    // Pairs of region start key and server host
+    NavigableMap<HRegionInfo, ServerName> locations = new TreeMap<HRegionInfo, ServerName>();
+    for (int i = 0; i < regions.length; i += 2) {
+      byte[] end = i + 2 < regions.length ? Bytes.toBytes(regions[i + 2]) : new byte[0];
+      locations.put(new HRegionInfo(TABLE, Bytes.toBytes(regions[i]), end), new ServerName(
+          regions[i + 1], 60020, 1L));
+    }
+    return locations;
+  }
+
+  private static int task(NavigableMap<byte[], Integer> regions, String row, int numTasks) {
+    return RegionAwareGrouping.chooseTask(regions, Bytes.toBytes(row), numTasks);
+  }
+
+  @Test
+  public void testRegionsOfAServerShareItsTasks() {
+    NavigableMap<byte[], Integer> regions =
+        RegionAwareGrouping.assignRegions(locations("", "rs1", "g", "rs2", "m", "rs1", "t", "rs2"),
+          4);
+    Assert.assertEquals(4, regions.size());
+
+    // rs1 owns tasks 0 and 2, rs2 owns tasks 1 and 3
+    Assert.assertEquals(0, task(regions, "a", 4));
+    Assert.assertEquals(1, task(regions, "h", 4));
+    Assert.assertEquals(2, task(regions, "m", 4));
+    Assert.assertEquals(3, task(regions, "z", 4));
+  }
+
+  @Test
+  public void testMoreServersThanTasks() {
+    NavigableMap<byte[], Integer> regions =
+        RegionAwareGrouping.assignRegions(locations("", "rs1", "g", "rs2", "m", "rs3"), 2);
+
+    Set<Integer> tasks = new HashSet<Integer>();
+    for (String row : new String[] { "a", "h", "n" }) {
+      int task = task(regions, row, 2);
+      Assert.assertTrue(task >= 0 && task < 2);
+      tasks.add(task);
+    }
+    Assert.assertEquals(2, tasks.size());
+  }
+
+  @Test
+  public void testHashFallbackWithoutRegions() {
+    Set<Integer> tasks = new HashSet<Integer>();
+    for (int i = 0; i < 100; i++) {
+      int task = task(null, "http://bit.ly/" + i, 4);
+      Assert.assertTrue(task >= 0 && task < 4);
+      Assert.assertEquals(task, task(null, "http://bit.ly/" + i, 4));
+      tasks.add(task);
+    }
+    Assert.assertEquals(4, tasks.size());
+  }
+}
@@ -0,0 +1,150 @@
+package backtype.storm.contrib.hbase.testing.test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Increment;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.PrefixFilter;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Test;
+
+import backtype.storm.contrib.hbase.testing.InMemoryTableFactory;
+import backtype.storm.contrib.hbase.utils.BufferedTable;
+
+public class TestInMemoryHTable {
+  private static final byte[] CF = Bytes.toBytes("data");
+  private static final byte[] CQ = Bytes.toBytes("url");
+
+  private final Configuration conf = new Configuration();
+  private final InMemoryTableFactory factory = new InMemoryTableFactory().addTable("shorturl",
+    "data");
+
+  @After
+  public void tearDown() {
+    InMemoryTableFactory.reset();
+  }
+
+  private static Put put(String row, String value) {
+    Put p = new Put(Bytes.toBytes(row));
+    p.add(CF, CQ, Bytes.toBytes(value));
+    return p;
+  }
+
+  @Test
+  public void testWriteBufferAndRpcCount() throws IOException {
+    HTableInterface table = factory.getTable(conf, "shorturl");
+    ((BufferedTable) table).setAutoFlush(false, true);
+
+    table.put(put("a", "http://a"));
+    table.put(put("b", "http://b"));
+    Assert.assertEquals(0, InMemoryTableFactory.getRpcCount("shorturl"));
+    Assert.assertTrue(table.get(new Get(Bytes.toBytes("a"))).isEmpty());
+
+    table.flushCommits();
+    Assert.assertEquals(2, InMemoryTableFactory.getRpcCount("shorturl"));
+    Assert.assertEquals(2, InMemoryTableFactory.getRowCount("shorturl"));
+
+    List<Get> gets = new ArrayList<Get>();
+    gets.add(new Get(Bytes.toBytes("b")));
+    gets.add(new Get(Bytes.toBytes("c")));
+    Result[] results = factory.getTable(conf, "shorturl").get(gets);
+    Assert.assertEquals("http://b", Bytes.toString(results[0].getValue(CF, CQ)));
+    Assert.assertTrue(results[1].isEmpty());
+    Assert.assertEquals(3, InMemoryTableFactory.getRpcCount("shorturl"));
+  }
+
+  @Test
+  public void testInjectedFailureKeepsBuffer() throws IOException {
+    HTableInterface table = factory.getTable(conf, "shorturl");
+    BufferedTable buffered = (BufferedTable) table;
+    buffered.setAutoFlush(false, false);
+    table.put(put("a", "http://a"));
+
+    InMemoryTableFactory.failNext("shorturl", 1);
+    try {
+      table.flushCommits();
+      Assert.fail("Expected the flush to fail");
+    } catch (IOException e) {
+      // expected
+    }
+    Assert.assertFalse(buffered.isWriteBufferEmpty());
+
+    table.flushCommits();
+    Assert.assertTrue(buffered.isWriteBufferEmpty());
+    Assert.assertEquals(1, InMemoryTableFactory.getRowCount("shorturl"));
+  }
+
+  @Test
+  public void testIncrementsAreAtomicToReaders() throws Exception {
+    final HTableInterface writer = factory.getTable(conf, "shorturl");
+    final byte[] row = Bytes.toBytes("counters");
+    final byte[] a = Bytes.toBytes("a");
+    final byte[] b = Bytes.toBytes("b");
+    final List<Throwable> errors = new ArrayList<Throwable>();
+
+    Thread incrementer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          for (int i = 0; i < 2000; i++) {
+            // A new column per increment changes the row's maps as well as its values
+            Increment inc = new Increment(row);
+            inc.addColumn(CF, a, 1L);
+            inc.addColumn(CF, b, 1L);
+            inc.addColumn(CF, Bytes.toBytes("c" + i), 1L);
+            writer.increment(inc);
+          }
+        } catch (Throwable t) {
+          synchronized (errors) {
+            errors.add(t);
+          }
+        }
+      }
+    };
+    incrementer.start();
+
+    HTableInterface reader = factory.getTable(conf, "shorturl");
+    while (incrementer.isAlive()) {
+      Result r = reader.get(new Get(row));
+      if (!r.isEmpty()) {
+        Assert.assertEquals(Bytes.toLong(r.getValue(CF, a)), Bytes.toLong(r.getValue(CF, b)));
+      }
+    }
+    incrementer.join();
+
+    Assert.assertTrue(errors.toString(), errors.isEmpty());
+    Assert.assertEquals(2002, reader.get(new Get(row)).size());
+  }
+
+  @Test
+  public void testScanWithFilter() throws IOException {
+    HTableInterface table = factory.getTable(conf, "shorturl");
+    table.put(put("a1", "x"));
+    table.put(put("a2", "y"));
+    table.put(put("b1", "z"));
+
+    Scan scan = new Scan(Bytes.toBytes("a"));
+    scan.setFilter(new PrefixFilter(Bytes.toBytes("a")));
+    ResultScanner scanner = table.getScanner(scan);
+    List<String> rows = new ArrayList<String>();
+    for (Result r : scanner) {
+      rows.add(Bytes.toString(r.getRow()));
+    }
+    scanner.close();
+
+    Assert.assertEquals(2, rows.size());
+    Assert.assertEquals("a1", rows.get(0));
+    Assert.assertEquals("a2", rows.get(1));
+  }
+}
@@ -0,0 +1,52 @@
+package backtype.storm.contrib.hbase.trident.test;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import storm.trident.state.JSONOpaqueSerializer;
+import storm.trident.state.JSONTransactionalSerializer;
+import storm.trident.state.OpaqueValue;
+import storm.trident.state.TransactionalValue;
+import backtype.storm.contrib.hbase.trident.BinaryOpaqueSerializer;
+import backtype.storm.contrib.hbase.trident.BinaryTransactionalSerializer;
+
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class TestBinarySerializers {
+
+  @Test
+  public void testOpaqueRoundTrip() {
+    BinaryOpaqueSerializer ser = new BinaryOpaqueSerializer();
+    OpaqueValue v = ser.deserialize(ser.serialize(new OpaqueValue(1234L, 42L, -7L)));
+
+    Assert.assertEquals(Long.valueOf(1234L), v.getCurrTxid());
+    Assert.assertEquals(42L, v.getCurr());
+    Assert.assertEquals(-7L, v.getPrev());
+
+    v = ser.deserialize(ser.serialize(new OpaqueValue(1L, 2.5d, null)));
+    Assert.assertEquals(2.5d, v.getCurr());
+    Assert.assertNull(v.getPrev());
+  }
+
+  @Test
+  public void testTransactionalRoundTrip() {
+    BinaryTransactionalSerializer ser = new BinaryTransactionalSerializer();
+    byte[] b = ser.serialize(new TransactionalValue(5L, 300L));
+    TransactionalValue v = ser.deserialize(b);
+
+    Assert.assertEquals(Long.valueOf(5L), v.getTxid());
+    Assert.assertEquals(300L, v.getVal());
+    // version + txid + type + value
+    Assert.assertEquals(5, b.length);
+  }
+
+  @Test
+  public void testReadsJSONCells() {
+    byte[] json = new JSONOpaqueSerializer().serialize(new OpaqueValue(3L, 10L, 9L));
+    OpaqueValue v = new BinaryOpaqueSerializer().deserialize(json);
+    Assert.assertEquals(10L, v.getCurr());
+
+    json = new JSONTransactionalSerializer().serialize(new TransactionalValue(3L, 10L));
+    Assert.assertEquals(10L, new BinaryTransactionalSerializer().deserialize(json).getVal());
+  }
+}
@@ -0,0 +1,72 @@
+package backtype.storm.contrib.hbase.trident.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map.Entry;
+
+import junit.framework.Assert;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import storm.trident.state.OpaqueValue;
+import storm.trident.state.StateType;
+import backtype.storm.contrib.hbase.trident.ColumnarStateLayout;
+
+public class TestColumnarStateLayout {
+  private static final byte[] KEY = "http://bit.ly/ZK6t".getBytes();
+  private static final byte[] CF = "daily".getBytes();
+  private static final byte[] CQ = "20120816".getBytes();
+
+  @Test
+  public void testOpaqueRoundTrip() {
+    ColumnarStateLayout layout = new ColumnarStateLayout(StateType.OPAQUE);
+    Put p = new Put(KEY);
+    layout.write(p, CF, CQ, new OpaqueValue<Long>(7L, 12L, 10L));
+
+    // Three fixed-width cells: value, txid and previous value
+    List<KeyValue> kvs = new ArrayList<KeyValue>();
+    for (Entry<byte[], List<KeyValue>> e : p.getFamilyMap().entrySet()) {
+      kvs.addAll(e.getValue());
+    }
+    Collections.sort(kvs, KeyValue.COMPARATOR);
+    Assert.assertEquals(3, kvs.size());
+    for (KeyValue kv : kvs) {
+      Assert.assertEquals(Bytes.SIZEOF_LONG, kv.getValueLength());
+    }
+
+    OpaqueValue<?> v = (OpaqueValue<?>) layout.read(new Result(kvs), CF, CQ);
+    Assert.assertEquals(Long.valueOf(7L), v.getCurrTxid());
+    Assert.assertEquals(12L, v.getCurr());
+    Assert.assertEquals(10L, v.getPrev());
+  }
+
+  @Test
+  public void testMissingValue() {
+    ColumnarStateLayout layout = new ColumnarStateLayout(StateType.TRANSACTIONAL);
+    Assert.assertNull(layout.read(new Result(new ArrayList<KeyValue>()), CF, CQ));
+  }
+
+  @Test
+  public void testMissingTxidIsAbsent() {
+    ColumnarStateLayout layout = new ColumnarStateLayout(StateType.OPAQUE);
+    KeyValue value = new KeyValue(KEY, CF, CQ, Bytes.toBytes(12L));
+    Assert.assertNull(layout.read(new Result(Collections.singletonList(value)), CF, CQ));
+  }
+
+  @Test
+  public void testSerializedCellFailsFast() {
+    ColumnarStateLayout layout = new ColumnarStateLayout(StateType.NON_TRANSACTIONAL);
+    KeyValue json = new KeyValue(KEY, CF, CQ, Bytes.toBytes("[7,12,10]"));
+    try {
+      layout.read(new Result(Collections.singletonList(json)), CF, CQ);
+      Assert.fail("Expected a serialized cell to be rejected");
+    } catch (RuntimeException e) {
+      Assert.assertTrue(e.getMessage().contains("ColumnarStateLayout"));
+    }
+  }
+}
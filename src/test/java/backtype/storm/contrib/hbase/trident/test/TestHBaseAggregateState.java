@@ -0,0 +1,72 @@
+package backtype.storm.contrib.hbase.trident.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Test;
+
+import storm.trident.state.JSONNonTransactionalSerializer;
+import backtype.storm.contrib.hbase.testing.InMemoryTableFactory;
+import backtype.storm.contrib.hbase.trident.HBaseAggregateState;
+import backtype.storm.contrib.hbase.utils.TridentConfig;
+
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class TestHBaseAggregateState {
+
+  @After
+  public void tearDown() {
+    InMemoryTableFactory.reset();
+  }
+
+  private static HBaseAggregateState<Long> state(int stateCacheSize) {
+    TridentConfig config = new TridentConfig("shorturl", "shortid");
+    config.setStateSerializer(new JSONNonTransactionalSerializer());
+    config.setStateCacheSize(stateCacheSize);
+    config.setTableFactory(new InMemoryTableFactory().addTable("shorturl", "daily"));
+    return new HBaseAggregateState<Long>(config);
+  }
+
+  private static List<List<Object>> keys(String... rows) {
+    List<List<Object>> keys = new ArrayList<List<Object>>();
+    for (String row : rows) {
+      keys.add(Arrays.<Object> asList(row, "daily", "20120816"));
+    }
+    return keys;
+  }
+
+  @Test
+  public void testUnchangedValuesAreNotWritten() {
+    HBaseAggregateState<Long> state = state(10);
+    state.multiPut(keys("a", "b"), Arrays.asList(1L, 2L));
+    long rpcs = InMemoryTableFactory.getRpcCount("shorturl");
+
+    // A replayed batch writes nothing
+    state.multiPut(keys("a", "b"), Arrays.asList(1L, 2L));
+    Assert.assertEquals(rpcs, InMemoryTableFactory.getRpcCount("shorturl"));
+
+    // Only the changed value is written
+    state.multiPut(keys("a", "b"), Arrays.asList(3L, 2L));
+    Assert.assertEquals(rpcs + 1, InMemoryTableFactory.getRpcCount("shorturl"));
+    Assert.assertEquals(3L, state.getSuppressedWritesMetric().getValueAndReset());
+
+    Assert.assertEquals(Arrays.asList(3L, 2L), state(10).multiGet(keys("a", "b")));
+  }
+
+  @Test
+  public void testStoredKeysShrinkAfterALargeBatch() {
+    HBaseAggregateState<Long> state = state(1);
+    state.multiPut(keys("a", "b", "c"), Arrays.asList(1L, 2L, 3L));
+    state.multiPut(keys("d"), Arrays.asList(4L));
+    long rpcs = InMemoryTableFactory.getRpcCount("shorturl");
+
+    // Only the state cache size plus the last batch's keys are remembered
+    state.multiPut(keys("d"), Arrays.asList(4L));
+    Assert.assertEquals(rpcs, InMemoryTableFactory.getRpcCount("shorturl"));
+    state.multiPut(keys("a"), Arrays.asList(1L));
+    Assert.assertEquals(rpcs + 1, InMemoryTableFactory.getRpcCount("shorturl"));
+  }
+}
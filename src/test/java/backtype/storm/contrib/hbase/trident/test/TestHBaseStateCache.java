@@ -0,0 +1,136 @@
+package backtype.storm.contrib.hbase.trident.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import storm.trident.state.JSONNonTransactionalSerializer;
+import storm.trident.state.map.IBackingMap;
+import backtype.storm.contrib.hbase.trident.HBaseStateCache;
+import backtype.storm.contrib.hbase.trident.OffHeapStateCache;
+import backtype.storm.contrib.hbase.utils.TridentConfig;
+
+public class TestHBaseStateCache {
+
+  /**
+   * In-memory backing map counting the keys fetched from it
+   */
+  static class CountingMap implements IBackingMap<Long> {
+    Map<List<Object>, Long> store = new HashMap<List<Object>, Long>();
+    int fetched = 0;
+
+    @Override
+    public List<Long> multiGet(List<List<Object>> keys) {
+      fetched += keys.size();
+      List<Long> rtn = new ArrayList<Long>();
+      for (List<Object> k : keys) {
+        rtn.add(store.get(k));
+      }
+      return rtn;
+    }
+
+    @Override
+    public void multiPut(List<List<Object>> keys, List<Long> vals) {
+      for (int i = 0; i < keys.size(); i++) {
+        store.put(keys.get(i), vals.get(i));
+      }
+    }
+  }
+
+  private static List<List<Object>> keys(String... rows) {
+    List<List<Object>> keys = new ArrayList<List<Object>>();
+    for (String row : rows) {
+      keys.add(Arrays.<Object> asList(row, "daily", "20120816"));
+    }
+    return keys;
+  }
+
+  @Test
+  public void testReadThroughAndWriteThrough() {
+    CountingMap backing = new CountingMap();
+    HBaseStateCache<Long> cache = new HBaseStateCache<Long>(backing, 10, null);
+
+    cache.multiPut(keys("a", "b"), Arrays.asList(1L, 2L));
+    Assert.assertEquals(Long.valueOf(1L), backing.store.get(keys("a").get(0)));
+
+    Assert.assertEquals(Arrays.asList(1L, 2L), cache.multiGet(keys("a", "b")));
+    Assert.assertEquals(0, backing.fetched);
+  }
+
+  @Test
+  public void testHotKeysAreNotEvictedByOneOffKeys() {
+    CountingMap backing = new CountingMap();
+    HBaseStateCache<Long> cache = new HBaseStateCache<Long>(backing, 2, null);
+
+    cache.multiPut(keys("hot1", "hot2"), Arrays.asList(1L, 2L));
+    for (int i = 0; i < 5; i++) {
+      cache.multiGet(keys("hot1", "hot2"));
+    }
+
+    // A stream of keys seen once each shouldn't displace the hot keys
+    for (int i = 0; i < 20; i++) {
+      cache.multiPut(keys("cold" + i), Arrays.asList((long) i));
+    }
+
+    int fetched = backing.fetched;
+    cache.multiGet(keys("hot1", "hot2"));
+    Assert.assertEquals(fetched, backing.fetched);
+    Assert.assertEquals(2, cache.size());
+  }
+
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  @Test
+  public void testNoHeapTier() {
+    // Without any tier every read goes to the backing map
+    CountingMap backing = new CountingMap();
+    HBaseStateCache<Long> cache = new HBaseStateCache<Long>(backing, 0, null);
+    cache.multiPut(keys("a", "b"), Arrays.asList(1L, 2L));
+    Assert.assertEquals(Arrays.asList(1L, 2L), cache.multiGet(keys("a", "b")));
+    Assert.assertEquals(Arrays.asList(1L, 2L), cache.multiGet(keys("a", "b")));
+    Assert.assertEquals(4, backing.fetched);
+    Assert.assertEquals(0, cache.size());
+
+    // Entries go straight to the off-heap tier
+    TridentConfig config = new TridentConfig("shorturl", "shortid");
+    config.setStateSerializer(new JSONNonTransactionalSerializer());
+    backing = new CountingMap();
+    cache =
+        new HBaseStateCache<Long>(backing, 0, new OffHeapStateCache<Long>(config, 1024 * 1024));
+    cache.multiPut(keys("a", "b"), Arrays.asList(1L, 2L));
+    Assert.assertEquals(Arrays.asList(1L, 2L), cache.multiGet(keys("a", "b")));
+    Assert.assertEquals(0, backing.fetched);
+    Assert.assertEquals(0, cache.size());
+  }
+
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  @Test
+  public void testOffHeapTier() {
+    TridentConfig config = new TridentConfig("shorturl", "shortid");
+    config.setStateSerializer(new JSONNonTransactionalSerializer());
+    OffHeapStateCache<Long> offHeap = new OffHeapStateCache<Long>(config, 1024 * 1024);
+
+    List<Object> a = keys("a").get(0);
+    offHeap.put(a, 1L);
+    offHeap.put(a, 2L); // overwrite
+    Assert.assertEquals(Long.valueOf(2L), offHeap.get(a));
+    Assert.assertNull(offHeap.get(keys("b").get(0)));
+    Assert.assertEquals(1, offHeap.size());
+
+    offHeap.remove(a);
+    Assert.assertNull(offHeap.get(a));
+
+    // Closing frees the buffers, and the tier stays empty
+    offHeap.put(a, 3L);
+    offHeap.close();
+    Assert.assertEquals(0, offHeap.size());
+    Assert.assertNull(offHeap.get(a));
+    offHeap.put(a, 4L);
+    Assert.assertNull(offHeap.get(a));
+  }
+}
@@ -0,0 +1,110 @@
+package backtype.storm.contrib.hbase.trident.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import storm.trident.tuple.TridentTuple;
+import storm.trident.tuple.TridentTupleView;
+import backtype.storm.contrib.hbase.trident.HBaseValueQuery;
+import backtype.storm.contrib.hbase.trident.HBaseValueState;
+import backtype.storm.contrib.hbase.utils.TridentConfig;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Values;
+
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class TestHBaseValueQuery {
+  private static final byte[] CF = Bytes.toBytes("data");
+  private static final byte[] CQ = Bytes.toBytes("url");
+
+  /**
+   * State answering each get with "row@timestamp", or nothing for rows starting with "missing",
+   * recording the gets it receives
+   */
+  static class RecordingState extends HBaseValueState {
+    final List<Get> requested = new ArrayList<Get>();
+
+    RecordingState(TridentConfig conf) {
+      super(conf);
+    }
+
+    @Override
+    public List<Result> getValuesBulk(List<Get> gets) {
+      requested.addAll(gets);
+      List<Result> results = new ArrayList<Result>();
+      for (Get g : gets) {
+        String row = Bytes.toString(g.getRow());
+        if (row.startsWith("missing")) {
+          results.add(new Result());
+        } else {
+          String value = row + "@" + g.getTimeRange().getMin();
+          results.add(new Result(Collections.singletonList(new KeyValue(g.getRow(), CF, CQ, Bytes
+              .toBytes(value)))));
+        }
+      }
+      return results;
+    }
+  }
+
+  private static List<TridentTuple> tuples(Fields fields, Values... values) {
+    TridentTupleView.FreshOutputFactory factory = new TridentTupleView.FreshOutputFactory(fields);
+    List<TridentTuple> tuples = new ArrayList<TridentTuple>();
+    for (Values v : values) {
+      tuples.add(factory.create(v));
+    }
+    return tuples;
+  }
+
+  @Test
+  public void testDistinctRowAndTimestamp() {
+    TridentConfig conf = new TridentConfig("shorturl", "shortid", "ts");
+    conf.addColumn("data", "url");
+    RecordingState state = new RecordingState(conf);
+
+    List<TridentTuple> args =
+        tuples(new Fields("shortid", "ts"), new Values("a", 1L), new Values("b", 1L), new Values(
+            "a", 1L), new Values("a", 2L), new Values("b", 1L));
+    List<List<Object>> results = new HBaseValueQuery().batchRetrieve(state, args);
+
+    // a@1, b@1 and a@2 are each fetched once
+    Assert.assertEquals(3, state.requested.size());
+    Assert.assertEquals(5, results.size());
+    Assert.assertEquals(Arrays.asList("a@1"), results.get(0));
+    Assert.assertEquals(Arrays.asList("b@1"), results.get(1));
+    Assert.assertEquals(Arrays.asList("a@1"), results.get(2));
+    Assert.assertEquals(Arrays.asList("a@2"), results.get(3));
+    Assert.assertEquals(Arrays.asList("b@1"), results.get(4));
+  }
+
+  @Test
+  public void testResultsInTupleOrder() {
+    TridentConfig conf = new TridentConfig("shorturl", "shortid");
+    conf.addColumn("data", "url");
+    RecordingState state = new RecordingState(conf);
+
+    List<TridentTuple> args =
+        tuples(new Fields("shortid"), new Values("c"), new Values("missing1"), new Values("a"),
+          new Values("c"));
+    List<List<Object>> results = new HBaseValueQuery().batchRetrieve(state, args);
+
+    Assert.assertEquals(3, state.requested.size());
+    Assert.assertEquals("c", Bytes.toString(state.requested.get(0).getRow()));
+    Assert.assertEquals("missing1", Bytes.toString(state.requested.get(1).getRow()));
+    Assert.assertEquals("a", Bytes.toString(state.requested.get(2).getRow()));
+
+    Assert.assertEquals(4, results.size());
+    Assert.assertTrue(((String) results.get(0).get(0)).startsWith("c@"));
+    Assert.assertNull(results.get(1).get(0));
+    Assert.assertTrue(((String) results.get(2).get(0)).startsWith("a@"));
+    Assert.assertEquals(results.get(0), results.get(3));
+  }
+}
@@ -0,0 +1,148 @@
+package backtype.storm.contrib.hbase.trident.test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import backtype.storm.contrib.hbase.trident.LookupCache;
+
+public class TestLookupCache {
+
+  /**
+   * Loader returning a single cell for rows starting with "a" and nothing for other rows, counting
+   * the rows loaded
+   */
+  static class CountingLoader implements LookupCache.Loader {
+    int loaded = 0;
+
+    @Override
+    public Result[] load(List<Get> gets) throws IOException {
+      loaded += gets.size();
+      Result[] results = new Result[gets.size()];
+      for (int i = 0; i < gets.size(); i++) {
+        byte[] row = gets.get(i).getRow();
+        if (Bytes.toString(row).startsWith("a")) {
+          results[i] =
+              new Result(Arrays.asList(new KeyValue(row, Bytes.toBytes("data"), Bytes
+                  .toBytes("url"), row)));
+        } else {
+          results[i] = new Result();
+        }
+      }
+      return results;
+    }
+  }
+
+  private static List<Get> gets(String... rows) {
+    List<Get> gets = new ArrayList<Get>();
+    for (String row : rows) {
+      gets.add(new Get(Bytes.toBytes(row)));
+    }
+    return gets;
+  }
+
+  @Test
+  public void testReadThroughAndNegativeCaching() throws IOException {
+    LookupCache cache = new LookupCache(10, 60000L);
+    LookupCache.Stats stats = new LookupCache.Stats();
+    CountingLoader loader = new CountingLoader();
+
+    List<Result> results = cache.get(gets("a1", "b1"), loader, stats);
+    Assert.assertEquals(2, loader.loaded);
+    Assert.assertFalse(results.get(0).isEmpty());
+    Assert.assertTrue(results.get(1).isEmpty());
+
+    // Both the existing and the missing row are served from the cache
+    results = cache.get(gets("a1", "b1", "a2"), loader, stats);
+    Assert.assertEquals(3, loader.loaded);
+    Assert.assertEquals("a1", Bytes.toString(results.get(0).getRow()));
+    Assert.assertTrue(results.get(1).isEmpty());
+
+    Map<?, ?> value = (Map<?, ?>) stats.getValueAndReset();
+    Assert.assertEquals(2L, value.get("hits"));
+    Assert.assertEquals(3L, value.get("misses"));
+    Assert.assertEquals(0.4, (Double) value.get("hitRatio"), 0.0001);
+  }
+
+  @Test
+  public void testExpiryEvictionAndInvalidation() throws IOException {
+    CountingLoader loader = new CountingLoader();
+    LookupCache.Stats stats = new LookupCache.Stats();
+
+    LookupCache expiring = new LookupCache(10, 0L);
+    expiring.get(gets("a1"), loader, stats);
+    expiring.get(gets("a1"), loader, stats);
+    Assert.assertEquals(2, loader.loaded);
+
+    LookupCache small = new LookupCache(2, 60000L);
+    small.get(gets("a1", "a2", "a3"), loader, stats);
+    Assert.assertEquals(2, small.size());
+
+    small.invalidate(Arrays.asList(new Put(Bytes.toBytes("a3"))));
+    Assert.assertEquals(1, small.size());
+
+    Map<?, ?> value = (Map<?, ?>) stats.getValueAndReset();
+    Assert.assertEquals(1L, value.get("expirations"));
+    Assert.assertEquals(1L, value.get("evictions"));
+  }
+
+  @Test
+  public void testInvalidationAtCellTimestamps() throws IOException {
+    LookupCache cache = new LookupCache(10, 60000L);
+    LookupCache.Stats stats = new LookupCache.Stats();
+    CountingLoader loader = new CountingLoader();
+
+    Get latest = new Get(Bytes.toBytes("a1"));
+    Get at100 = new Get(Bytes.toBytes("a1"));
+    at100.setTimeStamp(100L);
+    Get at200 = new Get(Bytes.toBytes("a1"));
+    at200.setTimeStamp(200L);
+    cache.get(Arrays.asList(latest, at100, at200), loader, stats);
+    Assert.assertEquals(3, cache.size());
+
+    // The put has no timestamp of its own, only its cell does
+    Put p = new Put(Bytes.toBytes("a1"));
+    p.add(Bytes.toBytes("data"), Bytes.toBytes("url"), 100L, Bytes.toBytes("http://bit.ly"));
+    cache.invalidate(Arrays.asList(p));
+    Assert.assertEquals(1, cache.size());
+
+    cache.get(Arrays.asList(at200), loader, stats);
+    Assert.assertEquals(3, loader.loaded);
+    cache.get(Arrays.asList(latest, at100), loader, stats);
+    Assert.assertEquals(5, loader.loaded);
+  }
+
+  @Test
+  public void testFailedLoadIsNotCached() throws IOException {
+    LookupCache cache = new LookupCache(10, 60000L);
+    LookupCache.Stats stats = new LookupCache.Stats();
+
+    try {
+      cache.get(gets("a1"), new LookupCache.Loader() {
+        @Override
+        public Result[] load(List<Get> gets) throws IOException {
+          throw new IOException("region server down");
+        }
+      }, stats);
+      Assert.fail("Expected the load to fail");
+    } catch (IOException e) {
+      // expected
+    }
+    Assert.assertEquals(0, cache.size());
+
+    CountingLoader loader = new CountingLoader();
+    Assert.assertFalse(cache.get(gets("a1"), loader, stats).get(0).isEmpty());
+    Assert.assertEquals(1, loader.loaded);
+  }
+}
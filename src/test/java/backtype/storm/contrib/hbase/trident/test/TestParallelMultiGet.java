@@ -0,0 +1,92 @@
+package backtype.storm.contrib.hbase.trident.test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import backtype.storm.contrib.hbase.trident.ParallelMultiGet;
+
+public class TestParallelMultiGet {
+
+  /**
+   * Fetcher echoing each row back as a single cell, recording the rows of each sub-request
+   */
+  static class EchoFetcher implements ParallelMultiGet.Fetcher {
+    final List<List<String>> requests = Collections.synchronizedList(new ArrayList<List<String>>());
+
+    @Override
+    public Result[] fetch(List<Get> gets) throws IOException {
+      List<String> rows = new ArrayList<String>();
+      Result[] results = new Result[gets.size()];
+      for (int i = 0; i < gets.size(); i++) {
+        byte[] row = gets.get(i).getRow();
+        rows.add(Bytes.toString(row));
+        results[i] =
+            new Result(Collections.singletonList(new KeyValue(row, Bytes.toBytes("data"), Bytes
+                .toBytes("url"), row)));
+      }
+      requests.add(rows);
+      return results;
+    }
+  }
+
+  @Test
+  public void testSplitByRegionAndMergeInOrder() throws IOException {
+    // Rows interleaved over three regions
+    List<Get> gets = new ArrayList<Get>();
+    List<String> regions = new ArrayList<String>();
+    for (int i = 0; i < 25; i++) {
+      gets.add(new Get(Bytes.toBytes("row" + i)));
+      regions.add("region" + (i % 3));
+    }
+
+    EchoFetcher fetcher = new EchoFetcher();
+    Result[] results = new ParallelMultiGet("shorturl", 4, 4).get(gets, regions, fetcher);
+
+    Assert.assertEquals(gets.size(), results.length);
+    for (int i = 0; i < gets.size(); i++) {
+      Assert.assertEquals("row" + i, Bytes.toString(results[i].getRow()));
+    }
+
+    // 9, 8 and 8 gets per region, in requests of at most 4 gets for a single region
+    Assert.assertEquals(7, fetcher.requests.size());
+    for (List<String> request : fetcher.requests) {
+      Assert.assertTrue(request.size() <= 4);
+      int region = Integer.parseInt(request.get(0).substring(3)) % 3;
+      for (String row : request) {
+        Assert.assertEquals(region, Integer.parseInt(row.substring(3)) % 3);
+      }
+    }
+  }
+
+  @Test
+  public void testFailedSubRequest() {
+    List<Get> gets = new ArrayList<Get>();
+    List<String> regions = new ArrayList<String>();
+    for (int i = 0; i < 10; i++) {
+      gets.add(new Get(Bytes.toBytes("row" + i)));
+      regions.add("region" + (i % 2));
+    }
+
+    try {
+      new ParallelMultiGet("shorturl", 2, 2).get(gets, regions, new ParallelMultiGet.Fetcher() {
+        @Override
+        public Result[] fetch(List<Get> sub) throws IOException {
+          throw new IOException("region server down");
+        }
+      });
+      Assert.fail("Expected the multi-get to fail");
+    } catch (IOException e) {
+      Assert.assertEquals("region server down", e.getMessage());
+    }
+  }
+}
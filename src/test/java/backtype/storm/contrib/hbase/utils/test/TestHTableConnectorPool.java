@@ -0,0 +1,52 @@
+package backtype.storm.contrib.hbase.utils.test;
+
+import java.io.IOException;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Test;
+
+import backtype.storm.contrib.hbase.testing.InMemoryTableFactory;
+import backtype.storm.contrib.hbase.utils.HTableConnector;
+import backtype.storm.contrib.hbase.utils.HTableConnectorPool;
+import backtype.storm.contrib.hbase.utils.TupleTableConfig;
+
+public class TestHTableConnectorPool {
+
+  @After
+  public void tearDown() {
+    HTableConnectorPool.closeIdle();
+    InMemoryTableFactory.reset();
+  }
+
+  private static TupleTableConfig config() {
+    TupleTableConfig conf = new TupleTableConfig("shorturl", "shortid");
+    conf.addColumn("data", "url");
+    conf.setTableFactory(new InMemoryTableFactory().addTable("shorturl", "data"));
+    return conf;
+  }
+
+  @Test
+  public void testReuseAndCloseWhenLastLeaseReleased() throws IOException {
+    TupleTableConfig conf = config();
+
+    HTableConnector first = HTableConnectorPool.borrow(conf);
+    HTableConnectorPool.release(first);
+    HTableConnector again = HTableConnectorPool.borrow(conf);
+    Assert.assertSame(first, again);
+
+    // Two concurrent borrowers need two connectors
+    HTableConnector second = HTableConnectorPool.borrow(conf);
+    Assert.assertNotSame(first, second);
+    Assert.assertEquals(2, HTableConnectorPool.getLeased(conf));
+
+    HTableConnectorPool.release(second);
+    Assert.assertEquals(1, HTableConnectorPool.getIdle(conf));
+
+    // Once nothing is leased only the last returned connector is kept
+    HTableConnectorPool.release(again);
+    Assert.assertEquals(0, HTableConnectorPool.getLeased(conf));
+    Assert.assertEquals(1, HTableConnectorPool.getIdle(conf));
+  }
+}
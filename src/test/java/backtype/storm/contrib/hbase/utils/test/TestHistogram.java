@@ -0,0 +1,98 @@
+package backtype.storm.contrib.hbase.utils.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import backtype.storm.contrib.hbase.utils.Histogram;
+
+public class TestHistogram {
+
+  /**
+   * @return The upper bound of the value's bucket, read back as the median of the value and a much
+   *         larger one
+   */
+  private static long bucketOf(long value) {
+    Histogram h = new Histogram();
+    h.record(value);
+    h.record(Long.MAX_VALUE);
+    return h.getPercentile(50);
+  }
+
+  @Test
+  public void testBucketBounds() {
+    List<Long> values = new ArrayList<Long>();
+    for (long v = 0; v < 1000; v++) {
+      values.add(v);
+    }
+    for (int exp = 7; exp < 62; exp++) {
+      values.add((1L << exp) - 1);
+      values.add(1L << exp);
+      values.add((1L << exp) + 1);
+      values.add((1L << exp) + (1L << (exp - 1)) + 12345);
+    }
+
+    for (long v : values) {
+      long bound = bucketOf(v);
+      Assert.assertTrue(v + " above its bucket's bound " + bound, bound >= v);
+      Assert.assertTrue(v + " bucketed too coarsely: " + bound, bound - v <= v / 64);
+      // The bound is the last value of the bucket, the next value starts a new one
+      Assert.assertEquals(bound, bucketOf(bound));
+      Assert.assertTrue(bucketOf(bound + 1) > bound);
+    }
+
+    // Values below 128 are exact
+    for (long v = 0; v < 128; v++) {
+      Assert.assertEquals(v, bucketOf(v));
+    }
+  }
+
+  @Test
+  public void testPercentiles() {
+    Histogram h = new Histogram();
+    Assert.assertEquals(0L, h.getPercentile(99));
+
+    for (long v = 1; v <= 10000; v++) {
+      h.record(v);
+    }
+    h.record(-5);
+
+    Assert.assertEquals(10001L, h.getCount());
+    Assert.assertEquals(10000L, h.getMax());
+    Assert.assertEquals(50005000.0 / 10001, h.getMean(), 0.0001);
+    Assert.assertEquals(0L, h.getPercentile(0));
+    Assert.assertEquals(5000.0, h.getPercentile(50), 5000 / 64.0);
+    Assert.assertEquals(9900.0, h.getPercentile(99), 9900 / 64.0);
+    Assert.assertEquals(9990.0, h.getPercentile(99.9), 9990 / 64.0);
+    // Never above the highest sample
+    Assert.assertEquals(10000L, h.getPercentile(100));
+
+    h.record(7, 1000000);
+    Assert.assertEquals(7L, h.getPercentile(50));
+  }
+
+  @Test
+  public void testValueAndReset() {
+    // Microseconds reported as milliseconds
+    Histogram h = new Histogram(1000.0);
+    h.record(1000);
+    h.record(3000);
+
+    Map<?, ?> value = (Map<?, ?>) h.getValueAndReset();
+    Assert.assertEquals(2L, value.get("count"));
+    Assert.assertEquals(2.0, (Double) value.get("mean"), 0.0001);
+    Assert.assertEquals(1.0, (Double) value.get("p50"), 1.0 / 64);
+    Assert.assertEquals(3.0, (Double) value.get("p99"), 0.0001);
+    Assert.assertEquals(3.0, (Double) value.get("p999"), 0.0001);
+    Assert.assertEquals(3.0, (Double) value.get("max"), 0.0001);
+
+    value = (Map<?, ?>) h.getValueAndReset();
+    Assert.assertEquals(0L, value.get("count"));
+    Assert.assertEquals(0.0, (Double) value.get("max"), 0.0);
+    Assert.assertEquals(0L, h.getCount());
+  }
+}
@@ -0,0 +1,113 @@
+package backtype.storm.contrib.hbase.utils.test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+
+import junit.framework.Assert;
+
+import org.apache.hadoop.hbase.DoNotRetryIOException;
+import org.apache.hadoop.hbase.TableNotFoundException;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.RetriesExhaustedWithDetailsException;
+import org.apache.hadoop.hbase.client.Row;
+import org.junit.Test;
+
+import backtype.storm.contrib.hbase.utils.RetryPolicy;
+import backtype.storm.topology.FailedException;
+
+public class TestRetryPolicy {
+
+  /**
+   * Operation failing with the given error a number of times before succeeding
+   */
+  static class FailingOp implements Callable<String> {
+    final IOException error;
+    final int failures;
+    int calls = 0;
+
+    FailingOp(IOException error, int failures) {
+      this.error = error;
+      this.failures = failures;
+    }
+
+    @Override
+    public String call() throws IOException {
+      calls++;
+      if (calls <= failures) {
+        throw error;
+      }
+      return "ok";
+    }
+  }
+
+  @Test
+  public void testFatalErrors() {
+    RetryPolicy policy = new RetryPolicy(3, 1L, 10L);
+    Assert.assertTrue(policy.isFatal(new DoNotRetryIOException("no such column family")));
+    Assert.assertTrue(policy.isFatal(new TableNotFoundException("shorturl")));
+    Assert.assertFalse(policy.isFatal(new IOException("region server busy")));
+
+    RetriesExhaustedWithDetailsException exhausted =
+        new RetriesExhaustedWithDetailsException(Arrays.<Throwable> asList(new IOException(
+            "timeout"), new DoNotRetryIOException("bad put")), Arrays.<Row> asList(new Put(
+            new byte[] { 1 }), new Put(new byte[] { 2 })), Arrays.asList("rs1:60020", "rs2:60020"));
+    Assert.assertTrue(policy.isFatal(exhausted));
+
+    FailingOp op = new FailingOp(new TableNotFoundException("shorturl"), 10);
+    try {
+      policy.call(op, "get");
+      Assert.fail("Expected a fatal error");
+    } catch (FailedException e) {
+      Assert.fail("Fatal errors shouldn't be replayed");
+    } catch (RuntimeException e) {
+      Assert.assertEquals(1, op.calls);
+    }
+  }
+
+  @Test
+  public void testRetriableErrors() {
+    RetryPolicy policy = new RetryPolicy(3, 1L, 10L);
+
+    FailingOp op = new FailingOp(new IOException("region moved"), 2);
+    Assert.assertEquals("ok", policy.call(op, "get"));
+    Assert.assertEquals(3, op.calls);
+
+    op = new FailingOp(new IOException("region moved"), 3);
+    try {
+      policy.call(op, "get");
+      Assert.fail("Expected the attempts to be used up");
+    } catch (FailedException e) {
+      Assert.assertEquals(3, op.calls);
+    }
+
+    // Errors other than IOExceptions aren't retried
+    final ArrayList<Integer> calls = new ArrayList<Integer>();
+    try {
+      policy.call(new Callable<Void>() {
+        @Override
+        public Void call() {
+          calls.add(1);
+          throw new IllegalStateException();
+        }
+      }, "put");
+      Assert.fail("Expected the error to be rethrown");
+    } catch (IllegalStateException e) {
+      Assert.assertEquals(1, calls.size());
+    }
+  }
+
+  @Test
+  public void testBackoffBounds() {
+    RetryPolicy policy = new RetryPolicy(100, 100L, 5000L);
+    for (int attempt = 1; attempt <= 64; attempt++) {
+      long max = Math.min(100L << Math.min(attempt - 1, 30), 5000L);
+      for (int i = 0; i < 100; i++) {
+        long backoff = policy.backoffMillis(attempt);
+        Assert.assertTrue(backoff >= max / 2);
+        Assert.assertTrue(backoff <= max);
+      }
+    }
+  }
+}
@@ -0,0 +1,40 @@
+package backtype.storm.contrib.hbase.utils.test;
+
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import backtype.storm.contrib.hbase.utils.CompositeRowKeyBuilder;
+import backtype.storm.contrib.hbase.utils.ValueCodecs;
+
+public class TestRowKeyBuilder {
+  private static final String SHORTID = "http://bit.ly/ZK6t";
+
+  @Test
+  public void testCompositeKey() {
+    CompositeRowKeyBuilder builder =
+        new CompositeRowKeyBuilder().add("shortid", ValueCodecs.fixedWidthString(20)).add("ts",
+          ValueCodecs.REVERSED_TIMESTAMP);
+
+    byte[] older = builder.build(Arrays.<Object> asList(SHORTID, 1000L));
+    byte[] newer = builder.build(Arrays.<Object> asList(SHORTID, 2000L));
+
+    Assert.assertEquals(28, older.length);
+    // Most recent timestamp sorts first
+    Assert.assertTrue(Bytes.compareTo(newer, older) < 0);
+  }
+
+  @Test
+  public void testSaltedKey() {
+    CompositeRowKeyBuilder builder = new CompositeRowKeyBuilder().add("shortid").setSaltBuckets(8);
+
+    byte[] key = builder.build(Arrays.<Object> asList(SHORTID));
+    Assert.assertEquals(SHORTID.length() + 1, key.length);
+    Assert.assertTrue(key[0] >= 0 && key[0] < 8);
+    // The same values always land in the same bucket
+    Assert.assertTrue(Bytes.equals(key, builder.build(Arrays.<Object> asList(SHORTID))));
+  }
+}
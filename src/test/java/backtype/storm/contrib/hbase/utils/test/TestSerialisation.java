@@ -6,6 +6,8 @@ import org.apache.hadoop.hbase.client.Increment;
 import org.junit.Test;
 
 import backtype.storm.contrib.hbase.utils.TupleTableConfig;
+import backtype.storm.contrib.hbase.utils.ValueCodec;
+import backtype.storm.contrib.hbase.utils.ValueCodecs;
 
 public class TestSerialisation {
   private static final byte[] KEY = "http://bit.ly/ZK6t".getBytes();
@@ -28,4 +30,37 @@ public class TestSerialisation {
     Assert.assertEquals(3L, (long) i.getFamilyMap().get(CF).get(CQ1));
     Assert.assertEquals(2L, (long) i.getFamilyMap().get(CF).get(CQ2));
   }
+
+  @Test
+  public void testMergeIncrements() {
+    Increment i = new Increment(KEY);
+    TupleTableConfig.addIncrement(i, CF, CQ1, 1L);
+
+    Increment other = new Increment(KEY);
+    TupleTableConfig.addIncrement(other, CF, CQ1, 2L);
+    TupleTableConfig.addIncrement(other, CF, CQ2, 5L);
+
+    TupleTableConfig.addIncrement(i, other); // merge counters into i
+
+    Assert.assertEquals(3L, (long) i.getFamilyMap().get(CF).get(CQ1));
+    Assert.assertEquals(5L, (long) i.getFamilyMap().get(CF).get(CQ2));
+  }
+
+  @Test
+  public void testValueCodecs() {
+    Assert.assertEquals(8, ValueCodecs.LONG.encode(42).length);
+    Assert.assertEquals(42L, ValueCodecs.LONG.decode(ValueCodecs.LONG.encode(42)));
+    Assert.assertEquals(1.5d, ValueCodecs.DOUBLE.decode(ValueCodecs.DOUBLE.encode(1.5f)));
+    Assert.assertEquals("20120816", ValueCodecs.STRING.decode(ValueCodecs.STRING.encode("20120816")));
+
+    ValueCodec shorts = ValueCodecs.fixedWidth(2);
+    Assert.assertEquals(2, shorts.encode(-300).length);
+    Assert.assertEquals(-300L, shorts.decode(shorts.encode(-300)));
+    Assert.assertEquals(32767L, shorts.decode(shorts.encode(32767)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testFixedWidthOverflow() {
+    ValueCodecs.fixedWidth(2).encode(32768);
+  }
 }
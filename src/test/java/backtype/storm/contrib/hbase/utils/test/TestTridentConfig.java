@@ -0,0 +1,91 @@
+package backtype.storm.contrib.hbase.utils.test;
+
+import junit.framework.Assert;
+
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.ColumnRangeFilter;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import storm.trident.tuple.TridentTuple;
+import storm.trident.tuple.TridentTupleView;
+import backtype.storm.contrib.hbase.utils.TridentConfig;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Values;
+
+@SuppressWarnings("rawtypes")
+public class TestTridentConfig {
+
+  private static TridentTuple tuple(Fields fields, Object... values) {
+    return new TridentTupleView.FreshOutputFactory(fields).create(new Values(values));
+  }
+
+  private static void assertRow(String expected, byte[] actual) {
+    Assert.assertEquals(expected, Bytes.toStringBinary(actual));
+  }
+
+  @Test
+  public void testScanOfRowKeyPrefix() {
+    TridentConfig conf = new TridentConfig("shorturl", "shortid");
+    conf.addColumn("data", "url");
+    conf.addColumn("daily", "20120816");
+
+    Scan s = conf.getScanFromTridentTuple(tuple(new Fields("shortid"), "ZK6t"));
+    assertRow("ZK6t", s.getStartRow());
+    assertRow("ZK6u", s.getStopRow());
+    Assert.assertNull(s.getFilter());
+    Assert.assertFalse(s.getCacheBlocks());
+    Assert.assertTrue(s.getFamilyMap().get(Bytes.toBytes("data")).contains(Bytes.toBytes("url")));
+    Assert.assertTrue(s.getFamilyMap().get(Bytes.toBytes("daily")).contains(
+      Bytes.toBytes("20120816")));
+  }
+
+  @Test
+  public void testScanOfRowRange() {
+    TridentConfig conf = new TridentConfig("shorturl", "shortid");
+    conf.addColumn("data", "url");
+    conf.setScanRowRange("from", "to");
+
+    Scan s =
+        conf.getScanFromTridentTuple(tuple(new Fields("shortid", "from", "to"), "ZK6t", "/2012",
+          "/2013"));
+    assertRow("ZK6t/2012", s.getStartRow());
+    assertRow("ZK6t/2013", s.getStopRow());
+
+    // Only a start row, up to the end of the prefix
+    conf.setScanRowRange("from", null);
+    s = conf.getScanFromTridentTuple(tuple(new Fields("shortid", "from"), "ZK6t", "/2012"));
+    assertRow("ZK6t/2012", s.getStartRow());
+    assertRow("ZK6u", s.getStopRow());
+  }
+
+  @Test
+  public void testScanOfColumnRange() {
+    TridentConfig conf = new TridentConfig("shorturl", "shortid");
+    conf.addColumn("daily", "20120816");
+    conf.setScanColumnRange("from", "to");
+
+    Scan s =
+        conf.getScanFromTridentTuple(tuple(new Fields("shortid", "from", "to"), "ZK6t",
+          "20120801", "20120901"));
+    assertRow("ZK6t", s.getStartRow());
+    assertRow("ZK6u", s.getStopRow());
+
+    // The whole family is scanned, filtered on the qualifiers
+    Assert.assertTrue(s.getFamilyMap().containsKey(Bytes.toBytes("daily")));
+    Assert.assertNull(s.getFamilyMap().get(Bytes.toBytes("daily")));
+    ColumnRangeFilter filter = (ColumnRangeFilter) s.getFilter();
+    Assert.assertEquals("20120801", Bytes.toString(filter.getMinColumn()));
+    Assert.assertTrue(filter.isMinColumnInclusive());
+    Assert.assertEquals("20120901", Bytes.toString(filter.getMaxColumn()));
+    Assert.assertFalse(filter.isMaxColumnInclusive());
+
+    // An open range
+    conf.setScanColumnRange("from", null);
+    filter =
+        (ColumnRangeFilter) conf.getScanFromTridentTuple(
+          tuple(new Fields("shortid", "from"), "ZK6t", "20120801")).getFilter();
+    Assert.assertEquals("20120801", Bytes.toString(filter.getMinColumn()));
+    Assert.assertNull(filter.getMaxColumn());
+  }
+}
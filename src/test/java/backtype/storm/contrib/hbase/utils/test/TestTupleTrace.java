@@ -0,0 +1,99 @@
+package backtype.storm.contrib.hbase.utils.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import backtype.storm.contrib.hbase.utils.TupleTraceReader;
+import backtype.storm.contrib.hbase.utils.TupleTraceWriter;
+import backtype.storm.generated.StormTopology;
+import backtype.storm.task.GeneralTopologyContext;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Tuple;
+import backtype.storm.tuple.TupleImpl;
+import backtype.storm.tuple.Values;
+import backtype.storm.utils.Utils;
+
+public class TestTupleTrace {
+  private static final Fields FIELDS = new Fields("shortid", "clicks", "score", "raw", "user");
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static Tuple tuple(List<Object> values) {
+    Map<Integer, String> taskToComponent = new HashMap<Integer, String>();
+    taskToComponent.put(1, "spout");
+    Map<String, List<Integer>> componentToTasks = new HashMap<String, List<Integer>>();
+    componentToTasks.put("spout", Collections.singletonList(1));
+    Map<String, Map<String, Fields>> componentToStreams =
+        new HashMap<String, Map<String, Fields>>();
+    componentToStreams.put("spout", Collections.singletonMap(Utils.DEFAULT_STREAM_ID, FIELDS));
+    GeneralTopologyContext context =
+        new GeneralTopologyContext(new StormTopology(), new HashMap<Object, Object>(),
+            taskToComponent, componentToTasks, componentToStreams, "test");
+    return new TupleImpl(context, values, 1, Utils.DEFAULT_STREAM_ID);
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    File file = folder.newFile("hbase-1.trace");
+    TupleTraceWriter writer = new TupleTraceWriter(file, 1L << 20);
+    for (int i = 0; i < 100; i++) {
+      writer.write(tuple(new Values("http://bit.ly/" + i, (long) -i, i / 2.0, new byte[] {
+          (byte) i }, i % 3 == 0 ? null : "kinley")));
+    }
+    writer.close();
+
+    TupleTraceReader reader = new TupleTraceReader(file);
+    Assert.assertEquals(FIELDS.toList(), reader.getFields().toList());
+    long micros = 0;
+    for (int i = 0; i < 100; i++) {
+      Assert.assertTrue(reader.next());
+      List<Object> v = reader.getValues();
+      Assert.assertEquals("http://bit.ly/" + i, v.get(0));
+      Assert.assertEquals((long) -i, v.get(1));
+      Assert.assertEquals(i / 2.0, v.get(2));
+      Assert.assertTrue(Arrays.equals(new byte[] { (byte) i }, (byte[]) v.get(3)));
+      Assert.assertEquals(i % 3 == 0 ? null : "kinley", v.get(4));
+      Assert.assertTrue(reader.getMicros() >= micros);
+      micros = reader.getMicros();
+    }
+    Assert.assertFalse(reader.next());
+    reader.close();
+  }
+
+  @Test
+  public void testTruncatedTraceAndMaxBytes() throws IOException {
+    File file = folder.newFile("hbase-2.trace");
+    TupleTraceWriter writer = new TupleTraceWriter(file, 200);
+    int written = 0;
+    while (writer.write(tuple(new Values("http://bit.ly/ZK6t", 1L, 0.5, new byte[0], "kinley")))) {
+      written++;
+    }
+    writer.close();
+
+    // Cut the last tuple in half, as if the worker died while writing it
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    raf.setLength(raf.length() - 3);
+    raf.close();
+
+    TupleTraceReader reader = new TupleTraceReader(file);
+    int read = 0;
+    while (reader.next()) {
+      read++;
+    }
+    reader.close();
+    Assert.assertEquals(written - 1, read);
+  }
+}